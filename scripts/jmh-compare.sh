@@ -0,0 +1,56 @@
+#!/bin/bash
+## Compares two JMH runs
+#
+# ./gradlew jmh writes its results to build/results/jmh/results.json. Keep a copy per commit,
+# for example with cp build/results/jmh/results.json jmh-$(git rev-parse --short HEAD).json
+#
+# Usage: ./jmh-compare.sh <baseline.json> <candidate.json> [threshold in percent, default 5]
+#
+# Prints the score of every benchmark found in both runs and how much it changed. Exits with 1 if
+# any got worse by more than the threshold and by more than the two runs' error margins combined.
+# Needs jq: https://jqlang.github.io/jq/
+
+set -euo pipefail
+
+if [ $# -lt 2 ]; then
+    echo "Usage: $0 <baseline.json> <candidate.json> [threshold percent]" >&2
+    exit 2
+fi
+
+threshold=${3:-5}
+
+report=$(jq -r -n --slurpfile baseline "$1" --slurpfile candidate "$2" --argjson threshold "$threshold" '
+    def key: (.benchmark | sub("^org\\.usrv\\."; "")) + ((.params // {}) | to_entries | map(" " + .key + "=" + .value) | join(""));
+    # Single-shot runs have no error margin, JMH writes "NaN"
+    def error: if (.scoreError | type) == "number" then .scoreError else 0 end;
+    def round(digits): (. * pow(10; digits) | round) / pow(10; digits);
+
+    ($baseline[0] | map({key: key, value: .primaryMetric}) | from_entries) as $before
+    | ["Benchmark", "Mode", "Baseline", "Candidate", "Unit", "Change", ""],
+      ($candidate[0][]
+        | key as $key
+        | select($before[$key] != null)
+        | $before[$key] as $old
+        | .primaryMetric as $new
+        # Throughput is better when higher, the time modes when lower
+        | (if .mode == "thrpt" then $old.score - $new.score else $new.score - $old.score end) as $worse
+        | (100 * $worse / $old.score) as $percent
+        | [
+            $key,
+            .mode,
+            ($old.score | round(3)),
+            ($new.score | round(3)),
+            $new.scoreUnit,
+            (100 * ($new.score - $old.score) / $old.score | round(1) | tostring) + "%",
+            (if $percent > $threshold and $worse > ($old | error) + ($new | error) then "REGRESSION" else "" end)
+          ])
+    | @tsv
+')
+
+while IFS=$'\t' read -r benchmark mode baseline candidate unit change flag; do
+    printf "%-64s %-6s %12s %12s %-8s %8s %s\n" "$benchmark" "$mode" "$baseline" "$candidate" "$unit" "$change" "$flag"
+done <<< "$report"
+
+if grep -q "REGRESSION" <<< "$report"; then
+    exit 1
+fi
@@ -1,12 +1,13 @@
 ## Load tests
 #
-# Load tests are run using siege
+# Load tests are run with the open-loop load generator in src/loadtest. It sends requests at a constant
+# rate whether or not earlier ones were answered, and measures latency from when each request was due,
+# so server stalls show up in the percentiles instead of slowing the test down.
 #
-# Link: https://www.joedog.org/siege-home/
-# Installation with homebrew: https://formulae.brew.sh/formula/siege
-# Or download from: http://download.joedog.org/siege/siege-latest.tar.gz
-#
-# To change what urls are used, edit ./siege/etc/urls.txt
+# To change what urls are used, edit ./siege/etc/urls.txt (siege's format)
+# For all options, see LoadOptions or run it without arguments
+
+cd "$(dirname "$0")/.." || exit 1
 
-# Runs siege with 25 workers, a randomized delay of around 0.3s and 100 repetitions per worker
-siege -c25 -d0.3 -r100 --file=./siege/etc/urls.txt
+# Sends 1000 requests/s over 16 keep-alive connections for 30s, after 5s of warm-up
+./gradlew loadTest --args="--urls scripts/siege/etc/urls.txt --rate 1000 $*"
@@ -0,0 +1,77 @@
+package org.usrv.file;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares detecting a file's MIME type with Tika, as every cache miss used to, with {@link MimeTypes}.
+ * Run with {@code ./gradlew jmh}. {@code tikaStartup} is the one-off cost Tika adds to startup when
+ * it is loaded eagerly, which {@link MimeTypes} avoids unless an extension isn't in its table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MimeTypesBenchmark {
+    @Param({"assets/index-FZLPApSI.js", "assets/inter-latin.woff2", "index.html"})
+    public String file;
+
+    private Path path;
+    private MimeTypes mimeTypes;
+
+    // Separate, so Tika is only loaded in the forks that measure it
+    @State(Scope.Thread)
+    public static class Tika {
+        TikaConfig config;
+
+        @Setup
+        public void setup() throws TikaException, IOException {
+            config = new TikaConfig();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        path = Path.of(file);
+        mimeTypes = new MimeTypes(Map.of());
+    }
+
+    @Benchmark
+    public String tikaDetect(Tika tika) throws IOException {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, path.toString());
+
+        return tika.config.getDetector().detect(null, metadata).toString();
+    }
+
+    @Benchmark
+    public String extensionTable() {
+        return mimeTypes.resolve(path);
+    }
+
+    @Benchmark
+    public String staticFile() {
+        // What a cache miss does, the file itself isn't touched for its type
+        return new StaticFile(path, mimeTypes).getMimeType();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(5)
+    public TikaConfig tikaStartup() throws TikaException, IOException {
+        return new TikaConfig();
+    }
+}
@@ -0,0 +1,59 @@
+package org.usrv.file;
+
+import org.openjdk.jmh.annotations.*;
+import org.usrv.config.ServerConfig;
+import org.usrv.http.ClientRequest;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping a request to a file in the dist folder, which every request that misses the
+ * cache's path lookup goes through: an asset, a client-side route and a directory, in standard and
+ * SPA mode. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathResolverBenchmark {
+    @Param({"false", "true"})
+    public boolean serveSingleIndex;
+
+    private PathResolver resolver;
+    private ClientRequest asset;
+    private ClientRequest route;
+    private ClientRequest directory;
+
+    @Setup
+    public void setup() {
+        resolver = new PathResolver(new ServerConfig("./dist", 80, serveSingleIndex));
+
+        asset = request("/assets/index-FZLPApSI.js", "*/*");
+        route = request("/settings/profile", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        directory = request("/docs/", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+    }
+
+    private static ClientRequest request(String path, String accept) {
+        return new ClientRequest("GET", path, "HTTP/1.1", Map.of("Host", "localhost", "Accept", accept), URI.create(path));
+    }
+
+    @Benchmark
+    public Path asset() {
+        return resolver.resolveRequest(asset);
+    }
+
+    @Benchmark
+    public Path route() {
+        return resolver.resolveRequest(route);
+    }
+
+    @Benchmark
+    public Path directory() {
+        return resolver.resolveRequest(directory);
+    }
+}
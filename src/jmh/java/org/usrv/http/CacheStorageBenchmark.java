@@ -0,0 +1,144 @@
+package org.usrv.http;
+
+import org.openjdk.jmh.annotations.*;
+import org.usrv.cache.Cache;
+import org.usrv.config.CacheConfig;
+import org.usrv.config.ServerConfig;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the same skewed request mix from a cache with bodies on the heap and with bodies in
+ * direct buffers. Both see the same paths in the same order against the same byte budget, so their
+ * hit rates are equal, see the {@code hits} and {@code misses} counters. Run with {@code ./gradlew jmh};
+ * the gc profiler's {@code gc.count} and {@code gc.time} columns are the collections and the time
+ * spent in them, and the heap and direct memory still in use are printed once each trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-XX:MaxDirectMemorySize=1g", "-XX:+UseG1GC"})
+public class CacheStorageBenchmark {
+    private static final long MAX_BYTES = 256L * 1024 * 1024;
+    private static final int SEQUENCE_LENGTH = 1 << 20;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public CacheConfig.Storage storage;
+
+    // Twice the budget in total, so the cache keeps evicting and reloading the less popular files
+    @Param({"4096"})
+    public int files;
+
+    @Param({"131072"})
+    public int fileSize;
+
+    private Cache<Path, CachedFile> cache;
+    private Path[] paths;
+    private byte[] template;
+    private int[] sequence;
+    private int next;
+    private FileChannel sink;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ServerConfig config = new ServerConfig("./dist", 80, false)
+                .withCache(new CacheConfig(MAX_BYTES, CacheConfig.EvictionPolicy.LRU, false).withStorage(storage));
+        cache = RequestHandler.createCache(config);
+
+        paths = new Path[files];
+        for (int i = 0; i < files; i++) {
+            paths[i] = Path.of("benchmark", "asset-" + i + ".bin");
+        }
+
+        template = new byte[fileSize];
+        new Random(1).nextBytes(template);
+
+        // Popularity falls off with the square, a few files get most requests like the entry points of a site
+        Random random = new Random(42);
+        sequence = new int[SEQUENCE_LENGTH];
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            double x = random.nextDouble();
+            sequence[i] = (int) (files * x * x);
+        }
+
+        // Heap buffers are copied into a temporary direct buffer before they are written, like to a socket
+        sink = FileChannel.open(Path.of("/dev/null"), StandardOpenOption.WRITE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sink.close();
+
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+
+        System.out.printf("%n%s: %d MB heap after a full GC, %d MB direct%n", storage, heap >> 20, direct >> 20);
+        cache.invalidateAll();
+    }
+
+    @Benchmark
+    public long serve(Counters counters) throws IOException {
+        int key = sequence[next++ & (SEQUENCE_LENGTH - 1)];
+        Path path = paths[key];
+
+        CachedFile cached = cache.get(path);
+        if (cached != null && cached.retain()) {
+            counters.hits++;
+        } else {
+            counters.misses++;
+            cached = load(key, path);
+        }
+
+        // As in RequestHandler, a response with off-heap memory takes over the request's reference
+        PreparedResponse response = cached.select(null);
+        try {
+            long written = 0;
+            for (ByteBuffer[] buffers = response.toBuffers(true); buffers[buffers.length - 1].hasRemaining(); ) {
+                written += sink.write(buffers);
+            }
+            return written;
+        } finally {
+            response.release();
+        }
+    }
+
+    private CachedFile load(int key, Path path) throws IOException {
+        // A fresh array per load, as read from disk, with different content per file
+        byte[] body = template.clone();
+        ByteBuffer.wrap(body).putInt(0, key);
+
+        CachedFile cached = CachedFile.load(path, "application/octet-stream", 0, body, storage == CacheConfig.Storage.OFF_HEAP);
+        cached.retain();
+        cache.put(path, cached);
+        return cached;
+    }
+}
@@ -0,0 +1,188 @@
+package org.usrv.http;
+
+import org.openjdk.jmh.annotations.*;
+import org.usrv.cache.Cache;
+import org.usrv.config.ServerConfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the full request cycle over loopback sockets in one process: the client sends a request
+ * and reads the whole response, which {@link RequestHandler} serves on a virtual thread the way the
+ * blocking engine does. {@code keepAlive} reuses one connection like a browser does, {@code newConnection}
+ * opens one per request, adding the TCP handshake and setting up the connection. Responses come from
+ * the cache after the first one. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestCycleBenchmark {
+    private static final int ASSET_SIZE = 64 * 1024;
+
+    @Param({"/index.html", "/assets/app.js"})
+    public String path;
+
+    private Path dist;
+    private ServerSocketChannel listener;
+    private ExecutorService executor;
+    private SocketChannel connection;
+
+    private ByteBuffer keepAliveRequest;
+    private ByteBuffer closingRequest;
+    private final ByteBuffer response = ByteBuffer.allocateDirect(ASSET_SIZE + 4096);
+
+    @Setup
+    public void setup() throws IOException {
+        dist = Files.createTempDirectory("usrv-request-cycle");
+        Files.writeString(dist.resolve("index.html"), "<html><head><script src=\"/assets/app.js\"></script></head></html>");
+        Files.createDirectories(dist.resolve("assets"));
+        byte[] asset = new byte[ASSET_SIZE];
+        new Random(42).nextBytes(asset);
+        Files.write(dist.resolve("assets/app.js"), asset);
+
+        ServerConfig config = new ServerConfig(dist.toString(), 0, false);
+        Cache<Path, CachedFile> cache = RequestHandler.createCache(config);
+        ConnectionLimiter limiter = new ConnectionLimiter(config.connections());
+
+        listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        executor.submit(() -> {
+            accept(config, cache, limiter);
+            return null;
+        });
+
+        keepAliveRequest = request("keep-alive");
+        closingRequest = request("close");
+        connection = connect();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        connection.close();
+        listener.close();
+        executor.shutdownNow();
+
+        try (Stream<Path> files = Files.walk(dist)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int keepAlive() throws IOException {
+        connection.write(keepAliveRequest.clear());
+        return readResponse(connection);
+    }
+
+    @Benchmark
+    public int newConnection() throws IOException {
+        try (SocketChannel channel = connect()) {
+            channel.write(closingRequest.clear());
+            return readResponse(channel);
+        }
+    }
+
+    private void accept(ServerConfig config, Cache<Path, CachedFile> cache, ConnectionLimiter limiter) throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = listener.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+
+            Socket socket = client.socket();
+            // The default limits are far off, so nothing gets shed
+            ConnectionLimiter.Lease lease = limiter.admit(socket.getInetAddress(), () -> {
+            });
+            executor.submit(() -> {
+                try {
+                    new RequestHandler(config, cache).handleRequest(socket, lease);
+                } finally {
+                    lease.release();
+                }
+            });
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(listener.getLocalAddress());
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return channel;
+    }
+
+    private ByteBuffer request(String connectionHeader) {
+        String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept: */*\r\nConnection: " + connectionHeader + "\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads one response, using its Content-Length to tell where it ends.
+     *
+     * @return the size of the response
+     */
+    private int readResponse(SocketChannel channel) throws IOException {
+        response.clear();
+
+        int headEnd = -1;
+        while (headEnd < 0) {
+            fill(channel);
+            headEnd = indexOfBlankLine();
+        }
+
+        int total = headEnd + contentLength(headEnd);
+        while (response.position() < total) {
+            fill(channel);
+        }
+        return total;
+    }
+
+    private void fill(SocketChannel channel) throws IOException {
+        if (channel.read(response) < 0) {
+            throw new EOFException("Connection closed mid-response");
+        }
+    }
+
+    /**
+     * @return the offset just past the blank line that ends the head, or -1 if it's not read yet
+     */
+    private int indexOfBlankLine() {
+        for (int i = 3; i < response.position(); i++) {
+            if (response.get(i) == '\n' && response.get(i - 1) == '\r' && response.get(i - 2) == '\n' && response.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int contentLength(int headEnd) {
+        byte[] head = new byte[headEnd];
+        response.get(0, head);
+
+        String lowerCase = new String(head, StandardCharsets.US_ASCII).toLowerCase();
+        int start = lowerCase.indexOf("content-length:") + "content-length:".length();
+        return Integer.parseInt(lowerCase.substring(start, lowerCase.indexOf('\r', start)).trim());
+    }
+}
@@ -0,0 +1,83 @@
+package org.usrv.http;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the string and reader based {@link ClientRequest#parse} and {@link ClientRequest#parseBuffer}
+ * with {@link RequestParser}.
+ * Run with {@code ./gradlew jmh}; the gc profiler's {@code gc.alloc.rate.norm} column is the
+ * number of bytes allocated per parsed request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestParserBenchmark {
+    // A typical browser asset request, as sent for the files in scripts/siege/etc/urls.txt
+    private static final byte[] REQUEST = ("""
+            GET /assets/index-FZLPApSI.js HTTP/1.1\r
+            Host: localhost\r
+            Connection: keep-alive\r
+            User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36\r
+            Accept: */*\r
+            Sec-Fetch-Site: same-origin\r
+            Sec-Fetch-Mode: no-cors\r
+            Sec-Fetch-Dest: script\r
+            Referer: http://localhost/\r
+            Accept-Encoding: gzip, deflate, br, zstd\r
+            Accept-Language: en-US,en;q=0.9\r
+            \r
+            """).getBytes(StandardCharsets.ISO_8859_1);
+    // ClientRequest.parse takes the head without the blank line that ends it
+    private static final String REQUEST_HEAD = new String(REQUEST, StandardCharsets.ISO_8859_1).strip();
+
+    private ByteArrayInputStream input;
+    private BufferedReader reader;
+    private RequestParser parser;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        input = new ByteArrayInputStream(REQUEST);
+        // Both parsers keep their buffers between requests, like on a keep-alive connection
+        reader = new BufferedReader(new InputStreamReader(input));
+        parser = new RequestParser();
+    }
+
+    @Benchmark
+    public ClientRequest legacyParse() {
+        return ClientRequest.parse(REQUEST_HEAD);
+    }
+
+    @Benchmark
+    public ClientRequest legacyParseBuffer() {
+        input.reset();
+
+        return ClientRequest.parseBuffer(reader);
+    }
+
+    @Benchmark
+    public ClientRequest byteParser() throws IOException {
+        input.reset();
+
+        return parser.parse(input);
+    }
+
+    @Benchmark
+    public String byteParserWithHeaderLookups() throws IOException {
+        input.reset();
+        ClientRequest request = parser.parse(input);
+
+        // The lookups RequestHandler and PathResolver do for every request
+        request.isKeepAlive();
+        return request.headers().get("Accept");
+    }
+}
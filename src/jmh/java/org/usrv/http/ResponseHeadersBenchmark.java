@@ -0,0 +1,48 @@
+package org.usrv.http;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a response head with {@link Response}, as done once per file when it's cached:
+ * creating the response, which formats the Date header, and rendering the status line and headers.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseHeadersBenchmark {
+    private Response response;
+
+    @Setup
+    public void setup() {
+        response = typicalResponse();
+    }
+
+    // The headers a cached JavaScript asset is sent with
+    private static Response typicalResponse() {
+        Response response = new Response(200);
+        response.setHeader("Content-Type", "text/javascript");
+        response.setHeader("Content-Length", "148213");
+        response.setHeader("Content-Encoding", "gzip");
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("ETag", "\"4c1f2a9e0b7d3e55\"");
+        response.setHeader("Last-Modified", "Mon, 03 Mar 2025 10:15:42 GMT");
+        response.setHeader("Accept-Ranges", "bytes");
+        return response;
+    }
+
+    @Benchmark
+    public String fullResponseHeaders() {
+        return response.getFullResponseHeaders();
+    }
+
+    @Benchmark
+    public String newResponse() {
+        return typicalResponse().getFullResponseHeaders();
+    }
+}
@@ -0,0 +1,115 @@
+package org.usrv.http;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sending a cached response the way the server used to, through an autoflushing
+ * {@link PrintStream}, with {@link ResponseWriter}. Both write to sinks that count their write
+ * calls, each of which would be a write syscall on a socket; the {@code writes} counter is the
+ * number of syscalls per response. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseWriterBenchmark {
+    // A small script and a typical image
+    @Param({"1024", "65536"})
+    public int bodySize;
+
+    private Response response;
+    private PreparedResponse prepared;
+    private PrintStream printStream;
+    private ResponseWriter writer;
+    private Counters counters;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long writes;
+    }
+
+    @Setup
+    public void setup(Counters counters) {
+        this.counters = counters;
+
+        response = new Response(200);
+        response.setHeader("Content-Type", "text/javascript");
+        response.setHeader("Content-Length", String.valueOf(bodySize));
+        response.setHeader("Connection", "keep-alive");
+        response.setBody(new byte[bodySize]);
+        prepared = PreparedResponse.of(response);
+
+        printStream = new PrintStream(new CountingOutputStream(), true);
+        writer = new ResponseWriter(new CountingChannel());
+    }
+
+    @Benchmark
+    public void printStream() {
+        // The removed RequestHandler.sendResponse
+        printStream.print(response.getFullResponseHeaders());
+        printStream.writeBytes(response.getBody());
+        printStream.flush();
+    }
+
+    @Benchmark
+    public void responseWriter() throws Exception {
+        writer.add(prepared, true);
+        writer.flush();
+    }
+
+    private final class CountingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            counters.writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            counters.writes++;
+        }
+    }
+
+    private final class CountingChannel implements GatheringByteChannel {
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            counters.writes++;
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += sources[i].remaining();
+                sources[i].position(sources[i].limit());
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            counters.writes++;
+            int remaining = source.remaining();
+            source.position(source.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.usrv.loadtest;
+
+import lombok.Getter;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Counts latencies in nanoseconds the way HdrHistogram does: values below 2048 get a bucket each,
+ * larger ones share buckets no wider than 1/1024 of their value. Every percentile is then accurate to
+ * three significant digits, at a fixed size however many values are recorded. Not thread-safe, each
+ * connection records into its own and they are merged with {@link #add}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    // Percentiles reported per halving of the distance to 100%, as HdrHistogram's output does
+    private static final int TICKS_PER_HALF_DISTANCE = 5;
+
+    private final long highestTrackableValue;
+    private final long[] counts;
+    @Getter
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    @Getter
+    private long max;
+
+    /**
+     * @param highestTrackableValue values above it are counted as this value
+     */
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new long[indexOf(highestTrackableValue) + 1];
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS + 1;
+        // The value's top bits, between half the sub-bucket count and the count
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT + subBucket - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        long clamped = Math.clamp(value, 0, highestTrackableValue);
+
+        counts[indexOf(clamped)]++;
+        totalCount++;
+        sum += clamped;
+        min = Math.min(min, clamped);
+        max = Math.max(max, clamped);
+    }
+
+    /**
+     * Adds the values recorded in another histogram with the same highest trackable value.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.counts.length != counts.length) {
+            throw new IllegalArgumentException("Histograms track different ranges");
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that percentile of the recorded values are at or below, 0 if there are none
+     */
+    public long valueAtPercentile(double percentile) {
+        int index = indexAtPercentile(percentile);
+        return index < 0 ? 0 : Math.min(highestEquivalentValue(index), max);
+    }
+
+    private int indexAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return -1;
+        }
+
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return i;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    /**
+     * Writes the percentile distribution in HdrHistogram's text format, which its plotting page reads.
+     *
+     * @param unitNanos the unit to write values in, e.g. 1,000,000 for milliseconds
+     */
+    public void writePercentiles(PrintStream out, double unitNanos) {
+        out.printf(Locale.ROOT, "%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+
+        double percentile = 0;
+        while (totalCount > 0) {
+            int index = indexAtPercentile(percentile);
+            long value = Math.min(highestEquivalentValue(index), max);
+            long countAtValue = 0;
+            for (int i = 0; i <= index; i++) {
+                countAtValue += counts[i];
+            }
+
+            if (countAtValue == totalCount) {
+                out.printf(Locale.ROOT, "%12.3f %14.12f %10d%n", value / unitNanos, 1.0, totalCount);
+                break;
+            }
+            out.printf(Locale.ROOT, "%12.3f %14.12f %10d %14.2f%n", value / unitNanos, percentile / 100, countAtValue, 1 / (1 - percentile / 100));
+
+            double halfDistances = Math.pow(2, Math.floor(Math.log(100 / (100 - percentile)) / Math.log(2)) + 1);
+            percentile += 100 / (TICKS_PER_HALF_DISTANCE * halfDistances);
+        }
+
+        out.printf(Locale.ROOT, "#[Mean    = %12.3f, Max            = %12.3f]%n", getMean() / unitNanos, max / unitNanos);
+        out.printf(Locale.ROOT, "#[Min     = %12.3f, Total count    = %12d]%n", getMin() / unitNanos, totalCount);
+        out.printf(Locale.ROOT, "#[Buckets = %12d, SubBuckets     = %12d]%n", (counts.length - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1, SUB_BUCKET_COUNT);
+    }
+}
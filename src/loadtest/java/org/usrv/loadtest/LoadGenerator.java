@@ -0,0 +1,360 @@
+package org.usrv.loadtest;
+
+import org.usrv.config.ServerConfig;
+import org.usrv.http.Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator. Each connection sends its share of the rate on a fixed schedule, whether
+ * or not its earlier requests were answered, and latency is measured from when a request was due
+ * rather than from when it could be sent. A closed-loop tool like siege sends less while the server
+ * stalls, so the stall shows up in only a few samples (coordinated omission); here every request
+ * scheduled during it reports the time it waited.
+ * <p>
+ * Run with {@code ./gradlew loadTest --args="--rate 1000 --serve ./dist"}, see {@link LoadOptions#USAGE}.
+ */
+public final class LoadGenerator {
+    // Latencies above it are counted as an hour
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+    // Time for the connections' threads to start before the first request is due
+    private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Not answering within it counts as an error, a stall as long as that is not worth waiting out
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+    private static final long SERVER_START_TIMEOUT_MILLIS = 10_000;
+
+    private final LoadOptions options;
+    private final InetSocketAddress address;
+    private final List<byte[]> keepAliveRequests;
+    private final List<byte[]> closingRequests;
+
+    /**
+     * When each connection's requests are due, all in {@link System#nanoTime()}.
+     *
+     * @param interval time between the requests of one connection
+     */
+    private record Schedule(long start, long measureFrom, long end, long interval) {
+    }
+
+    public LoadGenerator(LoadOptions options, List<URI> urls) {
+        this.options = options;
+
+        String host = options.effectiveHost() != null ? options.effectiveHost() : urls.getFirst().getHost();
+        int port = options.effectivePort() > 0 ? options.effectivePort() : port(urls.getFirst());
+        for (URI url : urls) {
+            if (options.effectiveHost() == null && !url.getHost().equals(host) || options.effectivePort() <= 0 && port(url) != port) {
+                throw new IllegalArgumentException("URLs have to be on one server, --host and --port send them all to one");
+            }
+        }
+
+        this.address = new InetSocketAddress(host, port);
+        this.keepAliveRequests = urls.stream().map(url -> request(url, host, port, "keep-alive")).toList();
+        this.closingRequests = urls.stream().map(url -> request(url, host, port, "close")).toList();
+    }
+
+    private static int port(URI url) {
+        return url.getPort() > 0 ? url.getPort() : 80;
+    }
+
+    private static byte[] request(URI url, String host, int port, String connection) {
+        String target = url.getRawPath().isEmpty() ? "/" : url.getRawPath();
+        if (url.getRawQuery() != null) {
+            target += "?" + url.getRawQuery();
+        }
+
+        // The headers siege sends
+        String request = "GET " + target + " HTTP/1.1\r\n"
+                + "Host: " + (port == 80 ? host : host + ":" + port) + "\r\n"
+                + "Accept: */*\r\n"
+                + "Accept-Encoding: gzip\r\n"
+                + "User-Agent: usrv-loadtest\r\n"
+                + "Connection: " + connection + "\r\n"
+                + "\r\n";
+        return request.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public LoadReport run() throws InterruptedException {
+        long interval = Math.round(options.connections() * TimeUnit.SECONDS.toNanos(1) / options.rate());
+        long start = System.nanoTime() + START_DELAY_NANOS;
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds());
+        Schedule schedule = new Schedule(start, measureFrom, measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds()), interval);
+
+        Measurements[] measurements = new Measurements[options.connections()];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < measurements.length; i++) {
+                Measurements connection = new Measurements(schedule.measureFrom());
+                measurements[i] = connection;
+                // Spread out, so the connections' requests don't all go out together
+                long first = start + i * interval / options.connections();
+
+                // Each connection starts at another URL
+                int url = i;
+
+                if (options.mode() == LoadOptions.Mode.KEEP_ALIVE) {
+                    executor.submit(() -> runKeepAlive(schedule, first, url, connection));
+                } else {
+                    executor.submit(() -> runNewConnections(schedule, first, url, connection));
+                }
+            }
+        }
+
+        LatencyHistogram latency = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        LatencyHistogram serviceTime = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        long sent = 0;
+        long answered = 0;
+        long errors = 0;
+        for (Measurements connection : measurements) {
+            latency.add(connection.latency);
+            serviceTime.add(connection.serviceTime);
+            sent += connection.sent;
+            answered += connection.answered;
+            errors += connection.errors.sum();
+        }
+
+        return new LoadReport(options, keepAliveRequests.size(), sent, answered, errors, latency, serviceTime);
+    }
+
+    private void runKeepAlive(Schedule schedule, long first, int url, Measurements measurements) {
+        long due = first;
+        int next = url;
+
+        while (due < schedule.end()) {
+            try (Socket socket = connect()) {
+                long resumeAt = sendPipelined(socket, schedule, due, next, measurements);
+                next += (int) ((resumeAt - due) / schedule.interval());
+                due = resumeAt;
+            } catch (IOException e) {
+                // Couldn't connect, the request due now fails and the next one tries again
+                measurements.sent(due);
+                measurements.failed(due);
+                next++;
+                due += schedule.interval();
+                waitUntil(due);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends requests as they come due, with up to {@code pipeline} of them waiting for an answer, while
+     * another thread reads the answers.
+     *
+     * @return when the first request not sent is due, after the schedule ended or the connection broke
+     */
+    private long sendPipelined(Socket socket, Schedule schedule, long due, int next, Measurements measurements)
+            throws IOException, InterruptedException {
+        // Due and sent times of the requests waiting for an answer, in order
+        BlockingQueue<long[]> inFlight = new LinkedBlockingQueue<>();
+        long[] end = new long[0];
+        Semaphore window = new Semaphore(options.pipeline());
+        AtomicBoolean broken = new AtomicBoolean();
+        ResponseReader reader = new ResponseReader(socket.getInputStream());
+
+        Thread readerThread = Thread.ofVirtual().start(() -> {
+            try {
+                long[] request;
+                while ((request = inFlight.take()) != end) {
+                    ResponseReader.Head head = reader.read();
+                    measurements.answered(request[0], request[1], head.status());
+                    window.release();
+
+                    if (head.close()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by the server or timed out, the requests still in flight fail
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            broken.set(true);
+            window.release(options.pipeline());
+        });
+
+        OutputStream out = socket.getOutputStream();
+        try {
+            while (due < schedule.end()) {
+                window.acquire();
+                if (broken.get()) {
+                    break;
+                }
+
+                waitUntil(due);
+                inFlight.add(new long[]{due, System.nanoTime()});
+                measurements.sent(due);
+                byte[] request = keepAliveRequests.get(next++ % keepAliveRequests.size());
+                due += schedule.interval();
+
+                out.write(request);
+            }
+        } catch (IOException e) {
+            // The request that failed to go out is in flight, and fails with the rest unless answered
+        } finally {
+            inFlight.add(end);
+            readerThread.join();
+
+            long[] unanswered;
+            while ((unanswered = inFlight.poll()) != null && unanswered != end) {
+                measurements.failed(unanswered[0]);
+            }
+        }
+
+        return due;
+    }
+
+    private void runNewConnections(Schedule schedule, long first, int url, Measurements measurements) {
+        int next = url;
+
+        for (long due = first; due < schedule.end(); due += schedule.interval()) {
+            waitUntil(due);
+            measurements.sent(due);
+
+            // Connecting is part of the service time
+            long sent = System.nanoTime();
+            try (Socket socket = connect()) {
+                socket.getOutputStream().write(closingRequests.get(next % closingRequests.size()));
+                ResponseReader.Head head = new ResponseReader(socket.getInputStream()).read();
+                measurements.answered(due, sent, head.status());
+            } catch (IOException e) {
+                measurements.failed(due);
+            }
+            next++;
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            socket.connect(address, READ_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    private static void waitUntil(long due) {
+        long remaining;
+        while ((remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * One connection's results. The histograms and counts are each only written by one thread, the
+     * connection's reader or its sender, and read once the connection is done.
+     */
+    private static final class Measurements {
+        private final long measureFrom;
+        private final LatencyHistogram latency = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        private final LatencyHistogram serviceTime = new LatencyHistogram(HIGHEST_TRACKABLE_NANOS);
+        private final LongAdder errors = new LongAdder();
+        private long sent;
+        private long answered;
+
+        private Measurements(long measureFrom) {
+            this.measureFrom = measureFrom;
+        }
+
+        void sent(long due) {
+            if (due >= measureFrom) {
+                sent++;
+            }
+        }
+
+        void answered(long due, long sentAt, int status) {
+            if (due < measureFrom) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            latency.record(now - due);
+            serviceTime.record(now - sentAt);
+            answered++;
+            if (status >= 400) {
+                errors.increment();
+            }
+        }
+
+        void failed(long due) {
+            if (due >= measureFrom) {
+                errors.increment();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        List<URI> urls;
+        try {
+            options = LoadOptions.parse(args);
+            urls = UrlFile.read(options.urls());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Server server = options.serve() != null ? startServer(options) : null;
+        LoadReport report;
+        try {
+            report = new LoadGenerator(options, urls).run();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        report.print(System.out);
+        if (options.histogram() != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(options.histogram()), false, StandardCharsets.UTF_8)) {
+                report.latency().writePercentiles(out, LoadReport.MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Starts a server for the {@code serve} folder and waits until it accepts connections.
+     */
+    static Server startServer(LoadOptions options) throws InterruptedException {
+        int port = options.effectivePort();
+        Server server = new Server(new ServerConfig(options.serve().toString(), port, false).withEngine(options.engine()));
+        Thread.ofPlatform().name("usrv-server").start(server::start);
+
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return server;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    server.stop();
+                    throw new IllegalStateException("Server didn't start on port " + port, e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
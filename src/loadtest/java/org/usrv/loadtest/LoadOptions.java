@@ -0,0 +1,169 @@
+package org.usrv.loadtest;
+
+import lombok.With;
+import org.usrv.config.ServerConfig;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Settings of a load test run, parsed from the command line.
+ *
+ * @param urls           file of URLs in siege's format, requested in turn
+ * @param rate           requests per second sent in total, on schedule whether or not earlier ones were answered
+ * @param durationSeconds how long to measure for
+ * @param warmupSeconds  how long to send at the same rate before measuring
+ * @param connections    connections the requests are spread over
+ * @param mode           whether connections are kept open or opened per request
+ * @param pipeline       requests a keep-alive connection sends before waiting for the first answer
+ * @param host           overrides the host of the URLs, null to use theirs
+ * @param port           overrides the port of the URLs, 0 to use theirs
+ * @param serve          dist folder to start a server for in this process, null to test a running one
+ * @param engine         engine of the server started for {@code serve}
+ * @param histogram      file to write the full latency distribution to, null for none
+ */
+@With
+public record LoadOptions(
+        Path urls,
+        double rate,
+        int durationSeconds,
+        int warmupSeconds,
+        int connections,
+        Mode mode,
+        int pipeline,
+        String host,
+        int port,
+        Path serve,
+        ServerConfig.Engine engine,
+        Path histogram
+) {
+    public static final String USAGE = """
+            Usage: LoadGenerator --rate <requests/s> [options]
+              --urls <file>          URLs in siege's urls.txt format (default: scripts/siege/etc/urls.txt)
+              --rate <n>             requests per second, sent on schedule (required)
+              --duration <seconds>   how long to measure (default: 30)
+              --warmup <seconds>     load before measuring (default: 5)
+              --connections <n>      connections to spread the requests over (default: 16)
+              --mode <mode>          keep-alive, or new-connection for one connection per request (default: keep-alive)
+              --pipeline <n>         requests in flight per keep-alive connection (default: 1)
+              --host <host>          host to send to instead of the URLs' host
+              --port <port>          port to send to instead of the URLs' port
+              --serve <dist>         start a server for this folder in-process, on --port or 8080
+              --engine <engine>      BLOCKING or NIO, for --serve (default: BLOCKING)
+              --histogram <file>     write the latency distribution in HdrHistogram's format
+            """;
+
+    public static final int DEFAULT_SERVE_PORT = 8080;
+
+    public enum Mode {
+        KEEP_ALIVE,
+        NEW_CONNECTION
+    }
+
+    public LoadOptions {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("--rate has to be above 0");
+        }
+        if (durationSeconds <= 0 || warmupSeconds < 0) {
+            throw new IllegalArgumentException("--duration has to be above 0, --warmup at least 0");
+        }
+        if (connections <= 0 || pipeline <= 0) {
+            throw new IllegalArgumentException("--connections and --pipeline have to be above 0");
+        }
+        if (pipeline > 1 && mode == Mode.NEW_CONNECTION) {
+            throw new IllegalArgumentException("--pipeline needs keep-alive connections");
+        }
+    }
+
+    public static LoadOptions getDefaultOptions(double rate) {
+        return new LoadOptions(
+                Path.of("scripts/siege/etc/urls.txt"),
+                rate,
+                30,
+                5,
+                16,
+                Mode.KEEP_ALIVE,
+                1,
+                null,
+                0,
+                null,
+                ServerConfig.Engine.BLOCKING,
+                null
+        );
+    }
+
+    public static LoadOptions parse(String[] args) {
+        Double rate = null;
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--rate")) {
+                rate = parseNumber(args[i], args[i + 1]);
+            }
+        }
+        if (rate == null) {
+            throw new IllegalArgumentException("--rate is required");
+        }
+
+        LoadOptions options = getDefaultOptions(rate);
+        for (int i = 0; i < args.length; i += 2) {
+            String name = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException(name + " needs a value");
+            }
+            String value = args[i + 1];
+
+            options = switch (name) {
+                case "--urls" -> options.withUrls(Path.of(value));
+                case "--rate" -> options;
+                case "--duration" -> options.withDurationSeconds(parseNumber(name, value).intValue());
+                case "--warmup" -> options.withWarmupSeconds(parseNumber(name, value).intValue());
+                case "--connections" -> options.withConnections(parseNumber(name, value).intValue());
+                case "--mode" -> options.withMode(Mode.valueOf(enumName(name, value)));
+                case "--pipeline" -> options.withPipeline(parseNumber(name, value).intValue());
+                case "--host" -> options.withHost(value);
+                case "--port" -> options.withPort(parseNumber(name, value).intValue());
+                case "--serve" -> options.withServe(Path.of(value));
+                case "--engine" -> options.withEngine(ServerConfig.Engine.valueOf(enumName(name, value)));
+                case "--histogram" -> options.withHistogram(Path.of(value));
+                default -> throw new IllegalArgumentException("Unknown option " + name);
+            };
+        }
+
+        return options;
+    }
+
+    /**
+     * @return the port to send to, or -1 to use the URLs' ports
+     */
+    int effectivePort() {
+        if (port > 0) {
+            return port;
+        }
+        return serve != null ? DEFAULT_SERVE_PORT : -1;
+    }
+
+    /**
+     * @return the host to send to, or null to use the URLs' hosts
+     */
+    String effectiveHost() {
+        if (host != null) {
+            return host;
+        }
+        return serve != null ? "localhost" : null;
+    }
+
+    private static Double parseNumber(String name, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " takes a number, not " + value);
+        }
+    }
+
+    private static String enumName(String name, String value) {
+        String constant = value.toUpperCase(Locale.ROOT).replace('-', '_');
+        if (!constant.matches("[A-Z_]+")) {
+            throw new IllegalArgumentException(name + " doesn't take " + value);
+        }
+        return constant;
+    }
+}
@@ -0,0 +1,62 @@
+package org.usrv.loadtest;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * What a load test measured, over the measured period only.
+ *
+ * @param sent        requests due in the measured period, including ones that failed
+ * @param answered    requests that got a whole response, of any status
+ * @param errors      requests that got no response, or one with a 4xx or 5xx status
+ * @param latency     time from when each answered request was due to its whole response
+ * @param serviceTime time from when each answered request was actually sent to its whole response
+ */
+public record LoadReport(
+        LoadOptions options,
+        int urls,
+        long sent,
+        long answered,
+        long errors,
+        LatencyHistogram latency,
+        LatencyHistogram serviceTime
+) {
+    public static final double MILLIS = 1_000_000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    // Below this share of the target rate, the latencies don't describe that rate
+    private static final double KEPT_UP_RATIO = 0.95;
+
+    public double answeredRate() {
+        return answered / (double) options.durationSeconds();
+    }
+
+    public void print(PrintStream out) {
+        String mode = options.mode() == LoadOptions.Mode.KEEP_ALIVE
+                ? String.format("keep-alive with up to %d requests in flight on each", options.pipeline())
+                : "a new connection per request";
+
+        out.printf(Locale.ROOT, "%d URLs over %d connections, %s%n", urls, options.connections(), mode);
+        out.printf(Locale.ROOT, "%.1f requests/s for %d s, after %d s of warm-up%n", options.rate(), options.durationSeconds(), options.warmupSeconds());
+        out.printf(Locale.ROOT, "%d sent, %d answered (%.1f/s), %d errors%n%n", sent, answered, answeredRate(), errors);
+
+        printPercentiles(out, "Latency from when requests were due, corrected for coordinated omission (ms):", latency);
+        printPercentiles(out, "Service time from when requests were sent (ms):", serviceTime);
+
+        if (answeredRate() < KEPT_UP_RATIO * options.rate()) {
+            out.println("The rate was not kept up, by the server or by the generator itself");
+        }
+    }
+
+    private static void printPercentiles(PrintStream out, String title, LatencyHistogram histogram) {
+        out.println(title);
+        for (double percentile : PERCENTILES) {
+            out.printf(Locale.ROOT, "  p%-8s %10.3f%n", format(percentile), histogram.valueAtPercentile(percentile) / MILLIS);
+        }
+        out.printf(Locale.ROOT, "  %-9s %10.3f%n", "max", histogram.getMax() / MILLIS);
+        out.printf(Locale.ROOT, "  %-9s %10.3f%n%n", "mean", histogram.getMean() / MILLIS);
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,93 @@
+package org.usrv.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads the responses a connection gets in order, skipping their bodies.
+ */
+final class ResponseReader {
+    private final InputStream in;
+    private final StringBuilder line = new StringBuilder();
+
+    record Head(int status, boolean close) {
+    }
+
+    ResponseReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    /**
+     * @return the head of the next final response, after any interim ones like 103 Early Hints
+     * @throws EOFException if the connection is closed before the whole response was read
+     */
+    Head read() throws IOException {
+        while (true) {
+            int status = parseStatus(readLine());
+            long contentLength = -1;
+            boolean close = false;
+
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+
+            if (status < 200) {
+                continue;
+            }
+
+            if (status == 204 || status == 304) {
+                // Never have a body
+            } else if (contentLength >= 0) {
+                in.skipNBytes(contentLength);
+            } else if (close) {
+                in.transferTo(OutputStream.nullOutputStream());
+            } else {
+                throw new IOException("Response without Content-Length on a kept-alive connection");
+            }
+            return new Head(status, close);
+        }
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection closed mid-response");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
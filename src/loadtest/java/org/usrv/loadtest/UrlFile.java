@@ -0,0 +1,91 @@
+package org.usrv.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads URLs in siege's urls.txt format: one URL per line, {@code #} comments, and variables set with
+ * {@code NAME=value} and used as {@code $(NAME)} or {@code ${NAME}}. URLs without a scheme are taken
+ * as http. Only GET requests over plain http are supported, lines with a POST body are rejected.
+ */
+public final class UrlFile {
+    private static final Pattern VARIABLE_DEFINITION = Pattern.compile("^([A-Za-z_][A-Za-z0-9_]*)\\s*=\\s*(.*)$");
+    private static final Pattern VARIABLE_USE = Pattern.compile("\\$[({]([A-Za-z_][A-Za-z0-9_]*)[)}]");
+
+    private UrlFile() {
+    }
+
+    public static List<URI> read(Path file) throws IOException {
+        return parse(Files.readAllLines(file));
+    }
+
+    static List<URI> parse(List<String> lines) {
+        Map<String, String> variables = new HashMap<>();
+        List<URI> urls = new ArrayList<>();
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            line = substitute(line, variables, i + 1);
+
+            Matcher definition = VARIABLE_DEFINITION.matcher(line);
+            if (definition.matches()) {
+                variables.put(definition.group(1), definition.group(2));
+                continue;
+            }
+
+            String[] parts = line.split("\\s+");
+            if (parts.length > 1) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": only GET requests are supported, found " + parts[1]);
+            }
+
+            urls.add(toUri(parts[0], i + 1));
+        }
+
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No URLs found");
+        }
+        return urls;
+    }
+
+    private static String substitute(String line, Map<String, String> variables, int lineNumber) {
+        Matcher use = VARIABLE_USE.matcher(line);
+        StringBuilder result = new StringBuilder();
+
+        while (use.find()) {
+            String value = variables.get(use.group(1));
+            if (value == null) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": undefined variable " + use.group(1));
+            }
+            use.appendReplacement(result, Matcher.quoteReplacement(value));
+        }
+        use.appendTail(result);
+
+        return result.toString();
+    }
+
+    private static URI toUri(String url, int lineNumber) {
+        URI uri;
+        try {
+            uri = URI.create(url.contains("://") ? url : "http://" + url);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": invalid URL " + url, e);
+        }
+
+        if (!"http".equals(uri.getScheme()) || uri.getHost() == null) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": only http URLs are supported, found " + url);
+        }
+        return uri;
+    }
+}
@@ -6,6 +6,8 @@ import org.usrv.http.Server;
 public class Main {
     public static void main(String[] args) {
         Server server = new Server(new ServerConfig("./dist", 80, false));
+        // Drains connections on SIGTERM, so a rolling deploy doesn't cut off requests in flight
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "usrv-shutdown"));
         server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+package org.usrv.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.config.CacheConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache bounded by the total weight (in bytes) of its entries.
+ * <p>
+ * Lookups go straight to a {@link ConcurrentHashMap}. Recency is kept in a linked list that is only
+ * reordered on a hit if its lock is free, so a hit never waits for another thread; under contention
+ * the order is approximate, which is fine for choosing eviction victims.
+ */
+public class BoundedCache<K, V> implements Cache<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(BoundedCache.class);
+
+    // Used to size the frequency sketch from the byte budget
+    private static final long ESTIMATED_AVERAGE_ENTRY_BYTES = 16 * 1024;
+    // Keys share generation counters by hash, an invalidation only drops loads in the same stripe
+    private static final int GENERATION_STRIPES = 64;
+
+    private final ConcurrentHashMap<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Most recently used entries are right after the sentinel, least recently used right before it
+    private final Node<K, V> sentinel = new Node<>(null, null, 0);
+
+    private final long maxWeightedSize;
+    private final ToLongFunction<V> weigher;
+    // Told about every value that leaves the cache or is refused by it, under the eviction lock
+    private final Consumer<? super V> removalListener;
+    private final FrequencySketch sketch;
+
+    // Guarded by evictionLock
+    private long weightedSize;
+    // Only increased under evictionLock
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    public BoundedCache(CacheConfig config, ToLongFunction<V> weigher) {
+        this(config, weigher, value -> {
+        });
+    }
+
+    /**
+     * @param removalListener called with values that are evicted, invalidated, replaced or not
+     *                        admitted, for values that hold resources beyond their memory
+     */
+    public BoundedCache(CacheConfig config, ToLongFunction<V> weigher, Consumer<? super V> removalListener) {
+        this.maxWeightedSize = config.maxBytes();
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+        this.sketch = config.evictionPolicy() == CacheConfig.EvictionPolicy.TINY_LFU
+                ? new FrequencySketch(config.maxBytes() / ESTIMATED_AVERAGE_ENTRY_BYTES)
+                : null;
+
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    @Override
+    public V get(K key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        if (evictionLock.tryLock()) {
+            try {
+                if (node.isLinked()) {
+                    unlink(node);
+                    linkFirst(node);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        return node.value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        put(key, value, generation(key));
+    }
+
+    @Override
+    public void put(K key, V value, long generation) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > maxWeightedSize) {
+            logger.debug("Not caching {}, its {} bytes exceed the cache size", key, weight);
+            rejections.increment();
+            removalListener.accept(value);
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            if (generation != generations.get(stripe(key))) {
+                logger.debug("Not caching {}, the cache was invalidated while it was loaded", key);
+                removalListener.accept(value);
+                return;
+            }
+
+            Node<K, V> existing = entries.get(key);
+            long available = maxWeightedSize - weightedSize + (existing == null ? 0 : existing.weight);
+
+            List<Node<K, V>> victims = selectVictims(existing, weight - available);
+            if (existing == null && !admit(key, victims)) {
+                rejections.increment();
+                removalListener.accept(value);
+                return;
+            }
+
+            if (existing != null) {
+                remove(existing);
+            }
+            for (Node<K, V> victim : victims) {
+                logger.debug("Evicting {} from cache", victim.key);
+                remove(victim);
+                evictions.increment();
+            }
+
+            Node<K, V> node = new Node<>(key, value, weight);
+            entries.put(key, node);
+            linkFirst(node);
+            weightedSize += weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        evictionLock.lock();
+        try {
+            generations.incrementAndGet(stripe(key));
+            Node<K, V> node = entries.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateIf(Predicate<? super K> predicate) {
+        evictionLock.lock();
+        try {
+            invalidateGenerations();
+            Node<K, V> node = sentinel.next;
+            while (node != sentinel) {
+                Node<K, V> next = node.next;
+                if (predicate.test(node.key)) {
+                    remove(node);
+                }
+                node = next;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            invalidateGenerations();
+            while (sentinel.next != sentinel) {
+                remove(sentinel.next);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public long generation(K key) {
+        return generations.get(stripe(key));
+    }
+
+    @Override
+    public CacheStats stats() {
+        return new CacheStats(
+                hits.sum(),
+                misses.sum(),
+                evictions.sum(),
+                rejections.sum(),
+                entries.size(),
+                weightedSize,
+                maxWeightedSize
+        );
+    }
+
+    /**
+     * Picks entries from the least recently used end until enough weight would be freed.
+     */
+    private List<Node<K, V>> selectVictims(Node<K, V> skip, long weightToFree) {
+        List<Node<K, V>> victims = new ArrayList<>();
+
+        for (Node<K, V> node = sentinel.previous; weightToFree > 0 && node != sentinel; node = node.previous) {
+            if (node == skip) {
+                continue;
+            }
+            victims.add(node);
+            weightToFree -= node.weight;
+        }
+
+        return victims;
+    }
+
+    /**
+     * TinyLFU admission: a newcomer may only push out entries that are requested less often than itself.
+     */
+    private boolean admit(K key, List<Node<K, V>> victims) {
+        if (sketch == null || victims.isEmpty()) {
+            return true;
+        }
+
+        int candidateFrequency = sketch.frequency(key);
+        for (Node<K, V> victim : victims) {
+            if (sketch.frequency(victim.key) >= candidateFrequency) {
+                logger.debug("Not caching {}, {} is requested more often", key, victim.key);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void invalidateGenerations() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private void remove(Node<K, V> node) {
+        entries.remove(node.key, node);
+        unlink(node);
+        weightedSize -= node.weight;
+        removalListener.accept(node.value);
+    }
+
+    private void linkFirst(Node<K, V> node) {
+        node.previous = sentinel;
+        node.next = sentinel.next;
+        sentinel.next.previous = node;
+        sentinel.next = node;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        node.previous = null;
+        node.next = null;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        boolean isLinked() {
+            return next != null;
+        }
+    }
+}
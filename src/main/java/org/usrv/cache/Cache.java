@@ -0,0 +1,38 @@
+package org.usrv.cache;
+
+import java.util.function.Predicate;
+
+public interface Cache<K, V> {
+    /**
+     * @return the cached value, or null on a miss
+     */
+    V get(K key);
+
+    /**
+     * Stores a value, unless the cache's admission policy decides it isn't worth the space it would take.
+     */
+    void put(K key, V value);
+
+    /**
+     * Like {@link #put(Object, Object)}, but drops the value if the key was invalidated since
+     * {@code generation} was read. This keeps a value built from a file that changed while it was
+     * being read from replacing the invalidation.
+     */
+    void put(K key, V value, long generation);
+
+    /**
+     * @return a counter that increases with every invalidation that may cover {@code key}
+     */
+    long generation(K key);
+
+    void invalidate(K key);
+
+    /**
+     * Removes every entry whose key matches. Meant for rare bulk invalidation, it visits all entries.
+     */
+    void invalidateIf(Predicate<? super K> predicate);
+
+    void invalidateAll();
+
+    CacheStats stats();
+}
@@ -0,0 +1,172 @@
+package org.usrv.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.file.StaticFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the dist folder and evicts cached responses for files that change on disk,
+ * so a deploy doesn't need a restart and doesn't cost the cache for unchanged files.
+ * <p>
+ * Every directory of the tree is watched, and so is the dist folder's parent: deploys that
+ * swap the whole folder (or a symlink to it) by renaming show up there and flush the cache.
+ * Cache keys must be absolute and normalized, as {@link org.usrv.file.PathResolver} builds them.
+ */
+public class CacheInvalidator implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidator.class);
+
+    private final Path root;
+    private final Path rootParent;
+    private final Cache<Path, ?> cache;
+    private final WatchService watchService;
+    // Only touched from the watcher thread, after start
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    // Directories in the tree, to tell a deleted directory from a deleted file
+    private final Set<Path> directories = new HashSet<>();
+    private final Thread thread;
+
+    public CacheInvalidator(Path root, Cache<Path, ?> cache) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.rootParent = this.root.getParent();
+        this.cache = cache;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = Thread.ofPlatform()
+                .name("usrv-cache-invalidator")
+                .daemon()
+                .unstarted(this::run);
+    }
+
+    public void start() throws IOException {
+        if (rootParent != null) {
+            watchedDirectories.put(rootParent.register(watchService, ENTRY_CREATE, ENTRY_DELETE), rootParent);
+        }
+        registerTree(root);
+
+        thread.start();
+        logger.debug("Watching {} for changes", root);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = watchedDirectories.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (directory != null) {
+                        handleEvent(directory, event);
+                    }
+                }
+
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Stopped watching {}", root);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleEvent(Path directory, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            logger.info("Missed file system events, clearing the whole cache");
+            replaceTree();
+            return;
+        }
+
+        Path changed = directory.resolve((Path) event.context());
+
+        if (directory.equals(rootParent) && !directory.equals(root)) {
+            if (changed.equals(root)) {
+                logger.info("{} was replaced, clearing the whole cache", root);
+                replaceTree();
+            }
+            return;
+        }
+
+        boolean isDirectory = event.kind() == ENTRY_DELETE
+                ? directories.remove(changed)
+                : Files.isDirectory(changed);
+
+        if (isDirectory) {
+            logger.debug("{} changed, evicting everything in it from the cache", changed);
+            cache.invalidateIf(key -> key.startsWith(changed));
+        } else {
+            logger.debug("{} changed, evicting it from the cache", changed);
+            cache.invalidate(changed);
+
+            // Precompressed siblings are cached as variants of the file they belong to
+            Path owner = StaticFile.originalOf(changed);
+            if (owner != null) {
+                cache.invalidate(owner);
+            }
+        }
+
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+            // A directory moved into place brings its own subtree, which needs watching too
+            registerTree(changed);
+        }
+    }
+
+    private void replaceTree() {
+        Iterator<Map.Entry<WatchKey, Path>> watched = watchedDirectories.entrySet().iterator();
+        while (watched.hasNext()) {
+            Map.Entry<WatchKey, Path> entry = watched.next();
+            if (!entry.getValue().equals(rootParent)) {
+                entry.getKey().cancel();
+                watched.remove();
+            }
+        }
+
+        directories.clear();
+        cache.invalidateAll();
+        registerTree(root);
+    }
+
+    private void registerTree(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (Stream<Path> directories = Files.walk(directory).filter(Files::isDirectory)) {
+            directories.forEach(this::register);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to watch {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private void register(Path directory) {
+        try {
+            WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            watchedDirectories.put(key, directory);
+            directories.add(directory);
+        } catch (IOException e) {
+            logger.warn("Failed to watch {}: {}", directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.usrv.cache;
+
+/**
+ * Point in time snapshot of a cache's counters.
+ *
+ * @param rejections entries that were not stored, because they exceeded the budget or lost the admission check
+ * @param weightedSize bytes currently accounted to cached entries
+ */
+public record CacheStats(
+        long hits,
+        long misses,
+        long evictions,
+        long rejections,
+        long entries,
+        long weightedSize,
+        long maxWeightedSize
+) {
+    public double hitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,67 @@
+package org.usrv.cache;
+
+/**
+ * Approximate access counts for TinyLFU admission, as a count-min sketch of 4-bit counters.
+ * Counters are halved periodically so that old popularity fades out.
+ * <p>
+ * Updates are deliberately unsynchronized: a lost increment only makes an estimate slightly lower.
+ */
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xe3b1a4a1, 0x5d5a5b1b, 0x3b9aca07};
+
+    private final byte[] table;
+    private final int width;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long expectedEntries) {
+        int size = (int) Math.min(Math.max(expectedEntries, 256), 1 << 20);
+        this.width = Integer.highestOneBit(size - 1) << 1;
+        this.table = new byte[DEPTH * width];
+        this.sampleSize = 10 * width;
+    }
+
+    void increment(Object key) {
+        int hash = key.hashCode();
+        boolean added = false;
+
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, table[indexOf(hash, row)]);
+        }
+
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+
+        return row * width + (h & (width - 1));
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (table[i] >>> 1);
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,45 @@
+package org.usrv.config;
+
+import lombok.With;
+
+@With
+public record CacheConfig(
+        long maxBytes,
+        EvictionPolicy evictionPolicy,
+        boolean watchForChanges,
+        WarmUp warmUp,
+        Storage storage
+) {
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    public enum EvictionPolicy {
+        // Evict the least recently used entries first
+        LRU,
+        // LRU eviction, but a new entry is only admitted if it's been requested more often than what it would evict
+        TINY_LFU
+    }
+
+    public enum WarmUp {
+        // Start with an empty cache, files are cached as they are requested
+        NONE,
+        // Load files into the cache at startup until the byte budget is used up
+        PREWARM,
+        // Load the whole dist folder at startup and answer from memory only, startup fails if it doesn't fit
+        PRELOAD
+    }
+
+    public enum Storage {
+        // Bodies are byte arrays on the Java heap
+        HEAP,
+        // Bodies are copied into direct buffers, leaving only headers and the index on the heap
+        OFF_HEAP
+    }
+
+    public CacheConfig(long maxBytes, EvictionPolicy evictionPolicy, boolean watchForChanges) {
+        this(maxBytes, evictionPolicy, watchForChanges, WarmUp.NONE, Storage.HEAP);
+    }
+
+    public static CacheConfig getDefaultConfig() {
+        return new CacheConfig(DEFAULT_MAX_BYTES, EvictionPolicy.LRU, false);
+    }
+}
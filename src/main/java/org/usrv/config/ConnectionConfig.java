@@ -0,0 +1,38 @@
+package org.usrv.config;
+
+import lombok.With;
+
+/**
+ * Limits on the connections the server holds open, so a burst of clients gets turned away
+ * quickly instead of exhausting file descriptors and memory. A limit of 0 means no limit.
+ *
+ * @param maxConnections          open connections, beyond which the connection idle the longest is
+ *                                closed to make room, or the new one is answered with a 503
+ * @param maxConnectionsPerClient open connections from one IP address, beyond which new ones get a 503
+ * @param maxIdleConnections      keep-alive connections waiting for a next request, the ones idle the
+ *                                longest are closed beyond it
+ * @param drainTimeoutMillis      how long stopping the server waits for requests in flight to be answered
+ *                                before closing the connections that are still open
+ */
+@With
+public record ConnectionConfig(
+        int maxConnections,
+        int maxConnectionsPerClient,
+        int maxIdleConnections,
+        long drainTimeoutMillis
+) {
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    // Off, behind a load balancer or a NAT all clients share a few addresses
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_CLIENT = 0;
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5_000;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    public static ConnectionConfig getDefaultConfig() {
+        return new ConnectionConfig(
+                DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAX_CONNECTIONS_PER_CLIENT,
+                DEFAULT_MAX_IDLE_CONNECTIONS,
+                DEFAULT_DRAIN_TIMEOUT_MILLIS
+        );
+    }
+}
@@ -1,7 +1,80 @@
 package org.usrv.config;
 
-public record ServerConfig(String distFolder, int port, boolean serveSingleIndex) {
+import lombok.With;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+@With
+public record ServerConfig(
+        String distFolder,
+        int port,
+        boolean serveSingleIndex,
+        Engine engine,
+        int eventLoopThreads,
+        boolean http2,
+        boolean earlyHints,
+        long mappingThreshold,
+        long streamingThreshold,
+        Map<String, String> mimeTypes,
+        CacheConfig cache,
+        ConnectionConfig connections,
+        TlsConfig tls,
+        int adminPort,
+        String adminHost,
+        Path accessLog
+) {
+    public static final long DEFAULT_MAPPING_THRESHOLD = 1024 * 1024;
+    public static final long DEFAULT_STREAMING_THRESHOLD = 8 * 1024 * 1024;
+
+    public enum Engine {
+        // A virtual thread per connection doing blocking socket I/O
+        BLOCKING,
+        // A fixed set of selector threads doing non-blocking socket I/O
+        NIO
+    }
+
+    public ServerConfig {
+        // Keyed the way MimeTypes looks extensions up, with or without the dot and in any case here
+        Map<String, String> normalized = new HashMap<>();
+        mimeTypes.forEach((extension, type) -> normalized.put(
+                (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ROOT),
+                type
+        ));
+        mimeTypes = Map.copyOf(normalized);
+    }
+
+    public ServerConfig(String distFolder, int port, boolean serveSingleIndex) {
+        this(
+                distFolder,
+                port,
+                serveSingleIndex,
+                Engine.BLOCKING,
+                0,
+                false,
+                false,
+                DEFAULT_MAPPING_THRESHOLD,
+                DEFAULT_STREAMING_THRESHOLD,
+                Map.of(),
+                CacheConfig.getDefaultConfig(),
+                ConnectionConfig.getDefaultConfig(),
+                null,
+                0,
+                null,
+                null
+        );
+    }
+
     public static ServerConfig getDefaultConfig() {
         return new ServerConfig("./dist", 80, false);
     }
+
+    /**
+     * @return the configured number of NIO event loops, or one per available core if unset
+     */
+    public int effectiveEventLoopThreads() {
+        return eventLoopThreads > 0 ? eventLoopThreads : Runtime.getRuntime().availableProcessors();
+    }
 }
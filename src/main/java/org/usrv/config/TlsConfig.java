@@ -0,0 +1,28 @@
+package org.usrv.config;
+
+import lombok.With;
+
+import java.nio.file.Path;
+
+/**
+ * Terminates TLS in the server itself, with the certificate chain and private key from a
+ * PKCS12 or JKS key store.
+ *
+ * @param sessionCacheSize       sessions kept for resumption by session ID, 0 for no limit
+ * @param sessionTimeoutSeconds  how long a session, or a ticket issued for it, can be resumed
+ */
+@With
+public record TlsConfig(
+        Path keyStore,
+        String keyStorePassword,
+        int sessionCacheSize,
+        int sessionTimeoutSeconds
+) {
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20_000;
+    // Long enough that returning visitors skip the full handshake, short enough to limit what a stolen ticket key unlocks
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 4 * 60 * 60;
+
+    public TlsConfig(Path keyStore, String keyStorePassword) {
+        this(keyStore, keyStorePassword, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+}
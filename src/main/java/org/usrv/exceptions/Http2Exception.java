@@ -0,0 +1,17 @@
+package org.usrv.exceptions;
+
+import lombok.Getter;
+
+/**
+ * A violation of the HTTP/2 protocol by the peer, which ends the connection with a GOAWAY
+ * frame carrying the error code.
+ */
+public class Http2Exception extends RuntimeException {
+    @Getter
+    private final int errorCode;
+
+    public Http2Exception(int errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+}
@@ -0,0 +1,134 @@
+package org.usrv.file;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.usrv.jfr.MimeDetectEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the MIME type of a file from its extension: first from the configured overrides, then
+ * from a table of the types web builds produce. Tika only detects what neither knows, and is not
+ * even loaded unless that happens, which keeps its slow initialization out of startup.
+ */
+public final class MimeTypes {
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "text/javascript"),
+            Map.entry("mjs", "text/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("webmanifest", "application/manifest+json"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("csv", "text/csv"),
+            Map.entry("md", "text/markdown"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("zip", "application/zip"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("jpe", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("avif", "image/avif"),
+            Map.entry("ico", "image/vnd.microsoft.icon"),
+            Map.entry("bmp", "image/bmp"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("otf", "font/otf"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("ogg", "audio/ogg"),
+            Map.entry("wav", "audio/wav")
+    );
+    // Misses look up paths that may not exist, so the memo can't be allowed to grow with every request
+    private static final int MAX_DETECTED = 1024;
+    // What Tika detected, by extension. Its answers don't depend on the overrides, so they are shared
+    private static final Map<String, String> detected = new ConcurrentHashMap<>();
+
+    private static final MimeTypes DEFAULT = new MimeTypes(Map.of());
+
+    private final Map<String, String> overrides;
+
+    /**
+     * @param overrides MIME types by lower case extension without the dot, as normalized by {@code ServerConfig}
+     */
+    public MimeTypes(Map<String, String> overrides) {
+        this.overrides = overrides;
+    }
+
+    public static MimeTypes getDefault() {
+        return DEFAULT;
+    }
+
+    public String resolve(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        // Files without an extension can still be told apart by name, such as README
+        String key = (dot < 0 ? name : name.substring(dot + 1)).toLowerCase(Locale.ROOT);
+
+        String type = overrides.get(key);
+        if (type == null) {
+            type = TYPES.get(key);
+        }
+        if (type == null) {
+            type = detected.get(key);
+        }
+        if (type == null) {
+            MimeDetectEvent event = new MimeDetectEvent();
+            event.begin();
+            type = Tika.detect(name);
+            if (event.shouldCommit()) {
+                event.fileName = name;
+                event.mimeType = type;
+                event.commit();
+            }
+
+            if (detected.size() < MAX_DETECTED) {
+                detected.putIfAbsent(key, type);
+            }
+        }
+
+        return type;
+    }
+
+    /**
+     * Loaded on first use only.
+     */
+    private static final class Tika {
+        private static final TikaConfig config;
+
+        static {
+            try {
+                config = new TikaConfig();
+            } catch (TikaException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        static String detect(String name) {
+            Metadata metadata = new Metadata();
+            metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, name);
+
+            try {
+                return config.getDetector().detect(null, metadata).toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -8,9 +8,11 @@ import java.nio.file.Path;
 
 public class PathResolver {
     private final ServerConfig serverConfig;
+    private final String distFolder;
 
     public PathResolver(ServerConfig serverConfig) {
         this.serverConfig = serverConfig;
+        this.distFolder = Path.of(serverConfig.distFolder()).toAbsolutePath().normalize().toString();
     }
 
     public Path resolveRequest(ClientRequest request) {
@@ -41,6 +43,7 @@ public class PathResolver {
             }
         }
 
-        return Path.of(serverConfig.distFolder(), pathStr);
+        // Absolute and normalized, so a changed file can be looked up in the cache by its path
+        return Path.of(distFolder, pathStr).normalize();
     }
 }
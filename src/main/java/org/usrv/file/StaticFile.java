@@ -1,46 +1,108 @@
 package org.usrv.file;
 
-import lombok.Getter;
-import org.apache.tika.config.TikaConfig;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.metadata.TikaCoreProperties;
+import org.usrv.jfr.FileReadEvent;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 
 public class StaticFile {
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final String BROTLI_SUFFIX = ".br";
+    // Precompressed siblings a build may put next to a file, served as its encoded variants
+    public static final List<String> PRECOMPRESSED_SUFFIXES = List.of(GZIP_SUFFIX, BROTLI_SUFFIX);
 
     private final Path path;
-    private static final TikaConfig config;
+    private final MimeTypes mimeTypes;
 
-    static {
-        try {
-            config = new TikaConfig();
-        } catch (TikaException | IOException e) {
-            throw new RuntimeException(e);
+    private String mimeType;
+    private BasicFileAttributes attributes;
+
+    public StaticFile(Path path) {
+        this(path, MimeTypes.getDefault());
+    }
+
+    public StaticFile(Path path, MimeTypes mimeTypes) {
+        this.path = path;
+        this.mimeTypes = mimeTypes;
+    }
+
+    /**
+     * @return the file a precompressed sibling belongs to, or null if the path isn't named like one
+     */
+    public static Path originalOf(Path path) {
+        String name = path.getFileName().toString();
+        for (String suffix : PRECOMPRESSED_SUFFIXES) {
+            if (name.endsWith(suffix) && name.length() > suffix.length()) {
+                return path.resolveSibling(name.substring(0, name.length() - suffix.length()));
+            }
         }
+        return null;
     }
 
+    /**
+     * Resolved on first use, so requests for files that don't exist never pay for it.
+     */
+    public String getMimeType() {
+        if (mimeType == null) {
+            mimeType = mimeTypes.resolve(path);
+        }
+        return mimeType;
+    }
 
-    @Getter
-    private final String mimeType;
+    /**
+     * @return the size of the file in bytes
+     * @throws FileNotFoundException if the path doesn't exist or isn't a regular file
+     */
+    public long getSize() throws IOException {
+        return getAttributes().size();
+    }
 
-    public StaticFile(Path path) throws IOException {
-        this.path = path;
-        Metadata metadata = new Metadata();
-        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, this.path.toString());
+    /**
+     * @return the time the file was last modified, in seconds since the epoch
+     * @throws FileNotFoundException if the path doesn't exist or isn't a regular file
+     */
+    public long getLastModified() throws IOException {
+        return getAttributes().lastModifiedTime().toInstant().getEpochSecond();
+    }
 
-        mimeType = config.getDetector().detect(null, metadata).toString();
+    private BasicFileAttributes getAttributes() throws IOException {
+        if (attributes != null) {
+            return attributes;
+        }
+
+        try {
+            attributes = Files.readAttributes(this.path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+
+        if (!attributes.isRegularFile()) {
+            throw new FileNotFoundException(this.path + " is not a regular file");
+        }
+
+        return attributes;
     }
 
     public byte[] getFileContents() throws IOException {
+        FileReadEvent event = new FileReadEvent();
+        event.begin();
+
+        byte[] contents;
         try {
-            return Files.readAllBytes(this.path);
+            contents = Files.readAllBytes(this.path);
         } catch (IOException e) {
             throw new FileNotFoundException(e.getMessage());
         }
+
+        if (event.shouldCommit()) {
+            event.file = path.toString();
+            event.bytes = contents.length;
+            event.commit();
+        }
+        return contents;
     }
 }
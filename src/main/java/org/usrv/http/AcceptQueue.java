@@ -0,0 +1,50 @@
+package org.usrv.http;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reads the length of a listening socket's accept queue, the connections the kernel has completed
+ * but the server hasn't accepted yet. Java has no API for it, Linux lists it in /proc/net/tcp as
+ * the receive queue of sockets in the LISTEN state.
+ */
+final class AcceptQueue {
+    private static final List<Path> SOCKET_TABLES = List.of(Path.of("/proc/net/tcp"), Path.of("/proc/net/tcp6"));
+    private static final String LISTEN = "0A";
+
+    private AcceptQueue() {
+    }
+
+    /**
+     * @return connections waiting to be accepted on the port, or -1 where /proc/net/tcp isn't available
+     */
+    static long depth(int port) {
+        String localPort = String.format(":%04X", port);
+        long depth = 0;
+        boolean found = false;
+
+        for (Path table : SOCKET_TABLES) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(table);
+            } catch (IOException e) {
+                continue;
+            }
+
+            // After the header: sl local_address rem_address st tx_queue:rx_queue ...
+            for (int i = 1; i < lines.size(); i++) {
+                String[] fields = lines.get(i).trim().split("\\s+");
+                if (fields.length < 5 || !fields[3].equals(LISTEN) || !fields[1].endsWith(localPort)) {
+                    continue;
+                }
+
+                depth += Long.parseLong(fields[4].substring(fields[4].indexOf(':') + 1), 16);
+                found = true;
+            }
+        }
+
+        return found ? depth : -1;
+    }
+}
@@ -0,0 +1,217 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes one line per response to a file, off the request path. Connections put the response's
+ * fields in a fixed ring of slots without taking a lock, and a single writer thread formats what
+ * has accumulated and appends it in one write. When the writer falls a full ring behind, records
+ * are dropped and counted rather than making requests wait for the disk.
+ * <p>
+ * Each line holds the time, the record's sequence number, the request line, the status and the
+ * body bytes, separated by spaces: {@code 2026-01-01T12:00:00.123Z 1f GET /index.html HTTP/1.1 200 5120}
+ */
+public final class AccessLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+    // How long the writer sleeps when it has caught up, and so how many records a write gathers
+    private static final long WRITE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final FileChannel file;
+    private final int mask;
+
+    // The slots, as parallel arrays indexed by sequence number modulo the capacity
+    private final long[] times;
+    private final int[] statuses;
+    private final long[] bodyBytes;
+    private final String[] methods;
+    private final String[] paths;
+    private final String[] protocols;
+    // The sequence number each slot was last filled for, set once its fields are written
+    private final AtomicLongArray published;
+
+    // Next sequence number to claim, and the first one the writer hasn't formatted yet
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean closed;
+    private Thread writer;
+
+    public AccessLog(Path path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity records buffered while the writer catches up, rounded up to a power of two
+     */
+    AccessLog(Path path, int capacity) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.mask = slots - 1;
+        this.times = new long[slots];
+        this.statuses = new int[slots];
+        this.bodyBytes = new long[slots];
+        this.methods = new String[slots];
+        this.paths = new String[slots];
+        this.protocols = new String[slots];
+        this.published = new AtomicLongArray(slots);
+
+        // No slot is published for sequence 0 until it is filled
+        for (int i = 0; i < slots; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    public void start() {
+        writer = Thread.ofPlatform().name("usrv-access-log").daemon().start(this::writeRecords);
+    }
+
+    /**
+     * @param request null if the request couldn't be parsed
+     * @return false if the record was dropped because the writer is a full ring behind
+     */
+    boolean log(ClientRequest request, PreparedResponse response) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() > mask) {
+                dropped.increment();
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask);
+        times[slot] = System.currentTimeMillis();
+        statuses[slot] = response.getStatusCode();
+        bodyBytes[slot] = response.contentLength();
+        methods[slot] = request == null ? null : request.method();
+        paths[slot] = request == null ? null : request.path();
+        protocols[slot] = request == null ? null : request.protocol();
+        published.setRelease(slot, sequence);
+
+        return true;
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void writeRecords() {
+        while (true) {
+            // Read before draining, so records published before close() are written
+            boolean closing = closed;
+
+            try {
+                writeAvailable();
+            } catch (IOException e) {
+                logger.error("Failed to write the access log: {}", e.getMessage());
+            }
+
+            if (closing) {
+                return;
+            }
+            LockSupport.parkNanos(WRITE_INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * Formats the records published so far, up to the first slot still being filled, and writes them.
+     */
+    private void writeAvailable() throws IOException {
+        long next = consumed.get();
+        StringBuilder batch = new StringBuilder();
+
+        int slot;
+        while (published.getAcquire(slot = (int) (next & mask)) == next) {
+            format(next, slot, batch);
+            methods[slot] = null;
+            paths[slot] = null;
+            protocols[slot] = null;
+            next++;
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        // The slots are free again once they are formatted
+        consumed.set(next);
+
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            file.write(bytes);
+        }
+    }
+
+    private void format(long sequence, int slot, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(times[slot])).append(' ')
+                .append(Long.toHexString(sequence)).append(' ');
+
+        if (methods[slot] == null) {
+            line.append("- - -");
+        } else {
+            appendEscaped(line, methods[slot]);
+            line.append(' ');
+            appendEscaped(line, paths[slot]);
+            line.append(' ');
+            appendEscaped(line, protocols[slot]);
+        }
+
+        line.append(' ').append(statuses[slot]).append(' ').append(bodyBytes[slot]).append('\n');
+    }
+
+    /**
+     * Appends a request line field with spaces and control characters escaped, so a line can't be
+     * split or forged. HTTP/2 requests take their method and protocol from header fields, which can
+     * hold anything.
+     */
+    private static void appendEscaped(StringBuilder line, String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c <= ' ' || c == 0x7f) {
+                line.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Writes the records logged so far and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            writeAvailable();
+        }
+
+        file.close();
+    }
+}
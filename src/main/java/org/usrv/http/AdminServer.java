@@ -0,0 +1,118 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.exceptions.RequestParsingException;
+import org.usrv.metrics.PrometheusWriter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Serves {@code GET /metrics} in Prometheus' text format on a port of its own, so scrapes don't go
+ * through the connection limits and can be kept off the public one. Each scrape is answered on a
+ * virtual thread of its own, so a client that connects and goes quiet doesn't hold up the others.
+ */
+final class AdminServer {
+    private static final Logger logger = LoggerFactory.getLogger(AdminServer.class);
+
+    static final String METRICS_PATH = "/metrics";
+    private static final int SOCKET_TIMEOUT_MILLIS = 5000;
+
+    private final InetSocketAddress address;
+    private final Supplier<String> metrics;
+    private final ServerSocketChannel listener;
+
+    /**
+     * Binds the port right away, so a port in use fails the server's start.
+     */
+    AdminServer(InetAddress host, int port, Supplier<String> metrics) throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.metrics = metrics;
+        this.listener = ServerSocketChannel.open();
+
+        try {
+            listener.bind(address);
+        } catch (IOException e) {
+            listener.close();
+            throw e;
+        }
+    }
+
+    void start() {
+        Thread.ofPlatform().name("usrv-admin").daemon().start(this::acceptConnections);
+        logger.info("Serving metrics on {}", address);
+    }
+
+    void stop() {
+        try {
+            listener.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the admin port: {}", e.getMessage());
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = listener.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                logger.debug("Failed to accept a metrics request: {}", e.getMessage());
+                continue;
+            }
+
+            Thread.ofVirtual().name("usrv-admin-scrape").start(() -> answer(client));
+        }
+    }
+
+    private void answer(SocketChannel client) {
+        try (client) {
+            serve(client.socket());
+        } catch (IOException | RequestParsingException e) {
+            logger.debug("Failed to answer a metrics request: {}", e.getMessage());
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+
+        ClientRequest request = new RequestParser().parse(socket.getInputStream());
+        if (request == null) {
+            return;
+        }
+
+        PreparedResponse response = RequestHandler.NOT_FOUND;
+        if (request.method().equals("GET") && stripQuery(request.path()).equals(METRICS_PATH)) {
+            byte[] body = metrics.get().getBytes(StandardCharsets.UTF_8);
+
+            Response metricsResponse = new Response(200);
+            metricsResponse.setHeader("Content-Type", PrometheusWriter.CONTENT_TYPE);
+            metricsResponse.setHeader("Content-Length", String.valueOf(body.length));
+            metricsResponse.setHeader("Cache-Control", "no-store");
+            metricsResponse.setBody(body);
+            response = PreparedResponse.of(metricsResponse);
+        }
+
+        ByteBuffer[] buffers = response.toBuffers(false);
+        SocketChannel channel = socket.getChannel();
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private static String stripQuery(String path) {
+        int query = path.indexOf('?');
+        return query < 0 ? path : path.substring(0, query);
+    }
+}
@@ -0,0 +1,271 @@
+package org.usrv.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Range requests, answered with 206 Partial Content. Ranges are cut from the response that
+ * would otherwise be sent: slices of the cached body, or positions in the file for streamed
+ * responses, so a seek never reads the parts of a file the client didn't ask for.
+ */
+final class ByteRanges {
+    // More ranges than any player or download manager asks for, the Range header is ignored beyond it
+    private static final int MAX_RANGES = 16;
+    // Multipart bodies of streamed files are read into memory, so they are limited like cached files
+    private static final long MAX_MULTIPART_FILE_BYTES = 8 * 1024 * 1024;
+    // Ranges closer than a part head are merged, sending the bytes between them costs less than another part
+    private static final long COALESCE_GAP_BYTES = 80;
+    private static final String BOUNDARY = newBoundary();
+
+    /**
+     * An inclusive range of byte positions.
+     */
+    record Range(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    private ByteRanges() {
+    }
+
+    /**
+     * @return the partial response, a 416 if no range can be satisfied, or {@code full} itself
+     * if the request has no Range header that applies to it
+     */
+    static PreparedResponse respond(ClientRequest request, PreparedResponse full) throws IOException {
+        String rangeHeader = request.headers().get("Range");
+        if (rangeHeader == null || full.getStatusCode() != 200 || !ifRangeMatches(request.headers().get("If-Range"), full)) {
+            return full;
+        }
+
+        long length = full.contentLength();
+        List<Range> ranges = parse(rangeHeader, length);
+
+        if (ranges == null) {
+            return full;
+        }
+        if (ranges.isEmpty()) {
+            return notSatisfiable(length);
+        }
+        if (ranges.size() > 1) {
+            if (totalLength(ranges) > length) {
+                // Overlapping ranges that ask for more than the whole file, as in a denial of service
+                return full;
+            }
+            ranges = coalesce(ranges);
+        }
+        if (ranges.size() == 1) {
+            return singlePart(full, ranges.getFirst(), length);
+        }
+        return multipart(full, ranges, length);
+    }
+
+    /**
+     * @return the satisfiable ranges in the order they were asked for, or null if the header is
+     * malformed or in a unit other than bytes, in which case it must be ignored
+     */
+    static List<Range> parse(String header, long length) {
+        int equals = header.indexOf('=');
+        if (equals < 0 || !header.substring(0, equals).trim().equalsIgnoreCase("bytes")) {
+            return null;
+        }
+
+        String[] specs = header.substring(equals + 1).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<Range> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            try {
+                if (first.isEmpty()) {
+                    // The final bytes of the file
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength > 0 && length > 0) {
+                        ranges.add(new Range(Math.max(0, length - suffixLength), length - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < length) {
+                        ranges.add(new Range(start, Math.min(end, length - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * @return the ranges sorted by position, with overlapping, adjacent and nearly adjacent ones merged
+     */
+    static List<Range> coalesce(List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(Range::start));
+
+        List<Range> merged = new ArrayList<>(sorted.size());
+        Range current = sorted.getFirst();
+        for (Range range : sorted.subList(1, sorted.size())) {
+            if (range.start() <= current.end() + 1 + COALESCE_GAP_BYTES) {
+                current = new Range(current.start(), Math.max(current.end(), range.end()));
+            } else {
+                merged.add(current);
+                current = range;
+            }
+        }
+        merged.add(current);
+
+        return merged;
+    }
+
+    private static long totalLength(List<Range> ranges) {
+        long total = 0;
+        for (Range range : ranges) {
+            total += range.length();
+        }
+        return total;
+    }
+
+    /**
+     * If-Range makes the Range conditional on the client's partial copy still being current.
+     * Only strong validators count, so a weak ETag never matches.
+     */
+    private static boolean ifRangeMatches(String ifRange, PreparedResponse full) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        String value = ifRange.trim();
+        if (value.startsWith("\"")) {
+            return value.equals(full.getEtag());
+        }
+        if (value.startsWith("W/")) {
+            return false;
+        }
+
+        long date = HttpDate.parse(value);
+        return date >= 0 && date == full.getLastModified();
+    }
+
+    private static PreparedResponse singlePart(PreparedResponse full, Range range, long length) {
+        Response response = partialResponse(full);
+        response.setHeader("Content-Range", contentRange(range, length));
+        response.setHeader("Content-Length", String.valueOf(range.length()));
+
+        if (full.getBodyFile() != null) {
+            return PreparedResponse.of(
+                    response,
+                    new ByteBuffer[0],
+                    full.getBodyFile(),
+                    full.getBodyFilePosition() + range.start(),
+                    range.length(),
+                    null
+            );
+        }
+
+        ByteBuffer slice = full.bodySlice((int) range.start(), (int) range.length());
+        return PreparedResponse.of(response, new ByteBuffer[]{slice}, null, 0, 0, full.getOffHeapBuffer());
+    }
+
+    private static PreparedResponse multipart(PreparedResponse full, List<Range> ranges, long length) throws IOException {
+        if (full.getBodyFile() != null && totalLength(ranges) > MAX_MULTIPART_FILE_BYTES) {
+            return full;
+        }
+
+        String contentType = full.getHeaders().get("Content-Type");
+        ByteBuffer[] body = new ByteBuffer[ranges.size() * 2 + 1];
+        long contentLength = 0;
+
+        try (FileChannel file = full.getBodyFile() == null ? null : FileChannel.open(full.getBodyFile(), StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                String partHead = "\r\n--" + BOUNDARY + "\r\n"
+                        + (contentType == null ? "" : "Content-Type: " + contentType + "\r\n")
+                        + "Content-Range: " + contentRange(range, length) + "\r\n\r\n";
+
+                body[i * 2] = ByteBuffer.wrap(partHead.getBytes(StandardCharsets.ISO_8859_1));
+                body[i * 2 + 1] = file == null
+                        ? full.bodySlice((int) range.start(), (int) range.length())
+                        : read(file, full.getBodyFilePosition() + range.start(), range.length());
+
+                contentLength += body[i * 2].remaining() + range.length();
+            }
+        }
+
+        body[body.length - 1] = ByteBuffer.wrap(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        contentLength += body[body.length - 1].remaining();
+
+        Response response = partialResponse(full);
+        response.setHeader("Content-Type", "multipart/byteranges; boundary=" + BOUNDARY);
+        response.setHeader("Content-Length", String.valueOf(contentLength));
+
+        return PreparedResponse.of(response, body, null, 0, 0, full.getOffHeapBuffer());
+    }
+
+    private static PreparedResponse notSatisfiable(long length) {
+        Response response = new Response(416);
+        response.setHeader("Content-Range", "bytes */" + length);
+        response.setHeader("Content-Length", "0");
+
+        return PreparedResponse.of(response);
+    }
+
+    private static Response partialResponse(PreparedResponse full) {
+        Response response = new Response(206);
+        full.getHeaders().forEach((name, value) -> {
+            if (!name.equals("Content-Length")) {
+                response.setHeader(name, value);
+            }
+        });
+        return response;
+    }
+
+    private static String contentRange(Range range, long length) {
+        return "bytes " + range.start() + "-" + range.end() + "/" + length;
+    }
+
+    private static String newBoundary() {
+        byte[] random = new byte[12];
+        new SecureRandom().nextBytes(random);
+        return HexFormat.of().formatHex(random);
+    }
+
+    private static ByteBuffer read(FileChannel file, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File was truncated while reading a range");
+            }
+        }
+
+        return buffer.flip();
+    }
+}
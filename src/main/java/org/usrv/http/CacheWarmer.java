@@ -0,0 +1,175 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.cache.Cache;
+import org.usrv.config.ServerConfig;
+import org.usrv.file.MimeTypes;
+import org.usrv.file.StaticFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Fills the response cache from the dist folder at startup, so the first requests after a
+ * restart don't all pay for a disk read and MIME detection. Files are loaded in parallel,
+ * smallest first, until the cache's byte budget is used up.
+ */
+final class CacheWarmer {
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmer.class);
+
+    record Result(int files, long bytes, int skipped, long millis) {
+    }
+
+    private record Candidate(Path path, long size) {
+    }
+
+    private final ServerConfig serverConfig;
+    private final Cache<Path, CachedFile> cache;
+    private final MimeTypes mimeTypes;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+
+    CacheWarmer(ServerConfig serverConfig, Cache<Path, CachedFile> cache) {
+        this.serverConfig = serverConfig;
+        this.cache = cache;
+        this.mimeTypes = new MimeTypes(serverConfig.mimeTypes());
+    }
+
+    /**
+     * @param requireAll fail instead of skipping files that don't fit in the cache
+     * @throws IllegalStateException if {@code requireAll} is set and some files were not loaded
+     */
+    Result warm(boolean requireAll) throws IOException {
+        long start = System.nanoTime();
+        // Cache keys are normalized, like the paths PathResolver builds
+        Path root = Path.of(serverConfig.distFolder()).toAbsolutePath().normalize();
+
+        List<Candidate> candidates;
+        try (Stream<Path> files = Files.find(root, Integer.MAX_VALUE, (path, attributes) -> attributes.isRegularFile())) {
+            candidates = files
+                    // Precompressed siblings are loaded along with the file they belong to
+                    .filter(path -> StaticFile.originalOf(path) == null || !Files.isRegularFile(StaticFile.originalOf(path)))
+                    .map(path -> new Candidate(path, sizeOf(path)))
+                    .sorted(Comparator.comparingLong(Candidate::size))
+                    .toList();
+        }
+
+        logger.info("Warming the cache with {} files from {}", candidates.size(), root);
+
+        // One load per core at a time, so the memory held by files being read stays bounded
+        Semaphore permits = new Semaphore(Runtime.getRuntime().availableProcessors());
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Candidate candidate : candidates) {
+                // Reserved in order before reading, so the budget goes to the smallest files
+                if (!reserve(candidate)) {
+                    logger.debug("Not warming {}, it doesn't fit", candidate.path());
+                    skipped.incrementAndGet();
+                    reportProgress(candidates.size());
+                    continue;
+                }
+
+                permits.acquireUninterruptibly();
+                executor.submit(() -> {
+                    try {
+                        load(candidate);
+                    } finally {
+                        permits.release();
+                    }
+                    reportProgress(candidates.size());
+                });
+            }
+        }
+
+        Result result = new Result(
+                loaded.get(),
+                reservedBytes.get(),
+                skipped.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        );
+
+        logger.info("Cache warm-up loaded {} files ({} bytes) in {} ms, skipped {}",
+                result.files(), result.bytes(), result.millis(), result.skipped());
+
+        if (requireAll && result.skipped() > 0) {
+            throw new IllegalStateException(String.format(
+                    "Could not preload %s files from %s, raise the cache's maxBytes or the streamingThreshold",
+                    result.skipped(), root));
+        }
+
+        return result;
+    }
+
+    private boolean reserve(Candidate candidate) {
+        long budget = serverConfig.cache().maxBytes();
+        if (candidate.size() > serverConfig.streamingThreshold()) {
+            return false;
+        }
+
+        long reserved;
+        do {
+            reserved = reservedBytes.get();
+            if (reserved + candidate.size() > budget) {
+                return false;
+            }
+        } while (!reservedBytes.compareAndSet(reserved, reserved + candidate.size()));
+
+        return true;
+    }
+
+    /**
+     * Loads a file whose size is already reserved, then corrects the reservation to what it
+     * weighs in the cache, which includes its compressed variants.
+     */
+    private void load(Candidate candidate) {
+        try {
+            long generation = cache.generation(candidate.path());
+            StaticFile file = new StaticFile(candidate.path(), mimeTypes);
+            CachedFile cachedFile = CachedFile.load(serverConfig, candidate.path(), file);
+
+            long weight = RequestHandler.responseWeight(cachedFile);
+            if (reservedBytes.addAndGet(weight - candidate.size()) > serverConfig.cache().maxBytes()) {
+                reservedBytes.addAndGet(-weight);
+                cachedFile.release();
+                skipped.incrementAndGet();
+                return;
+            }
+
+            cache.put(candidate.path(), cachedFile, generation);
+            loaded.incrementAndGet();
+        } catch (IOException e) {
+            logger.warn("Failed to warm {}: {}", candidate.path(), e.getMessage());
+            reservedBytes.addAndGet(-candidate.size());
+            skipped.incrementAndGet();
+        }
+    }
+
+    private void reportProgress(int total) {
+        int done = finished.incrementAndGet();
+        // Log every tenth of the way
+        if (done * 10L / total != (done - 1) * 10L / total) {
+            logger.info("Warming the cache: {}/{} files", done, total);
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            // Gone already, it will be skipped when it fails to load
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package org.usrv.http;
+
+import org.usrv.config.CacheConfig;
+import org.usrv.config.ServerConfig;
+import org.usrv.file.StaticFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cached file with every content encoding it can be sent in, negotiated per request from
+ * Accept-Encoding. Compressed variants come from {@code .gz} and {@code .br} files next to the
+ * original when a build produced them. Otherwise compressible types are gzipped once, when the
+ * file is loaded. Brotli is only ever served precompressed, the JDK has no encoder for it.
+ * <p>
+ * Files from the mapping threshold up are mapped instead of read onto the heap, along with their
+ * precompressed siblings. Compressible files without siblings stay on the heap though, since the
+ * gzip variant made for them saves more than mapping does. With off-heap storage, the bodies of
+ * smaller files are copied into a single direct buffer. Users of a cached file must
+ * {@link #retain()} it and release the response they send from it, so off-heap bodies outlive
+ * every send even if the file is evicted meanwhile.
+ */
+public final class CachedFile {
+    // Below this, compression saves less than the extra header costs
+    private static final int MIN_COMPRESSIBLE_LENGTH = 256;
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/javascript",
+            "application/x-javascript",
+            "application/json",
+            "application/manifest+json",
+            "application/xml",
+            "application/wasm",
+            "image/svg+xml"
+    );
+
+    private final PreparedResponse identity;
+    // Null when the file isn't available in that encoding
+    private final PreparedResponse gzip;
+    private final PreparedResponse brotli;
+    // Null for bodies on the heap, otherwise the cache owns one reference to the memory holding them
+    private final OffHeapBuffer offHeapBuffer;
+
+    private CachedFile(PreparedResponse identity, PreparedResponse gzip, PreparedResponse brotli, OffHeapBuffer offHeapBuffer) {
+        this.identity = identity;
+        this.gzip = gzip;
+        this.brotli = brotli;
+        this.offHeapBuffer = offHeapBuffer;
+    }
+
+    /**
+     * Loads a file onto the heap, off the heap or maps it, depending on its size and the cache's storage.
+     */
+    static CachedFile load(ServerConfig serverConfig, Path path, StaticFile file) throws IOException {
+        long lastModified = file.getLastModified();
+        long size = file.getSize();
+
+        if (size >= serverConfig.mappingThreshold()
+                && (!isCompressible(file.getMimeType())
+                || hasSibling(path, StaticFile.GZIP_SUFFIX)
+                || hasSibling(path, StaticFile.BROTLI_SUFFIX))) {
+            return loadMapped(path, file.getMimeType(), lastModified, size);
+        }
+
+        boolean offHeap = serverConfig.cache().storage() == CacheConfig.Storage.OFF_HEAP;
+        byte[] body = file.getFileContents();
+        CachedFile cached = load(path, file.getMimeType(), lastModified, body, offHeap);
+
+        if (serverConfig.earlyHints() && file.getMimeType().equals("text/html")) {
+            // Scanned once here, every request for the page is then announced from the cache
+            EarlyHints earlyHints = EarlyHints.scan(body);
+            if (earlyHints != null) {
+                cached = cached.withEarlyHints(earlyHints);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Maps the file and its precompressed siblings, which are sent as they are.
+     *
+     * @param lastModified seconds since the epoch
+     */
+    static CachedFile loadMapped(Path path, String mimeType, long lastModified, long size) throws IOException {
+        List<Path> siblings = new ArrayList<>(2);
+        for (String suffix : StaticFile.PRECOMPRESSED_SUFFIXES) {
+            siblings.add(hasSibling(path, suffix) ? siblingOf(path, suffix) : null);
+        }
+
+        List<Path> mapped = new ArrayList<>(3);
+        mapped.add(path);
+        for (Path sibling : siblings) {
+            if (sibling != null) {
+                mapped.add(sibling);
+            }
+        }
+        OffHeapBuffer mapping = OffHeapBuffer.map(mapped.toArray(Path[]::new));
+
+        boolean varies = mapped.size() > 1;
+        // Hashing would page in the whole file, so the ETag is derived from size and time like for streamed files
+        String etag = String.format("%x-%x", size, lastModified);
+
+        // The identity body is mapped up to the size it was loaded with, the siblings whole
+        ByteBuffer identityBody = mapping.buffer().slice(0, (int) Math.min(size, mapping.buffer().capacity()));
+        PreparedResponse[] variants = new PreparedResponse[2];
+        int index = 1;
+        for (int i = 0; i < variants.length; i++) {
+            if (siblings.get(i) != null) {
+                String encoding = i == 0 ? "gzip" : "br";
+                variants[i] = mappedResponse(mimeType, mapping.buffer(index++), mapping, encoding, true, "\"" + etag + "-" + encoding + "\"", lastModified);
+            }
+        }
+
+        return new CachedFile(
+                mappedResponse(mimeType, identityBody, mapping, null, varies, "\"" + etag + "\"", lastModified),
+                variants[0],
+                variants[1],
+                mapping
+        );
+    }
+
+    private static PreparedResponse mappedResponse(
+            String mimeType,
+            ByteBuffer body,
+            OffHeapBuffer mapping,
+            String contentEncoding,
+            boolean varies,
+            String etag,
+            long lastModified
+    ) {
+        Response response = new Response(200);
+        response.setHeader("Content-Type", mimeType);
+        response.setHeader("Content-Length", String.valueOf(body.remaining()));
+        response.setHeader("Accept-Ranges", "bytes");
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        if (varies) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        return PreparedResponse.withValidators(response, body, mapping, etag, lastModified);
+    }
+
+    /**
+     * @param lastModified seconds since the epoch
+     */
+    static CachedFile load(Path path, String mimeType, long lastModified, byte[] body) throws IOException {
+        return load(path, mimeType, lastModified, body, false);
+    }
+
+    /**
+     * @param lastModified seconds since the epoch
+     * @param offHeap      whether to copy the bodies into a direct buffer instead of keeping them on the heap
+     */
+    static CachedFile load(Path path, String mimeType, long lastModified, byte[] body, boolean offHeap) throws IOException {
+        byte[] gzipBody = readSibling(path, StaticFile.GZIP_SUFFIX);
+        if (gzipBody == null && body.length >= MIN_COMPRESSIBLE_LENGTH && isCompressible(mimeType)) {
+            gzipBody = gzip(body);
+            if (gzipBody.length >= body.length) {
+                gzipBody = null;
+            }
+        }
+        byte[] brotliBody = readSibling(path, StaticFile.BROTLI_SUFFIX);
+
+        // Caches must key the identity response on Accept-Encoding as well, as soon as there is an alternative
+        boolean varies = gzipBody != null || brotliBody != null;
+        // Strong ETags have to differ between encodings of the same content
+        String hash = contentHash(body);
+
+        // Laid out identity, gzip, brotli
+        OffHeapBuffer offHeapBuffer = offHeap ? OffHeapBuffer.copyOf(body, gzipBody, brotliBody) : null;
+        int gzipOffset = body.length;
+        int brotliOffset = gzipOffset + (gzipBody == null ? 0 : gzipBody.length);
+
+        return new CachedFile(
+                encodedResponse(mimeType, body, 0, offHeapBuffer, null, varies, "\"" + hash + "\"", lastModified),
+                gzipBody == null ? null : encodedResponse(mimeType, gzipBody, gzipOffset, offHeapBuffer, "gzip", true, "\"" + hash + "-gzip\"", lastModified),
+                brotliBody == null ? null : encodedResponse(mimeType, brotliBody, brotliOffset, offHeapBuffer, "br", true, "\"" + hash + "-br\"", lastModified),
+                offHeapBuffer
+        );
+    }
+
+    /**
+     * @param acceptEncoding the request's Accept-Encoding header, or null
+     * @return the smallest variant the client accepts
+     */
+    PreparedResponse select(String acceptEncoding) {
+        if (acceptEncoding == null || (gzip == null && brotli == null)) {
+            return identity;
+        }
+
+        double brotliQuality = brotli == null ? 0 : quality(acceptEncoding, "br");
+        double gzipQuality = gzip == null ? 0 : quality(acceptEncoding, "gzip");
+
+        if (brotliQuality > 0 && brotliQuality >= gzipQuality) {
+            return brotli;
+        }
+        if (gzipQuality > 0) {
+            return gzip;
+        }
+        return identity;
+    }
+
+    /**
+     * @return the same file, with every variant announced by the hints
+     */
+    CachedFile withEarlyHints(EarlyHints earlyHints) {
+        return new CachedFile(
+                identity.withEarlyHints(earlyHints),
+                gzip == null ? null : gzip.withEarlyHints(earlyHints),
+                brotli == null ? null : brotli.withEarlyHints(earlyHints),
+                offHeapBuffer
+        );
+    }
+
+    /**
+     * Takes a reference for one request. Responses selected from this file may only be used while
+     * it is held, it is handed over to a response that is a view of off-heap memory and released with it.
+     *
+     * @return false if the file's off-heap memory was freed after it was evicted, and it has to be loaded again
+     */
+    boolean retain() {
+        return offHeapBuffer == null || offHeapBuffer.retain();
+    }
+
+    /**
+     * Drops a reference, called by the cache once it no longer holds this file.
+     */
+    void release() {
+        if (offHeapBuffer != null) {
+            offHeapBuffer.release();
+        }
+    }
+
+    /**
+     * @return the number of bytes held on or off the heap, or mapped, for all variants
+     */
+    public long encodedLength() {
+        return identity.encodedLength()
+                + (gzip == null ? 0 : gzip.encodedLength())
+                + (brotli == null ? 0 : brotli.encodedLength());
+    }
+
+    /**
+     * @return the q-value the Accept-Encoding header gives to the coding, 0 if it isn't accepted
+     */
+    static double quality(String acceptEncoding, String coding) {
+        double wildcard = 0;
+
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String name = parameters[0].trim();
+            boolean matches = name.equalsIgnoreCase(coding);
+
+            if (matches || name.equals("*")) {
+                double quality = 1;
+                for (int i = 1; i < parameters.length; i++) {
+                    String parameter = parameters[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+
+                if (matches) {
+                    return quality;
+                }
+                wildcard = quality;
+            }
+        }
+
+        return wildcard;
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return mimeType.startsWith("text/") || COMPRESSIBLE_TYPES.contains(mimeType);
+    }
+
+    private static Path siblingOf(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    private static boolean hasSibling(Path path, String suffix) throws IOException {
+        Path sibling = siblingOf(path, suffix);
+        return Files.isRegularFile(sibling) && Files.size(sibling) > 0;
+    }
+
+    /**
+     * @return the sibling's bytes, or null if there is none or it is empty, like {@link #hasSibling}
+     */
+    private static byte[] readSibling(Path path, String suffix) throws IOException {
+        if (!hasSibling(path, suffix)) {
+            return null;
+        }
+        return Files.readAllBytes(siblingOf(path, suffix));
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+
+        // Compressed once and then served many times, so it's worth the slowest level
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {{
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }}) {
+            out.write(body);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private static String contentHash(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            // 64 bits tell versions of one file apart well enough
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param offset where the body starts in {@code offHeapBuffer}, if the body is stored there
+     */
+    private static PreparedResponse encodedResponse(
+            String mimeType,
+            byte[] body,
+            int offset,
+            OffHeapBuffer offHeapBuffer,
+            String contentEncoding,
+            boolean varies,
+            String etag,
+            long lastModified
+    ) {
+        Response response = new Response(200);
+        response.setHeader("Content-Type", mimeType);
+        response.setHeader("Content-Length", String.valueOf(body.length));
+        response.setHeader("Accept-Ranges", "bytes");
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        if (varies) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (offHeapBuffer != null) {
+            return PreparedResponse.withValidators(response, offHeapBuffer.slice(offset, body.length), offHeapBuffer, etag, lastModified);
+        }
+
+        response.setBody(body);
+        return PreparedResponse.withValidators(response, etag, lastModified);
+    }
+}
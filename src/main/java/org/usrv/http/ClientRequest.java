@@ -11,6 +11,8 @@ import java.util.stream.Collectors;
 
 public record ClientRequest(String method, String path, String protocol, Map<String, String> headers, URI uri) {
     static Set<String> supportedMethods = Set.of("GET", "HEAD");
+    private static final Set<String> supportedProtocols = Set.of("HTTP/1.1", "HTTP/2");
+    private static final Set<String> protocolsWithRequiredHost = Set.of("HTTP/1.1", "HTTP/2", "HTTP/3");
 
     private record HttpRequestLine(String method, String uriString, String protocol) {
     }
@@ -88,7 +90,7 @@ public record ClientRequest(String method, String path, String protocol, Map<Str
     public void validate() {
         if (!supportedMethods.contains(this.method)) {
             throw new InvalidRequestException("Unsupported method: " + this.method);
-        } else if (!Objects.equals(this.protocol, "HTTP/1.1")) {
+        } else if (!supportedProtocols.contains(this.protocol)) {
             throw new InvalidRequestException("Unsupported protocol: " + this.protocol);
         } else if(this.isHostRequiredForProtocol() && !this.headers.containsKey("Host")) {
             throw new InvalidRequestException(InvalidRequestException.MISSING_REQUIRED_HOST_MESSAGE);
@@ -96,8 +98,6 @@ public record ClientRequest(String method, String path, String protocol, Map<Str
     }
 
     private boolean isHostRequiredForProtocol(){
-        Set<String> protocolsWithRequiredHost = Set.of("HTTP/1.1", "HTTP/2", "HTTP/3");
-
         return protocolsWithRequiredHost.contains(this.protocol);
     }
 }
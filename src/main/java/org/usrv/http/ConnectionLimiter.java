@@ -0,0 +1,403 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.config.ConnectionConfig;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for both engines. Every accepted connection asks for a {@link Lease} before
+ * anything is read from it. At the connection limit the keep-alive connection that has been idle
+ * the longest is shed to make room, as a new connection likely has a request ready and the idle one
+ * may never send another; with none idle, or at the per-client limit, the new one is answered with
+ * a 503 right away instead of queueing behind the others.
+ * <p>
+ * Connections going busy and idle only flip a flag on their lease and append to a concurrent
+ * queue, so requests don't contend on the lock; it's only taken to admit, shed and release.
+ * <p>
+ * When the server stops, {@link #drain(long)} admits nothing more, closes idle connections, has the
+ * busy ones closed after their current response and force-closes whatever is left at the deadline.
+ */
+public final class ConnectionLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionLimiter.class);
+
+    // Marks a lease that was released, so it can't become idle or busy again
+    private static final IdleEntry RELEASED = new IdleEntry(null);
+    // Stale entries left in the idle queue by connections that went busy again are pruned past this
+    private static final int MIN_STALE_ENTRIES = 64;
+
+    private final ConnectionConfig config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition allReleased = lock.newCondition();
+
+    // Guarded by lock
+    private final Set<Lease> open = new HashSet<>();
+    private final Map<InetAddress, Integer> perClient = new HashMap<>();
+
+    // In the order connections became idle, so the one idle the longest comes first. Entries are
+    // only removed under the lock; the ones of connections that are no longer idle are skipped.
+    private final ConcurrentLinkedDeque<IdleEntry> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger staleEntries = new AtomicInteger();
+    private volatile boolean draining;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    public ConnectionLimiter(ConnectionConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @param client    the connection's remote address
+     * @param shedCloser closes the connection if it's shed while idle, called from any thread
+     * @return the lease to release once the connection is closed, or null if it has to be turned away
+     */
+    Lease admit(InetAddress client, Runnable shedCloser) {
+        Lease evicted = null;
+        Lease lease;
+
+        lock.lock();
+        try {
+            if (draining) {
+                rejected.increment();
+                return null;
+            }
+
+            int fromClient = perClient.getOrDefault(client, 0);
+            // Shedding others' connections for a client that opens too many would let it push them out
+            if (exceeds(fromClient, config.maxConnectionsPerClient())) {
+                rejected.increment();
+                return null;
+            }
+            if (exceeds(open.size(), config.maxConnections())) {
+                evicted = evictLongestIdle();
+                if (evicted == null) {
+                    rejected.increment();
+                    return null;
+                }
+            }
+
+            lease = new Lease(client, shedCloser);
+            open.add(lease);
+            perClient.put(client, fromClient + 1);
+            accepted.increment();
+        } finally {
+            lock.unlock();
+        }
+
+        if (evicted != null) {
+            logger.debug("At the connection limit, closing the connection idle the longest");
+            evicted.shedCloser.run();
+        }
+        return lease;
+    }
+
+    public ConnectionStats stats() {
+        lock.lock();
+        try {
+            return new ConnectionStats(accepted.sum(), rejected.sum(), shed.sum(), open.size(), idleCount.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops admitting connections and waits for the open ones to close. Idle connections are closed
+     * right away, busy ones are asked to close after their current response, and the ones still open
+     * at the deadline are closed regardless.
+     *
+     * @return true if all connections closed on their own within the timeout
+     */
+    boolean drain(long timeoutMillis) {
+        List<Runnable> closers = new ArrayList<>();
+        int count;
+
+        lock.lock();
+        try {
+            draining = true;
+            count = open.size();
+            List<Lease> idleLeases = new ArrayList<>();
+            for (Lease lease : open) {
+                if (lease.shedIfIdle()) {
+                    idleLeases.add(lease);
+                    closers.add(lease.shedCloser);
+                } else if (lease.drainer != null) {
+                    closers.add(lease.drainer);
+                }
+            }
+            idleLeases.forEach(this::release);
+        } finally {
+            lock.unlock();
+        }
+
+        logger.debug("Draining {} open connections", count);
+        closers.forEach(Runnable::run);
+
+        List<Runnable> remaining = new ArrayList<>();
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!open.isEmpty() && nanos > 0) {
+                nanos = allReleased.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Lease lease : List.copyOf(open)) {
+                remaining.add(lease.shedCloser);
+                release(lease);
+            }
+            lock.unlock();
+        }
+
+        if (remaining.isEmpty()) {
+            return true;
+        }
+        logger.warn("{} connections still busy after {} ms, closing them", remaining.size(), timeoutMillis);
+        remaining.forEach(Runnable::run);
+        return false;
+    }
+
+    /**
+     * Answers a connection that wasn't admitted with a 503, if the socket takes it without waiting,
+     * and closes it. Over TLS it's just closed, as a plaintext answer would not be understood.
+     */
+    static void turnAway(SocketChannel channel, boolean tls) {
+        try (channel) {
+            if (!tls) {
+                channel.configureBlocking(false);
+                channel.write(RequestHandler.SERVICE_UNAVAILABLE.toBuffers(false));
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to turn away connection: {}", e.getMessage());
+        }
+    }
+
+    private static boolean exceeds(int count, int limit) {
+        return limit > 0 && count >= limit;
+    }
+
+    /**
+     * @return the released lease of the connection idle the longest, or null if none is
+     */
+    private Lease evictLongestIdle() {
+        IdleEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            boolean wasIdle = entry.lease.claimIdle(entry, RELEASED);
+            // Stale either way now, and out of the queue
+            staleEntries.decrementAndGet();
+            if (wasIdle) {
+                release(entry.lease);
+                shed.increment();
+                return entry.lease;
+            }
+        }
+        return null;
+    }
+
+    // Called with the lock held
+    private void pruneStaleEntries() {
+        idle.removeIf(entry -> {
+            boolean stale = entry.lease.idleEntry.get() != entry;
+            if (stale) {
+                staleEntries.decrementAndGet();
+            }
+            return stale;
+        });
+    }
+
+    // Called with the lock held
+    private void release(Lease lease) {
+        if (lease.released) {
+            return;
+        }
+        lease.released = true;
+        IdleEntry entry = lease.idleEntry.getAndSet(RELEASED);
+        if (entry != null && entry != RELEASED) {
+            idleCount.decrementAndGet();
+            staleEntries.incrementAndGet();
+        }
+        open.remove(lease);
+        perClient.computeIfPresent(lease.client, (client, count) -> count > 1 ? count - 1 : null);
+        if (open.isEmpty()) {
+            allReleased.signalAll();
+        }
+    }
+
+    /**
+     * One stretch of a connection being idle, so an entry left over from an earlier one can be told
+     * apart from the current one.
+     */
+    private static final class IdleEntry {
+        private final Lease lease;
+
+        private IdleEntry(Lease lease) {
+            this.lease = lease;
+        }
+    }
+
+    /**
+     * An admitted connection's slot, which it holds until it's closed or shed.
+     */
+    public final class Lease {
+        private final InetAddress client;
+        private final Runnable shedCloser;
+        // The current idle entry while idle, null while busy
+        private final AtomicReference<IdleEntry> idleEntry = new AtomicReference<>();
+        // Only written under lock
+        private volatile boolean released;
+        // Guarded by lock
+        private Runnable drainer;
+
+        private Lease(InetAddress client, Runnable shedCloser) {
+            this.client = client;
+            this.shedCloser = shedCloser;
+        }
+
+        /**
+         * Marks the connection as waiting for a next request, which makes it the first to be shed.
+         */
+        void idle() {
+            IdleEntry entry = new IdleEntry(this);
+            idleCount.incrementAndGet();
+            if (!idleEntry.compareAndSet(null, entry)) {
+                // Released, or idle already
+                idleCount.decrementAndGet();
+                return;
+            }
+            idle.offerLast(entry);
+
+            // Checked after going idle, so either this or drain() sees the other and closes it
+            if (draining) {
+                if (claimIdle(entry, RELEASED)) {
+                    // The server is stopping, a next request would not be answered
+                    release();
+                    logger.debug("Closing idle connection, the server is stopping");
+                    shedCloser.run();
+                }
+                return;
+            }
+
+            boolean overBudget = exceeds(idleCount.get() - 1, config.maxIdleConnections());
+            if (!overBudget && staleEntries.get() <= Math.max(idleCount.get(), MIN_STALE_ENTRIES)) {
+                return;
+            }
+
+            Lease evicted = null;
+            lock.lock();
+            try {
+                if (overBudget) {
+                    evicted = evictLongestIdle();
+                }
+                pruneStaleEntries();
+            } finally {
+                lock.unlock();
+            }
+
+            if (evicted != null) {
+                logger.debug("Too many idle connections, closing the one idle the longest");
+                evicted.shedCloser.run();
+            }
+        }
+
+        /**
+         * Sets how the connection is wound down when the server stops while it's busy, for protocols
+         * that can tell the client ahead of closing, like HTTP/2 with GOAWAY. Runs it right away if the
+         * server is already stopping.
+         */
+        void onDrain(Runnable drainer) {
+            boolean stopping;
+
+            lock.lock();
+            try {
+                this.drainer = drainer;
+                stopping = draining;
+            } finally {
+                lock.unlock();
+            }
+
+            if (stopping) {
+                drainer.run();
+            }
+        }
+
+        /**
+         * @return true if the server is stopping, so the current response should be the last one
+         */
+        boolean isDraining() {
+            return draining;
+        }
+
+        /**
+         * Marks the connection as serving a request again.
+         *
+         * @return false if it was shed while idle and is being closed
+         */
+        boolean busy() {
+            IdleEntry entry = idleEntry.get();
+            if (entry != null && !claimIdle(entry, null)) {
+                return false;
+            }
+            return !released;
+        }
+
+        /**
+         * @return true if the connection was shed, so errors from it being closed are expected
+         */
+        boolean isShed() {
+            return released;
+        }
+
+        /**
+         * Takes the connection out of the idle ones, unless it went busy or was shed meanwhile.
+         *
+         * @param next null to make it busy, or {@code RELEASED} to shed it
+         * @return true if it was idle with this entry
+         */
+        private boolean claimIdle(IdleEntry entry, IdleEntry next) {
+            if (entry == RELEASED || !idleEntry.compareAndSet(entry, next)) {
+                return false;
+            }
+            idleCount.decrementAndGet();
+            // Its entry stays in the queue until it's polled or pruned
+            staleEntries.incrementAndGet();
+            return true;
+        }
+
+        // Called with the lock held, to be released right after
+        private boolean shedIfIdle() {
+            IdleEntry entry = idleEntry.get();
+            return entry != null && claimIdle(entry, RELEASED);
+        }
+
+        /**
+         * Gives the slot back. Safe to call more than once.
+         */
+        void release() {
+            lock.lock();
+            try {
+                ConnectionLimiter.this.release(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.usrv.http;
+
+/**
+ * Point in time snapshot of the connection limiter's counters.
+ *
+ * @param rejected connections turned away on accept, with a 503 or by closing them
+ * @param shed     idle keep-alive connections closed to make room for new ones or to stay within the idle budget
+ */
+public record ConnectionStats(
+        long accepted,
+        long rejected,
+        long shed,
+        int active,
+        int idle
+) {
+}
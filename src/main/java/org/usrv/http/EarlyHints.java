@@ -0,0 +1,151 @@
+package org.usrv.http;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The scripts and stylesheets an HTML page links to, found once when the page is cached and
+ * announced in a {@code 103 Early Hints} response ahead of it (RFC 8297). Browsers start fetching
+ * them right away instead of after parsing the page, such as the hashed entry points of an SPA.
+ */
+final class EarlyHints {
+    // More than a page's critical assets would only compete with the page itself for bandwidth
+    static final int MAX_LINKS = 16;
+
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern TAG = Pattern.compile("<(script|link)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([a-zA-Z][\\w-]*)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+)))?"
+    );
+    // Targets with a scheme point elsewhere, or are inline like data:
+    private static final Pattern SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*:");
+
+    // Link header values, in the order the page references them
+    @Getter
+    private final List<String> links;
+    // The encoded 103 response, sent as it is over HTTP/1.1
+    private final ByteBuffer response;
+
+    private EarlyHints(List<String> links) {
+        this.links = List.copyOf(links);
+
+        String head = "HTTP/1.1 103 Early Hints\r\nLink: " + String.join(", ", links) + "\r\n\r\n";
+        this.response = ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the hints for the page, or null if it links nothing worth preloading
+     */
+    static EarlyHints scan(byte[] html) {
+        String page = COMMENT.matcher(new String(html, StandardCharsets.ISO_8859_1)).replaceAll("");
+        Set<String> links = new LinkedHashSet<>();
+
+        Matcher tag = TAG.matcher(page);
+        while (tag.find() && links.size() < MAX_LINKS) {
+            String link = toLink(tag.group(1).toLowerCase(Locale.ROOT), attributes(tag.group(2)));
+            if (link != null) {
+                links.add(link);
+            }
+        }
+
+        return links.isEmpty() ? null : new EarlyHints(new ArrayList<>(links));
+    }
+
+    /**
+     * @return a fresh view of the encoded 103 response
+     */
+    ByteBuffer toBuffer() {
+        return response.duplicate();
+    }
+
+    long encodedLength() {
+        return response.capacity();
+    }
+
+    private static Map<String, String> attributes(String text) {
+        Map<String, String> attributes = new HashMap<>();
+
+        Matcher attribute = ATTRIBUTE.matcher(text);
+        while (attribute.find()) {
+            String value = attribute.group(2) != null ? attribute.group(2)
+                    : attribute.group(3) != null ? attribute.group(3)
+                    : attribute.group(4) != null ? attribute.group(4)
+                    : "";
+            attributes.putIfAbsent(attribute.group(1).toLowerCase(Locale.ROOT), value.trim());
+        }
+
+        return attributes;
+    }
+
+    private static String toLink(String tag, Map<String, String> attributes) {
+        String target;
+        String relation;
+
+        if (tag.equals("script")) {
+            target = attributes.get("src");
+            relation = "module".equalsIgnoreCase(attributes.get("type")) ? "rel=modulepreload" : "rel=preload; as=script";
+        } else {
+            target = attributes.get("href");
+            String rel = attributes.getOrDefault("rel", "").toLowerCase(Locale.ROOT);
+            String as = attributes.get("as");
+
+            if (rel.equals("stylesheet")) {
+                relation = "rel=preload; as=style";
+            } else if (rel.equals("modulepreload")) {
+                relation = "rel=modulepreload";
+            } else if (rel.equals("preload") && as != null && isToken(as)) {
+                relation = "rel=preload; as=" + as.toLowerCase(Locale.ROOT);
+            } else {
+                return null;
+            }
+        }
+
+        if (target == null) {
+            return null;
+        }
+        target = target.replace("&amp;", "&");
+        if (!isLocalPath(target)) {
+            return null;
+        }
+
+        // A preload only gets used if it's fetched in the same CORS mode as the element that needs it
+        String crossOrigin = attributes.get("crossorigin");
+        if (crossOrigin != null) {
+            relation += crossOrigin.equalsIgnoreCase("use-credentials") ? "; crossorigin=use-credentials" : "; crossorigin";
+        }
+
+        return "<" + target + ">; " + relation;
+    }
+
+    /**
+     * @return true for paths on this server that can go into a header as they are
+     */
+    private static boolean isLocalPath(String target) {
+        if (target.isEmpty() || target.startsWith("//") || SCHEME.matcher(target).find()) {
+            return false;
+        }
+
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c == '<' || c == '>' || c == '"') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isToken(String value) {
+        return !value.isEmpty() && value.chars().allMatch(Character::isLetter);
+    }
+}
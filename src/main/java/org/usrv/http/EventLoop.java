@@ -0,0 +1,211 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A single selector thread owning a share of the NIO engine's connections.
+ * Connections are only ever touched from this thread, so they need no locking.
+ */
+final class EventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+
+    private static final long IDLE_SWEEP_INTERVAL_MILLIS = 1000;
+
+    private final Selector selector;
+    private final Queue<Registration> pendingChannels = new ConcurrentLinkedQueue<>();
+    // Connections the limiter shed while idle, closed on this thread
+    private final Queue<SocketChannel> shedChannels = new ConcurrentLinkedQueue<>();
+    // Work handed back from other threads, like the responses of requests answered by a worker
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final RequestHandler requestHandler;
+    // Answers requests that have to read from the disk, which would hold up every connection of the loop
+    private final Executor workers;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private long lastIdleSweep = System.currentTimeMillis();
+
+    private record Registration(SocketChannel channel, ConnectionLimiter.Lease lease) {
+    }
+
+    EventLoop(int index, RequestHandler requestHandler, Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.requestHandler = requestHandler;
+        this.workers = workers;
+        this.thread = Thread.ofPlatform().name("usrv-event-loop-" + index).unstarted(this);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands a freshly accepted, non-blocking channel to this loop. Safe to call from any thread.
+     */
+    void register(SocketChannel channel, ConnectionLimiter.Lease lease) {
+        pendingChannels.add(new Registration(channel, lease));
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the connection on this loop's thread. Safe to call from any thread.
+     */
+    void shed(SocketChannel channel) {
+        shedChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the task on this loop's thread. Safe to call from any thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            thread.join(IDLE_SWEEP_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(IDLE_SWEEP_INTERVAL_MILLIS);
+
+                registerPendingChannels();
+                closeShedConnections();
+                runTasks();
+                processSelectedKeys();
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            logger.error("Event loop failed: {}", e.getMessage(), e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPendingChannels() {
+        Registration registration;
+        while ((registration = pendingChannels.poll()) != null) {
+            SocketChannel channel = registration.channel();
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, this, requestHandler, workers, registration.lease()));
+            } catch (IOException e) {
+                logger.warn("Failed to register connection: {}", e.getMessage());
+                registration.lease().release();
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void closeShedConnections() {
+        SocketChannel channel;
+        while ((channel = shedChannels.poll()) != null) {
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null && key.attachment() instanceof NioConnection connection) {
+                logger.debug("Closing shed connection");
+                connection.close();
+            } else {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Uncaught exception in event loop task: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+            } catch (IOException e) {
+                logger.debug("I/O error on connection, closing it: {}", e.getMessage());
+                connection.close();
+            } catch (Exception e) {
+                logger.error("Uncaught exception in event loop: {}", e.getMessage(), e);
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleSweep < IDLE_SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastIdleSweep = now;
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection connection
+                    && now - connection.getLastActivity() > Server.SOCKET_TIMEOUT_MILLIS) {
+                logger.debug("Closing idle connection");
+                connection.close();
+            }
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection connection) {
+                connection.close();
+            }
+        }
+
+        Registration registration;
+        while ((registration = pendingChannels.poll()) != null) {
+            registration.lease().release();
+            closeQuietly(registration.channel());
+        }
+
+        // The connections are closed, so these only release what they hand back
+        runTasks();
+        closeQuietly(selector);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.debug("Failed to close: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.usrv.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A slice of a file that is sent with {@link FileChannel#transferTo}, which lets the kernel copy
+ * the bytes straight from the page cache to the socket (sendfile) without passing through the heap.
+ */
+final class FileRegion implements Closeable {
+    private final FileChannel file;
+    private final long end;
+    private long position;
+
+    private FileRegion(FileChannel file, long position, long count) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    static FileRegion open(Path path, long position, long count) throws IOException {
+        return new FileRegion(FileChannel.open(path, StandardOpenOption.READ), position, count);
+    }
+
+    boolean isComplete() {
+        return position >= end;
+    }
+
+    /**
+     * Transfers as much as the target accepts. On a non-blocking target this may be nothing.
+     *
+     * @return the number of bytes transferred
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = file.transferTo(position, end - position, target);
+
+        if (transferred == 0 && position >= file.size()) {
+            throw new IOException("File was truncated while it was being sent");
+        }
+
+        position += transferred;
+        return transferred;
+    }
+
+    /**
+     * Transfers the whole region to a blocking target.
+     */
+    void transferFully(WritableByteChannel target) throws IOException {
+        while (!isComplete()) {
+            transferTo(target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,853 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.usrv.exceptions.Http2Exception;
+import org.usrv.exceptions.InvalidRequestException;
+import org.usrv.exceptions.RequestParsingException;
+import org.usrv.http2.Frame;
+import org.usrv.http2.Header;
+import org.usrv.http2.HpackDecoder;
+import org.usrv.http2.HpackEncoder;
+import org.usrv.jfr.ResponseWriteEvent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves a connection that switched to HTTP/2 over cleartext (h2c), either by prior knowledge or
+ * by an {@code Upgrade: h2c} request, or that agreed on h2 with ALPN during the TLS handshake.
+ * The connection's thread reads frames; each request stream gets a virtual thread that produces
+ * its response with {@link RequestHandler#respond(ClientRequest)}, the same cache and path
+ * resolution HTTP/1.1 uses, so a whole page load shares one connection.
+ * <p>
+ * Frames from different streams are interleaved on the socket, each write holding the write lock.
+ * DATA frames are sized to the peer's flow control windows, and a stream whose window is used up
+ * waits for a WINDOW_UPDATE without holding up the others.
+ */
+final class Http2Connection {
+    private static final Logger logger = LoggerFactory.getLogger(Http2Connection.class);
+
+    static final int MAX_CONCURRENT_STREAMS = 100;
+    static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+    // The HPACK table size the peer may use without asking, which this server never changes
+    private static final int HEADER_TABLE_SIZE = 4096;
+
+    // What the request parser already consumed of the client preface when a connection starts with it
+    private static final int PRI_REQUEST_LENGTH = "PRI * HTTP/2.0\r\n\r\n".length();
+    private static final byte[] SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    // Headers that only mean something to an HTTP/1.1 connection (RFC 9113, section 8.2.2)
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private final RequestHandler handler;
+    private final InputStream in;
+    private final WritableByteChannel out;
+    private final long flowControlTimeoutNanos;
+    private final HpackDecoder decoder = new HpackDecoder(HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    // A virtual thread per stream, waited for before the connection is closed
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Held for every frame written, so frames of different streams don't interleave mid-frame
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Guards the send windows and the peer's settings
+    private final ReentrantLock flowLock = new ReentrantLock();
+    private final Condition windowOpened = flowLock.newCondition();
+    private int connectionWindow = Frame.DEFAULT_WINDOW_SIZE;
+    private int initialWindowSize = Frame.DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = Frame.DEFAULT_MAX_FRAME_SIZE;
+    // Set once the server is stopping, along with the last stream it still answers
+    private boolean draining;
+    private int lastDispatchedStreamId;
+    private volatile boolean closed;
+    // Set when drain() closed the connection, which ends the read the reading thread is blocked in
+    private volatile boolean drained;
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    // Only touched by the reading thread
+    private int lastStreamId;
+    private boolean goingAway;
+
+    private static final class Stream {
+        private final int id;
+        // Guarded by flowLock
+        private int window;
+        private volatile boolean reset;
+        // Set once the client has sent all of the request, a body included
+        private volatile boolean remoteClosed;
+
+        private Stream(int id, int window) {
+            this.id = id;
+            this.window = window;
+        }
+    }
+
+    /**
+     * @param in the connection's input, starting with the part of the client preface still to be read
+     * @param timeoutMillis how long to wait for a frame on an idle connection, and for a closed window to open
+     */
+    Http2Connection(RequestHandler handler, InputStream in, WritableByteChannel out, int timeoutMillis) {
+        this.handler = handler;
+        // Frames are read in pieces, starting with a single byte
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+        this.flowControlTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * @return true if the request line is the start of the client preface, PRI * HTTP/2.0
+     */
+    static boolean isPriorKnowledge(ClientRequest request) {
+        return request.method().equals("PRI") && request.protocol().equals("HTTP/2.0") && request.headers().isEmpty();
+    }
+
+    /**
+     * @return true if the client asks to upgrade a request without a body to h2c (RFC 7540, section 3.2)
+     */
+    static boolean isUpgrade(ClientRequest request) {
+        String upgrade = request.headers().get("Upgrade");
+        String contentLength = request.headers().get("Content-Length");
+
+        return upgrade != null
+                && Arrays.stream(upgrade.split(",")).anyMatch(token -> token.trim().equalsIgnoreCase("h2c"))
+                && request.headers().containsKey("HTTP2-Settings")
+                && (request.method().equals("GET") || request.method().equals("HEAD"))
+                && (contentLength == null || contentLength.trim().equals("0"));
+    }
+
+    /**
+     * Serves a connection that speaks HTTP/2 from its first byte, until it is closed.
+     */
+    void serve() throws IOException {
+        run(null, null, 0);
+    }
+
+    /**
+     * Serves the connection after the PRI request line of the preface, until it is closed.
+     */
+    void servePriorKnowledge() throws IOException {
+        run(null, null, PRI_REQUEST_LENGTH);
+    }
+
+    /**
+     * Accepts the upgrade, answers the request as stream 1, and serves the connection until it is closed.
+     */
+    void serveUpgrade(ClientRequest request) throws IOException {
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(request.headers().get("HTTP2-Settings").trim());
+        } catch (IllegalArgumentException e) {
+            throw new RequestParsingException("Invalid HTTP2-Settings header", e);
+        }
+
+        writeFully(ByteBuffer.wrap(SWITCHING_PROTOCOLS));
+        run(request, settings, 0);
+    }
+
+    /**
+     * @param upgraded the request the connection was upgraded with, answered on stream 1, if any
+     * @param upgradeSettings the settings sent along with that request
+     * @param prefaceRead how many bytes of the client preface were already consumed
+     */
+    private void run(ClientRequest upgraded, byte[] upgradeSettings, int prefaceRead) throws IOException {
+        try (executor) {
+            try {
+                writeSettings();
+
+                if (upgraded != null) {
+                    // The 101 acknowledges these, no SETTINGS ACK is sent
+                    applySettings(upgradeSettings);
+                    lastStreamId = 1;
+                    Stream stream = new Stream(1, windowSize());
+                    stream.remoteClosed = true;
+                    if (register(stream)) {
+                        dispatch(stream, upgraded);
+                    }
+                }
+
+                readPreface(prefaceRead);
+                readFrames();
+            } catch (Http2Exception e) {
+                logger.warn("HTTP/2 connection error: {}", e.getMessage());
+                goAway(e.getErrorCode());
+            } catch (IOException e) {
+                if (!drained) {
+                    throw e;
+                }
+                logger.debug("HTTP/2 connection drained");
+            } finally {
+                // Wakes streams waiting for a window, so the executor can finish
+                flowLock.lock();
+                try {
+                    closed = true;
+                    windowOpened.signalAll();
+                } finally {
+                    flowLock.unlock();
+                }
+            }
+        }
+    }
+
+    private void readPreface(int alreadyRead) throws IOException {
+        int length = Frame.CLIENT_PREFACE.length - alreadyRead;
+        byte[] preface = in.readNBytes(length);
+
+        if (!Arrays.equals(preface, 0, preface.length, Frame.CLIENT_PREFACE, alreadyRead, Frame.CLIENT_PREFACE.length)) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid client preface");
+        }
+
+        // The preface has to be followed by the client's SETTINGS
+        Frame settings = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+        if (settings == null || settings.type() != Frame.SETTINGS || settings.hasFlag(Frame.FLAG_ACK)) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Client preface not followed by SETTINGS");
+        }
+        handleFrame(settings);
+    }
+
+    private void readFrames() throws IOException {
+        while (!goingAway || !streams.isEmpty()) {
+            // Waiting for the first byte alone, so a timeout never leaves part of a frame read
+            int firstByte;
+            try {
+                firstByte = in.read();
+            } catch (SocketTimeoutException e) {
+                if (streams.isEmpty()) {
+                    logger.debug("HTTP/2 connection idle, closing it");
+                    goAway(Frame.NO_ERROR);
+                    return;
+                }
+                // Responses are still being sent, which time out on their own if the client stops reading
+                continue;
+            }
+
+            if (firstByte < 0) {
+                logger.debug("Client closed the HTTP/2 connection");
+                return;
+            }
+
+            Frame frame;
+            try {
+                frame = Frame.read(firstByte, in, Frame.DEFAULT_MAX_FRAME_SIZE);
+            } catch (SocketTimeoutException e) {
+                // Reading on would start in the middle of the frame
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Client stalled in the middle of a frame");
+            }
+
+            handleFrame(frame);
+        }
+    }
+
+    private void handleFrame(Frame frame) throws IOException {
+        switch (frame.type()) {
+            case Frame.HEADERS -> handleHeaders(frame);
+            case Frame.DATA -> handleData(frame);
+            case Frame.SETTINGS -> handleSettings(frame);
+            case Frame.PING -> handlePing(frame);
+            case Frame.WINDOW_UPDATE -> handleWindowUpdate(frame);
+            case Frame.RST_STREAM -> handleReset(frame);
+            case Frame.GOAWAY -> {
+                requireConnectionFrame(frame);
+                logger.debug("Client sent GOAWAY, finishing open streams");
+                goingAway = true;
+            }
+            case Frame.PRIORITY -> requireLength(frame, 5);
+            case Frame.PUSH_PROMISE -> throw new Http2Exception(Frame.PROTOCOL_ERROR, "Clients can't push");
+            case Frame.CONTINUATION -> throw new Http2Exception(Frame.PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+            default -> {
+                // Unknown frame types are ignored (RFC 9113, section 4.1)
+            }
+        }
+    }
+
+    private void handleHeaders(Frame frame) throws IOException {
+        int streamId = frame.streamId();
+        if (streamId % 2 == 0 || streamId <= lastStreamId) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Unexpected HEADERS on stream " + streamId);
+        }
+        lastStreamId = streamId;
+
+        byte[] block = frame.content();
+        if (!frame.hasFlag(Frame.FLAG_END_HEADERS)) {
+            block = readContinuations(streamId, block);
+        }
+
+        // Always decoded, even for refused streams, to keep the HPACK table in step with the client
+        List<Header> headers = decoder.decode(block);
+
+        if (goingAway) {
+            return;
+        }
+        if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+            resetStream(streamId, Frame.REFUSED_STREAM);
+            return;
+        }
+
+        ClientRequest request;
+        try {
+            request = toRequest(headers);
+        } catch (Http2Exception e) {
+            logger.warn("Malformed HTTP/2 request: {}", e.getMessage());
+            resetStream(streamId, e.getErrorCode());
+            return;
+        }
+
+        Stream stream = new Stream(streamId, windowSize());
+        stream.remoteClosed = frame.hasFlag(Frame.FLAG_END_STREAM);
+        if (register(stream)) {
+            dispatch(stream, request);
+        }
+    }
+
+    /**
+     * @return false if the server is stopping and the GOAWAY it sent already left this stream out
+     */
+    private boolean register(Stream stream) {
+        flowLock.lock();
+        try {
+            if (draining) {
+                return false;
+            }
+            streams.put(stream.id, stream);
+            lastDispatchedStreamId = stream.id;
+            return true;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    /**
+     * Tells the client with a GOAWAY that no more streams are answered (RFC 9113, section 6.8), and
+     * closes the connection once the streams already open are. Safe to call from any thread.
+     */
+    void drain() {
+        int lastStreamId;
+
+        flowLock.lock();
+        try {
+            if (draining || closed) {
+                return;
+            }
+            draining = true;
+            lastStreamId = lastDispatchedStreamId;
+        } finally {
+            flowLock.unlock();
+        }
+
+        logger.debug("Server stopping, sending GOAWAY after stream {}", lastStreamId);
+        try {
+            goAway(lastStreamId, Frame.NO_ERROR);
+        } catch (IOException e) {
+            logger.debug("Failed to send GOAWAY: {}", e.getMessage());
+        }
+        closeIfDrained();
+    }
+
+    private void closeIfDrained() {
+        flowLock.lock();
+        try {
+            if (!draining || drained || !streams.isEmpty()) {
+                return;
+            }
+            drained = true;
+        } finally {
+            flowLock.unlock();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close drained connection: {}", e.getMessage());
+        }
+    }
+
+    private byte[] readContinuations(int streamId, byte[] first) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(first.length * 2);
+        block.writeBytes(first);
+
+        while (true) {
+            Frame frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+            if (frame == null || frame.type() != Frame.CONTINUATION || frame.streamId() != streamId) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Header block interrupted on stream " + streamId);
+            }
+
+            block.writeBytes(frame.payload());
+            if (block.size() > MAX_HEADER_LIST_SIZE) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Header block exceeds " + MAX_HEADER_LIST_SIZE + " bytes");
+            }
+
+            if (frame.hasFlag(Frame.FLAG_END_HEADERS)) {
+                return block.toByteArray();
+            }
+        }
+    }
+
+    /**
+     * Maps the pseudo-headers back onto a request line and a Host header, so the request can be
+     * handled exactly like one received over HTTP/1.1.
+     *
+     * @throws Http2Exception if the request is malformed (RFC 9113, section 8.1.1)
+     */
+    private static ClientRequest toRequest(List<Header> headers) {
+        String method = null;
+        String path = null;
+        String authority = null;
+        boolean hasScheme = false;
+        Map<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        for (Header header : headers) {
+            String name = header.name();
+
+            if (name.startsWith(":")) {
+                if (!fields.isEmpty()) {
+                    throw new Http2Exception(Frame.PROTOCOL_ERROR, "Pseudo-header " + name + " after regular headers");
+                }
+                switch (name) {
+                    case ":method" -> method = header.value();
+                    case ":path" -> path = header.value();
+                    case ":authority" -> authority = header.value();
+                    case ":scheme" -> hasScheme = true;
+                    default -> throw new Http2Exception(Frame.PROTOCOL_ERROR, "Unknown pseudo-header " + name);
+                }
+                continue;
+            }
+
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || CONNECTION_HEADERS.contains(name)) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid header " + name);
+            }
+
+            // Cookies may be split into several fields, other repeated headers are combined into a list
+            fields.merge(name, header.value(), (first, second) -> first + (name.equals("cookie") ? "; " : ", ") + second);
+        }
+
+        if (method == null || path == null || path.isEmpty() || !hasScheme) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Missing required pseudo-headers");
+        }
+        if (authority != null) {
+            fields.putIfAbsent("Host", authority);
+        }
+
+        URI uri;
+        try {
+            uri = URI.create(path);
+        } catch (IllegalArgumentException e) {
+            // Left to validation, which answers 400 as it would over HTTP/1.1
+            uri = null;
+        }
+
+        return new ClientRequest(method, uri == null || uri.getPath() == null ? path : uri.getPath(), "HTTP/2", fields, uri);
+    }
+
+    private void dispatch(Stream stream, ClientRequest request) {
+        executor.submit(() -> {
+            MDC.put("requestId", RequestIds.next());
+            try {
+                respond(stream, request);
+            } finally {
+                MDC.remove("requestId");
+            }
+        });
+    }
+
+    private void respond(Stream stream, ClientRequest request) {
+        PreparedResponse response = null;
+
+        try {
+            if (request.uri() == null) {
+                throw new InvalidRequestException("Invalid path: " + request.path());
+            }
+            response = handler.respond(request);
+        } catch (RequestParsingException | InvalidRequestException e) {
+            logger.warn("Error processing request: {}", e.getMessage());
+            response = RequestHandler.BAD_REQUEST;
+        } catch (IOException e) {
+            logger.error("I/O error handling request: {}", e.getMessage(), e);
+            response = RequestHandler.INTERNAL_SERVER_ERROR;
+        } catch (RuntimeException e) {
+            logger.error("Uncaught exception in request handler: {}", e.getMessage(), e);
+            response = RequestHandler.INTERNAL_SERVER_ERROR;
+        }
+
+        try {
+            ResponseWriteEvent writeEvent = new ResponseWriteEvent();
+            writeEvent.begin();
+            send(stream, response);
+            if (writeEvent.shouldCommit()) {
+                writeEvent.responses = 1;
+                writeEvent.bodyBytes = response.contentLength();
+                writeEvent.commit();
+            }
+            handler.recordResponse(request, response);
+
+            if (!stream.remoteClosed) {
+                // The response is complete, so whatever the client still wanted to send is not needed
+                resetStream(stream.id, Frame.NO_ERROR);
+            }
+        } catch (IOException e) {
+            logger.debug("Response on stream {} not sent: {}", stream.id, e.getMessage());
+        } finally {
+            response.release();
+            streams.remove(stream.id);
+            closeIfDrained();
+        }
+    }
+
+    private void send(Stream stream, PreparedResponse response) throws IOException {
+        if (response.getEarlyHints() != null) {
+            HpackEncoder hints = new HpackEncoder().add(":status", "103");
+            for (String link : response.getEarlyHints().getLinks()) {
+                hints.add("link", link);
+            }
+            writeHeaders(stream, hints.toByteArray(), false);
+        }
+
+        long length = response.contentLength();
+        writeHeaders(stream, encodeHeaders(response), length == 0);
+
+        if (length == 0) {
+            return;
+        }
+
+        long remaining = length;
+        if (response.getBodyFile() != null) {
+            try (FileChannel file = FileChannel.open(response.getBodyFile(), StandardOpenOption.READ)) {
+                ByteBuffer chunk = ByteBuffer.allocate(Frame.DEFAULT_MAX_FRAME_SIZE);
+                long position = response.getBodyFilePosition();
+
+                while (remaining > 0) {
+                    int size = reserve(stream, Math.min(remaining, chunk.capacity()));
+                    chunk.clear().limit(size);
+                    while (chunk.hasRemaining()) {
+                        int read = file.read(chunk, position + chunk.position());
+                        if (read < 0) {
+                            throw new IOException("File ended before its length when streaming it");
+                        }
+                    }
+                    position += size;
+                    remaining -= size;
+
+                    writeFrame(Frame.DATA, remaining == 0 ? Frame.FLAG_END_STREAM : 0, stream.id, chunk.flip());
+                }
+            }
+            return;
+        }
+
+        for (ByteBuffer buffer : response.bodyBuffers()) {
+            while (buffer.hasRemaining()) {
+                int size = reserve(stream, buffer.remaining());
+                ByteBuffer slice = buffer.slice(buffer.position(), size);
+                buffer.position(buffer.position() + size);
+                remaining -= size;
+
+                writeFrame(Frame.DATA, remaining == 0 ? Frame.FLAG_END_STREAM : 0, stream.id, slice);
+            }
+        }
+    }
+
+    private static byte[] encodeHeaders(PreparedResponse response) {
+        HpackEncoder encoder = new HpackEncoder()
+                .add(":status", String.valueOf(response.getStatusCode()))
+                .add("date", HttpDate.format(System.currentTimeMillis() / 1000));
+
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                encoder.add(name, header.getValue());
+            }
+        }
+
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Takes up to {@code wanted} bytes from the stream's and the connection's send windows,
+     * waiting for the client to open them if either is used up.
+     *
+     * @return the number of bytes that may be sent in the next DATA frame, at least one
+     */
+    private int reserve(Stream stream, long wanted) throws IOException {
+        flowLock.lock();
+        try {
+            long deadline = System.nanoTime() + flowControlTimeoutNanos;
+
+            while (true) {
+                if (closed || stream.reset) {
+                    throw new IOException(closed ? "Connection closed" : "Stream reset by the client");
+                }
+
+                int size = (int) Math.min(Math.min(wanted, maxFrameSize), Math.min(stream.window, connectionWindow));
+                if (size > 0) {
+                    stream.window -= size;
+                    connectionWindow -= size;
+                    return size;
+                }
+
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new IOException("Flow control window stayed closed");
+                }
+                windowOpened.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the flow control window", e);
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private int windowSize() {
+        flowLock.lock();
+        try {
+            return initialWindowSize;
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void handleData(Frame frame) throws IOException {
+        if (frame.streamId() == 0) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+
+        Stream stream = streams.get(frame.streamId());
+        if (stream != null && frame.hasFlag(Frame.FLAG_END_STREAM)) {
+            stream.remoteClosed = true;
+        }
+
+        // Request bodies are discarded, but still count against the connection's receive window
+        if (frame.payload().length > 0) {
+            writeWindowUpdate(0, frame.payload().length);
+        }
+    }
+
+    private void handleSettings(Frame frame) throws IOException {
+        requireConnectionFrame(frame);
+
+        if (frame.hasFlag(Frame.FLAG_ACK)) {
+            requireLength(frame, 0);
+            return;
+        }
+
+        applySettings(frame.payload());
+        writeFrame(Frame.SETTINGS, Frame.FLAG_ACK, 0, ByteBuffer.allocate(0));
+    }
+
+    private void applySettings(byte[] payload) {
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "SETTINGS length not a multiple of 6");
+        }
+
+        ByteBuffer settings = ByteBuffer.wrap(payload);
+        flowLock.lock();
+        try {
+            while (settings.hasRemaining()) {
+                int identifier = settings.getShort() & 0xffff;
+                int value = settings.getInt();
+
+                switch (identifier) {
+                    case Frame.SETTINGS_INITIAL_WINDOW_SIZE -> {
+                        if (value < 0) {
+                            throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Initial window size too large");
+                        }
+                        // Applies to the windows of open streams as well, which may go negative
+                        int delta = value - initialWindowSize;
+                        for (Stream stream : streams.values()) {
+                            long window = (long) stream.window + delta;
+                            if (window > Frame.MAX_WINDOW_SIZE) {
+                                throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Window of stream " + stream.id + " too large");
+                            }
+                            stream.window = (int) window;
+                        }
+                        initialWindowSize = value;
+                    }
+                    case Frame.SETTINGS_MAX_FRAME_SIZE -> {
+                        if (value < Frame.DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid max frame size " + value);
+                        }
+                        maxFrameSize = value;
+                    }
+                    case Frame.SETTINGS_ENABLE_PUSH -> {
+                        if (value != 0 && value != 1) {
+                            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Invalid enable push value " + value);
+                        }
+                    }
+                    default -> {
+                        // Nothing is pushed and the encoder doesn't use the dynamic table, the rest doesn't matter here
+                    }
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void handlePing(Frame frame) throws IOException {
+        requireConnectionFrame(frame);
+        requireLength(frame, 8);
+
+        if (!frame.hasFlag(Frame.FLAG_ACK)) {
+            writeFrame(Frame.PING, Frame.FLAG_ACK, 0, ByteBuffer.wrap(frame.payload()));
+        }
+    }
+
+    private void handleWindowUpdate(Frame frame) throws IOException {
+        requireLength(frame, 4);
+        int increment = ByteBuffer.wrap(frame.payload()).getInt() & Integer.MAX_VALUE;
+
+        if (increment == 0) {
+            if (frame.streamId() == 0) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Window update of 0");
+            }
+            resetStream(frame.streamId(), Frame.PROTOCOL_ERROR);
+            return;
+        }
+
+        flowLock.lock();
+        try {
+            if (frame.streamId() == 0) {
+                if ((long) connectionWindow + increment > Frame.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(Frame.FLOW_CONTROL_ERROR, "Connection window too large");
+                }
+                connectionWindow += increment;
+            } else {
+                // Updates for streams that are already done are ignored
+                Stream stream = streams.get(frame.streamId());
+                if (stream != null) {
+                    if ((long) stream.window + increment > Frame.MAX_WINDOW_SIZE) {
+                        stream.reset = true;
+                    } else {
+                        stream.window += increment;
+                    }
+                }
+            }
+            windowOpened.signalAll();
+        } finally {
+            flowLock.unlock();
+        }
+    }
+
+    private void handleReset(Frame frame) {
+        if (frame.streamId() == 0) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        }
+        requireLength(frame, 4);
+
+        Stream stream = streams.get(frame.streamId());
+        if (stream != null) {
+            flowLock.lock();
+            try {
+                stream.reset = true;
+                windowOpened.signalAll();
+            } finally {
+                flowLock.unlock();
+            }
+        }
+    }
+
+    private static void requireConnectionFrame(Frame frame) {
+        if (frame.streamId() != 0) {
+            throw new Http2Exception(Frame.PROTOCOL_ERROR, "Frame type " + frame.type() + " on stream " + frame.streamId());
+        }
+    }
+
+    private static void requireLength(Frame frame, int length) {
+        if (frame.payload().length != length) {
+            throw new Http2Exception(Frame.FRAME_SIZE_ERROR, "Frame type " + frame.type() + " of " + frame.payload().length + " bytes");
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        ByteBuffer settings = ByteBuffer.allocate(12)
+                .putShort((short) Frame.SETTINGS_MAX_CONCURRENT_STREAMS)
+                .putInt(MAX_CONCURRENT_STREAMS)
+                .putShort((short) Frame.SETTINGS_MAX_HEADER_LIST_SIZE)
+                .putInt(MAX_HEADER_LIST_SIZE)
+                .flip();
+
+        writeFrame(Frame.SETTINGS, 0, 0, settings);
+    }
+
+    /**
+     * Writes the header block as a HEADERS frame, followed by CONTINUATION frames if it doesn't fit
+     * in one, all in one go since no other frame may come in between.
+     */
+    private void writeHeaders(Stream stream, byte[] block, boolean endStream) throws IOException {
+        int frameSize;
+        flowLock.lock();
+        try {
+            frameSize = maxFrameSize;
+        } finally {
+            flowLock.unlock();
+        }
+
+        List<ByteBuffer> frames = new ArrayList<>();
+        int offset = 0;
+        do {
+            int length = Math.min(frameSize, block.length - offset);
+            boolean first = offset == 0;
+            boolean last = offset + length == block.length;
+
+            int flags = (last ? Frame.FLAG_END_HEADERS : 0) | (first && endStream ? Frame.FLAG_END_STREAM : 0);
+            frames.add(Frame.header(length, first ? Frame.HEADERS : Frame.CONTINUATION, flags, stream.id));
+            frames.add(ByteBuffer.wrap(block, offset, length));
+            offset += length;
+        } while (offset < block.length);
+
+        if (stream.reset) {
+            throw new IOException("Stream reset by the client");
+        }
+        writeFully(frames.toArray(ByteBuffer[]::new));
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        writeFrame(Frame.WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(0, increment));
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        writeFrame(Frame.RST_STREAM, 0, streamId, ByteBuffer.allocate(4).putInt(0, errorCode));
+    }
+
+    private void goAway(int errorCode) throws IOException {
+        goAway(lastStreamId, errorCode);
+    }
+
+    private void goAway(int lastStreamId, int errorCode) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(8)
+                .putInt(lastStreamId)
+                .putInt(errorCode)
+                .flip();
+
+        writeFrame(Frame.GOAWAY, 0, 0, payload);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        writeFully(Frame.header(payload.remaining(), type, flags, streamId), payload);
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        writeLock.lock();
+        try {
+            ResponseWriter.writeFully(out, buffers);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.usrv.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Formats and parses HTTP dates. The Date header line only changes once a second, so it is
+ * formatted at most once a second and shared by every response sent in that second.
+ */
+final class HttpDate {
+    private static final DateTimeFormatter formatter = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+
+    private record DateLine(long epochSecond, ByteBuffer bytes) {
+    }
+
+    private static volatile DateLine current = new DateLine(Long.MIN_VALUE, ByteBuffer.allocate(0));
+
+    private HttpDate() {
+    }
+
+    static String format(long epochSecond) {
+        return formatter.format(Instant.ofEpochSecond(epochSecond));
+    }
+
+    /**
+     * @return seconds since the epoch, or -1 if the value isn't a valid HTTP date
+     */
+    static long parse(String value) {
+        try {
+            return Instant.from(formatter.parse(value.trim())).getEpochSecond();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return a fresh view of "Date: ...\r\n" for the current second
+     */
+    static ByteBuffer currentDateLine() {
+        long epochSecond = System.currentTimeMillis() / 1000;
+        DateLine line = current;
+
+        if (line.epochSecond() != epochSecond) {
+            // Threads racing here format the same value, whichever write wins is correct
+            String text = "Date: " + format(epochSecond) + "\r\n";
+            line = new DateLine(epochSecond, ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer());
+            current = line;
+        }
+
+        return line.bytes().duplicate();
+    }
+}
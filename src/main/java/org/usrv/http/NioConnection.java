@@ -0,0 +1,365 @@
+package org.usrv.http;
+
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.exceptions.InvalidRequestException;
+import org.usrv.exceptions.RequestParsingException;
+import org.usrv.jfr.ConnectionEvent;
+import org.usrv.jfr.ResponseWriteEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * State of one connection served by an {@link EventLoop}: the request parser and the
+ * queue of encoded responses that have not been fully written yet.
+ */
+final class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+
+    private final SocketChannel channel;
+    // Null for plaintext connections
+    private final TlsChannel tls;
+    // Where requests are read from and responses written to, the TLS channel or the socket
+    private final ReadableByteChannel in;
+    private final GatheringByteChannel out;
+    private final SelectionKey key;
+    private final EventLoop eventLoop;
+    private final RequestHandler requestHandler;
+    private final Executor workers;
+    private final ConnectionLimiter.Lease lease;
+    private final RequestParser parser = new RequestParser();
+    // Pending writes in order, each either a ByteBuffer or a FileRegion, or a PreparedResponse
+    // to release once the buffers before it are written, when they are views of a mapped file
+    private final ArrayDeque<Object> output = new ArrayDeque<>();
+    private final ConnectionEvent connectionEvent = new ConnectionEvent();
+    // Spans the flushes from the first attempt to write queued responses until all of them are taken
+    private ResponseWriteEvent writeEvent;
+    private int unwrittenResponses;
+    private long unwrittenBodyBytes;
+
+    private boolean closeAfterWrite;
+    // Set while a worker reads the file for a request, the requests behind it wait so responses stay in order
+    private boolean awaitingResponse;
+    private boolean closed;
+    // Set once a response was sent, from then on waiting for a request is keep-alive idling
+    private boolean keptAlive;
+
+    @Getter
+    private long lastActivity = System.currentTimeMillis();
+
+    NioConnection(
+            SocketChannel channel,
+            SelectionKey key,
+            EventLoop eventLoop,
+            RequestHandler requestHandler,
+            Executor workers,
+            ConnectionLimiter.Lease lease
+    ) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.requestHandler = requestHandler;
+        this.workers = workers;
+        this.lease = lease;
+        connectionEvent.begin();
+
+        TlsContext tlsContext = requestHandler.getTlsContext();
+        // HTTP/2 needs a thread per stream, which only the blocking engine has, so it's not offered here
+        this.tls = tlsContext != null ? new TlsChannel(channel, channel, tlsContext.createEngine(false)) : null;
+        this.in = tls != null ? tls : channel;
+        this.out = tls != null ? tls : channel;
+    }
+
+    void onReadable() throws IOException {
+        do {
+            int read = parser.read(in);
+            if (read < 0) {
+                if (RequestHandler.DEBUG) {
+                    logger.debug("Client closed the connection");
+                }
+                close();
+                return;
+            }
+            if (read == 0) {
+                // Only handshake messages, or part of a record
+                break;
+            }
+            if (!lease.busy()) {
+                // Shed while idle, the event loop closes it once it gets to it
+                return;
+            }
+
+            lastActivity = System.currentTimeMillis();
+
+            processBufferedRequests();
+            // The selector can't tell about records that were read but not decrypted or not taken yet
+        } while (tls != null && tls.hasBufferedInput() && !closeAfterWrite && !awaitingResponse);
+
+        flush();
+    }
+
+    void onWritable() throws IOException {
+        lastActivity = System.currentTimeMillis();
+        if (tls != null) {
+            // Handshake messages may have been held back by a full socket
+            tls.handshake();
+        }
+        flush();
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+
+        connectionEvent.end();
+        if (connectionEvent.shouldCommit()) {
+            connectionEvent.client = String.valueOf(channel.socket().getInetAddress());
+            connectionEvent.tls = tls != null;
+            connectionEvent.commit();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection: {}", e.getMessage());
+        }
+
+        for (Object pending : output) {
+            if (pending instanceof FileRegion region) {
+                closeRegion(region);
+            } else if (pending instanceof PreparedResponse response) {
+                response.release();
+            }
+        }
+        output.clear();
+        lease.release();
+    }
+
+    private void processBufferedRequests() {
+        while (!closeAfterWrite && !awaitingResponse) {
+            ClientRequest request = null;
+            PreparedResponse response;
+            boolean keepAlive;
+
+            try {
+                request = parser.parseNext();
+                if (request == null) {
+                    return;
+                }
+
+                keepAlive = request.isKeepAlive() && !lease.isDraining();
+                RequestHandler.Lookup lookup = requestHandler.lookup(request);
+                if (lookup.readsFile() && respondOffLoop(lookup, keepAlive)) {
+                    return;
+                }
+                response = requestHandler.respond(lookup);
+            } catch (RequestParsingException | InvalidRequestException e) {
+                logger.warn("Error processing request: {}", e.getMessage());
+                response = RequestHandler.BAD_REQUEST;
+                keepAlive = false;
+            } catch (IOException e) {
+                logger.error("I/O error handling request: {}", e.getMessage(), e);
+                response = RequestHandler.INTERNAL_SERVER_ERROR;
+                keepAlive = false;
+            }
+
+            deliver(request, response, keepAlive);
+        }
+    }
+
+    /**
+     * Answers a cache miss on a worker thread, and hands the response back to the event loop.
+     *
+     * @return false if the workers no longer take requests, because the server is stopping
+     */
+    private boolean respondOffLoop(RequestHandler.Lookup lookup, boolean keepAlive) {
+        try {
+            workers.execute(() -> {
+                try {
+                    PreparedResponse response = requestHandler.respond(lookup);
+                    eventLoop.execute(() -> onResponse(lookup.request(), response, keepAlive));
+                } catch (Exception e) {
+                    logger.error("Error handling request: {}", e.getMessage(), e);
+                    eventLoop.execute(() -> onResponse(lookup.request(), RequestHandler.INTERNAL_SERVER_ERROR, false));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+
+        awaitingResponse = true;
+        return true;
+    }
+
+    private void onResponse(ClientRequest request, PreparedResponse response, boolean keepAlive) {
+        if (closed) {
+            response.release();
+            return;
+        }
+
+        awaitingResponse = false;
+        lastActivity = System.currentTimeMillis();
+
+        try {
+            deliver(request, response, keepAlive);
+            // Requests that were pipelined behind it
+            processBufferedRequests();
+            flush();
+        } catch (IOException e) {
+            logger.debug("I/O error on connection, closing it: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Queues the response to be written, and closes the connection after it unless it is kept alive.
+     *
+     * @param request null if the request couldn't be parsed
+     */
+    private void deliver(ClientRequest request, PreparedResponse response, boolean keepAlive) {
+        FileRegion region = null;
+        if (response.getBodyFile() != null) {
+            try {
+                region = FileRegion.open(response.getBodyFile(), response.getBodyFilePosition(), response.getBodyFileLength());
+            } catch (IOException e) {
+                logger.warn("Failed to open file for streaming: {}", e.getMessage());
+                response = RequestHandler.NOT_FOUND;
+                keepAlive = false;
+            }
+        }
+
+        enqueue(response, region, keepAlive);
+        keptAlive = true;
+        requestHandler.recordResponse(request, response);
+
+        closeAfterWrite = !keepAlive;
+    }
+
+    private void enqueue(PreparedResponse response, FileRegion region, boolean keepAlive) {
+        if (response.getEarlyHints() != null) {
+            output.add(response.getEarlyHints().toBuffer());
+        }
+        Collections.addAll(output, response.toBuffers(keepAlive));
+        if (region != null) {
+            output.add(region);
+        }
+        if (response.getOffHeapBuffer() != null) {
+            output.add(response);
+        }
+
+        unwrittenResponses++;
+        unwrittenBodyBytes += response.contentLength();
+    }
+
+    private void flush() throws IOException {
+        if (writeEvent == null && !output.isEmpty()) {
+            writeEvent = new ResponseWriteEvent();
+            writeEvent.begin();
+        }
+
+        while (!output.isEmpty()) {
+            if (output.peekFirst() instanceof FileRegion region) {
+                region.transferTo(out);
+                if (!region.isComplete()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                output.removeFirst();
+                closeRegion(region);
+                continue;
+            }
+            if (output.peekFirst() instanceof PreparedResponse response) {
+                output.removeFirst();
+                response.release();
+                continue;
+            }
+
+            out.write(leadingBuffers());
+
+            while (output.peekFirst() instanceof ByteBuffer buffer && !buffer.hasRemaining()) {
+                output.removeFirst();
+            }
+
+            if (output.peekFirst() instanceof ByteBuffer) {
+                // Socket send buffer is full, stop reading until the client catches up
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        if (tls != null && !tls.flush()) {
+            // Encrypted, but not taken by the socket yet
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        commitWrite();
+
+        if (closeAfterWrite) {
+            if (RequestHandler.DEBUG) {
+                logger.debug("Closing connection");
+            }
+            close();
+        } else {
+            // Nothing more is read until a worker's response is in, so pipelined requests can't pile up
+            key.interestOps(awaitingResponse ? 0 : SelectionKey.OP_READ);
+            if (keptAlive && !awaitingResponse && !parser.hasBufferedData()) {
+                lease.idle();
+            }
+        }
+    }
+
+    private void commitWrite() {
+        ResponseWriteEvent event = writeEvent;
+        if (event != null && event.shouldCommit()) {
+            event.responses = unwrittenResponses;
+            event.bodyBytes = unwrittenBodyBytes;
+            event.commit();
+        }
+
+        writeEvent = null;
+        unwrittenResponses = 0;
+        unwrittenBodyBytes = 0;
+    }
+
+    private ByteBuffer[] leadingBuffers() {
+        int count = 0;
+        for (Object pending : output) {
+            if (!(pending instanceof ByteBuffer)) {
+                break;
+            }
+            count++;
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        int i = 0;
+        for (Object pending : output) {
+            if (i == count) {
+                break;
+            }
+            buffers[i++] = (ByteBuffer) pending;
+        }
+
+        return buffers;
+    }
+
+    private static void closeRegion(FileRegion region) {
+        try {
+            region.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close file: {}", e.getMessage());
+        }
+    }
+}
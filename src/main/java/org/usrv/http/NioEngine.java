@@ -0,0 +1,136 @@
+package org.usrv.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.usrv.cache.Cache;
+import org.usrv.config.ServerConfig;
+import org.usrv.jfr.AcceptEvent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Non-blocking connection engine. The calling thread accepts connections and hands them
+ * round-robin to a fixed set of {@link EventLoop}s, which do all reading, parsing and writing.
+ * Requests that miss the cache are answered on virtual threads, so reading a file doesn't stall a loop.
+ * Idle keep-alive connections cost a selection key and a parser buffer instead of a thread.
+ */
+public class NioEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioEngine.class);
+
+    private static final int ACCEPT_BACKLOG = 1000;
+    private static final long SHUTDOWN_POLL_MILLIS = 500;
+
+    private final ServerConfig serverConfig;
+    private final BooleanSupplier shouldRun;
+    private final RequestHandler requestHandler;
+    private final ConnectionLimiter connectionLimiter;
+
+    private volatile Selector acceptSelector;
+
+    public NioEngine(ServerConfig serverConfig, Cache<Path, CachedFile> cache, BooleanSupplier shouldRun) {
+        this(serverConfig, cache, TlsContext.forConfig(serverConfig), new ConnectionLimiter(serverConfig.connections()), new ServerMetrics(), null, shouldRun);
+    }
+
+    NioEngine(
+            ServerConfig serverConfig,
+            Cache<Path, CachedFile> cache,
+            TlsContext tlsContext,
+            ConnectionLimiter connectionLimiter,
+            ServerMetrics metrics,
+            AccessLog accessLog,
+            BooleanSupplier shouldRun
+    ) {
+        this.serverConfig = serverConfig;
+        this.shouldRun = shouldRun;
+        this.requestHandler = new RequestHandler(serverConfig, cache, tlsContext, metrics, accessLog);
+        this.connectionLimiter = connectionLimiter;
+    }
+
+    public void run() throws IOException {
+        EventLoop[] eventLoops = new EventLoop[serverConfig.effectiveEventLoopThreads()];
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+        try (
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                Selector selector = Selector.open()
+        ) {
+            acceptSelector = selector;
+            serverChannel.bind(new InetSocketAddress(serverConfig.port()), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(i, requestHandler, workers);
+                eventLoops[i].start();
+            }
+
+            System.out.printf("Server started at port: %s%n", serverConfig.port());
+            logger.debug("Running NIO engine with {} event loops", eventLoops.length);
+
+            int next = 0;
+            while (shouldRun.getAsBoolean()) {
+                selector.select(SHUTDOWN_POLL_MILLIS);
+                selector.selectedKeys().clear();
+                if (!shouldRun.getAsBoolean()) {
+                    break;
+                }
+
+                SocketChannel client;
+                while ((client = serverChannel.accept()) != null) {
+                    AcceptEvent acceptEvent = new AcceptEvent();
+                    acceptEvent.begin();
+
+                    EventLoop eventLoop = eventLoops[next];
+                    SocketChannel accepted = client;
+                    ConnectionLimiter.Lease lease = connectionLimiter.admit(client.socket().getInetAddress(), () -> eventLoop.shed(accepted));
+                    if (lease == null) {
+                        logger.debug("Connection limit reached, turning away {}", client.socket().getInetAddress());
+                        ConnectionLimiter.turnAway(client, requestHandler.getTlsContext() != null);
+                        Server.commitAccept(acceptEvent, client.socket(), false);
+                        continue;
+                    }
+
+                    try {
+                        client.configureBlocking(false);
+                        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                        eventLoop.register(client, lease);
+                        next = (next + 1) % eventLoops.length;
+                        Server.commitAccept(acceptEvent, client.socket(), true);
+                    } catch (IOException e) {
+                        logger.warn("Failed to set up accepted connection: {}", e.getMessage());
+                        lease.release();
+                        client.close();
+                    }
+                }
+            }
+        } finally {
+            acceptSelector = null;
+            // The listening socket is closed by now, the event loops keep serving until the connections are drained
+            connectionLimiter.drain(serverConfig.connections().drainTimeoutMillis());
+            // Before the loops stop, so the responses still being read are handed back and released
+            workers.close();
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.shutdown();
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        Selector selector = acceptSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+}
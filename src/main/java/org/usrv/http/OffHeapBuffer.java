@@ -0,0 +1,174 @@
+package org.usrv.http;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Response bytes held outside the Java heap, so the garbage collector neither copies nor scans
+ * them: either a file and its precompressed siblings mapped into memory, whose bytes live in the
+ * page cache, or a direct buffer with a copy of a cached file's bodies. Direct buffers are also
+ * written to sockets as they are, while heap buffers are first copied into a temporary direct
+ * buffer by the JDK.
+ * <p>
+ * The JDK only frees either once the buffer object is garbage collected, which for a long-lived
+ * cache means holding on to evicted bytes indefinitely. They are reference counted instead: the
+ * cache holds one reference and every response being sent from the buffer holds another, and the
+ * memory is freed as soon as the last one is released. Touching the buffer after that would crash
+ * the JVM, so nothing may use it without holding a reference.
+ * <p>
+ * Deploys must replace mapped files (write and rename) rather than truncate them in place, since
+ * reading a mapped page past the new end of a file is fatal as well.
+ */
+final class OffHeapBuffer {
+    // Unsafe.invokeCleaner, looked up reflectively so the build doesn't depend on the internal class.
+    // On Java 22 and later this class can give way to memory segments of a shared Arena.
+    private static final MethodHandle invokeCleaner = findInvokeCleaner();
+
+    // The buffers returned by map or allocateDirect, the only kind the cleaner accepts
+    private final ByteBuffer[] memory;
+    private final ByteBuffer[] views;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private OffHeapBuffer(ByteBuffer... memory) {
+        this.memory = memory;
+        this.views = new ByteBuffer[memory.length];
+        for (int i = 0; i < memory.length; i++) {
+            views[i] = memory[i].asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Maps each file whole, as one buffer freed together, with a view of each by its index.
+     *
+     * @return the mappings with one reference, owned by the caller
+     */
+    static OffHeapBuffer map(Path... paths) throws IOException {
+        ByteBuffer[] mappings = new ByteBuffer[paths.length];
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                mappings[i] = mapFile(paths[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (ByteBuffer mapping : mappings) {
+                if (mapping != null) {
+                    invokeCleaner(mapping);
+                }
+            }
+            throw e;
+        }
+
+        return new OffHeapBuffer(mappings);
+    }
+
+    private static ByteBuffer mapFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Copies the parts into one direct buffer, one after the other, so a file and its variants
+     * are allocated and freed together. Null parts are skipped.
+     *
+     * @return a buffer with one reference, owned by the caller
+     */
+    static OffHeapBuffer copyOf(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part == null ? 0 : part.length;
+        }
+
+        ByteBuffer memory = ByteBuffer.allocateDirect(length);
+        for (byte[] part : parts) {
+            if (part != null) {
+                memory.put(part);
+            }
+        }
+
+        return new OffHeapBuffer(memory.clear());
+    }
+
+    /**
+     * @return a read-only view of the whole buffer, only valid while a reference is held
+     */
+    ByteBuffer buffer() {
+        return views[0];
+    }
+
+    /**
+     * @return a read-only view of one of several mapped files, in the order they were mapped
+     */
+    ByteBuffer buffer(int index) {
+        return views[index];
+    }
+
+    /**
+     * @return a read-only view of part of the buffer, only valid while a reference is held
+     */
+    ByteBuffer slice(int offset, int length) {
+        return views[0].slice(offset, length);
+    }
+
+    /**
+     * @return false if the memory was already freed, in which case no reference was taken
+     */
+    boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            for (ByteBuffer buffer : memory) {
+                invokeCleaner(buffer);
+            }
+        } else if (count < 0) {
+            throw new IllegalStateException("Buffer released more often than it was retained");
+        }
+    }
+
+    boolean isAllocated() {
+        return references.get() > 0;
+    }
+
+    private static void invokeCleaner(ByteBuffer buffer) {
+        try {
+            invokeCleaner.invokeExact(buffer);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
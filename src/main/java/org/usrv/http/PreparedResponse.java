@@ -0,0 +1,291 @@
+package org.usrv.http;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable response whose status line, headers and body are encoded once, up front.
+ * Cached instances are shared by every connection that requests the same file, so nothing
+ * here is ever modified: the lines that differ per send (Date and Connection) are added as
+ * separate buffers by {@link #toBuffers(boolean)}.
+ */
+public final class PreparedResponse {
+    private static final ByteBuffer[] NO_BODY = new ByteBuffer[0];
+    private static final ByteBuffer KEEP_ALIVE = encode("Connection: keep-alive\r\n\r\n");
+    private static final ByteBuffer CLOSE = encode("Connection: close\r\n\r\n");
+    // Headers a 304 repeats from the response it stands in for
+    private static final List<String> NOT_MODIFIED_HEADERS = List.of("Server", "ETag", "Last-Modified", "Vary");
+
+    @Getter
+    private final int statusCode;
+    // The headers encoded in head, kept to derive other responses such as partial ones from this one
+    @Getter
+    private final Map<String, String> headers;
+    // Status line and headers, without Date, Connection and the blank line that ends the head
+    private final ByteBuffer head;
+    // Read-only, usually a single buffer, or the parts of a multipart body
+    private final ByteBuffer[] body;
+
+    // Bodies too large to hold in memory are streamed from a slice of this file after the head instead
+    @Getter
+    private final Path bodyFile;
+    @Getter
+    private final long bodyFilePosition;
+    @Getter
+    private final long bodyFileLength;
+
+    // Validators for conditional requests, null and -1 if the response has none
+    @Getter
+    private final String etag;
+    @Getter
+    private final long lastModified;
+    // Sent instead of this response when the client's copy is still current
+    @Getter
+    private final PreparedResponse notModified;
+    // Set when the body is a view of off-heap memory, which must not be freed until the body is sent
+    @Getter
+    private final OffHeapBuffer offHeapBuffer;
+    // Sent ahead of this response if the client speaks HTTP/1.1 or later, null for most responses
+    @Getter
+    private final EarlyHints earlyHints;
+
+    private PreparedResponse(
+            int statusCode,
+            Map<String, String> headers,
+            ByteBuffer head,
+            ByteBuffer[] body,
+            Path bodyFile,
+            long bodyFilePosition,
+            long bodyFileLength,
+            String etag,
+            long lastModified,
+            PreparedResponse notModified,
+            OffHeapBuffer offHeapBuffer,
+            EarlyHints earlyHints
+    ) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.head = head;
+        this.body = body;
+        this.bodyFile = bodyFile;
+        this.bodyFilePosition = bodyFilePosition;
+        this.bodyFileLength = bodyFileLength;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.notModified = notModified;
+        this.offHeapBuffer = offHeapBuffer;
+        this.earlyHints = earlyHints;
+    }
+
+    public static PreparedResponse of(Response response) {
+        return of(response, null, -1, null);
+    }
+
+    /**
+     * Like {@link #of(Response)}, but adds the ETag and Last-Modified headers and prepares the 304
+     * that answers a conditional request, so revalidations are as cheap as cache hits.
+     *
+     * @param lastModified seconds since the epoch
+     */
+    public static PreparedResponse withValidators(Response response, String etag, long lastModified) {
+        return withValidators(response, null, null, etag, lastModified);
+    }
+
+    /**
+     * Like {@link #withValidators(Response, String, long)}, with the body given as a buffer instead
+     * of the response's, which has to be a view of {@code offHeapBuffer} if that is set.
+     */
+    static PreparedResponse withValidators(
+            Response response,
+            ByteBuffer body,
+            OffHeapBuffer offHeapBuffer,
+            String etag,
+            long lastModified
+    ) {
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", HttpDate.format(lastModified));
+
+        Response notModified = new Response(304);
+        for (String name : NOT_MODIFIED_HEADERS) {
+            String value = response.getHeaders().get(name);
+            if (value != null) {
+                notModified.setHeader(name, value);
+            }
+        }
+
+        PreparedResponse notModifiedResponse = of(notModified, etag, lastModified, null);
+
+        if (body != null) {
+            return of(response, new ByteBuffer[]{body}, null, 0, 0, etag, lastModified, notModifiedResponse, offHeapBuffer);
+        }
+        return of(response, etag, lastModified, notModifiedResponse);
+    }
+
+    private static PreparedResponse of(Response response, String etag, long lastModified, PreparedResponse notModified) {
+        byte[] body = response.getBody();
+
+        return of(
+                response,
+                body == null || body.length == 0 ? NO_BODY : new ByteBuffer[]{ByteBuffer.wrap(body).asReadOnlyBuffer()},
+                response.getBodyFile(),
+                0,
+                response.getBodyFileLength(),
+                etag,
+                lastModified,
+                notModified,
+                null
+        );
+    }
+
+    /**
+     * Builds a response whose body is made of existing buffers, or of a slice of a file.
+     *
+     * @param offHeapBuffer the off-heap memory the buffers are views of, if any
+     */
+    static PreparedResponse of(
+            Response response,
+            ByteBuffer[] body,
+            Path bodyFile,
+            long bodyFilePosition,
+            long bodyFileLength,
+            OffHeapBuffer offHeapBuffer
+    ) {
+        return of(response, body, bodyFile, bodyFilePosition, bodyFileLength, null, -1, null, offHeapBuffer);
+    }
+
+    private static PreparedResponse of(
+            Response response,
+            ByteBuffer[] body,
+            Path bodyFile,
+            long bodyFilePosition,
+            long bodyFileLength,
+            String etag,
+            long lastModified,
+            PreparedResponse notModified,
+            OffHeapBuffer offHeapBuffer
+    ) {
+        Map<String, String> headers = new HashMap<>(response.getHeaders());
+        headers.remove("Date");
+        headers.remove("Connection");
+
+        StringBuilder head = new StringBuilder(128)
+                .append(response.getStatusLine())
+                .append("\r\n");
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+
+        return new PreparedResponse(
+                response.getStatusCode(),
+                Map.copyOf(headers),
+                encode(head.toString()),
+                body,
+                bodyFile,
+                bodyFilePosition,
+                bodyFileLength,
+                etag,
+                lastModified,
+                notModified,
+                offHeapBuffer,
+                null
+        );
+    }
+
+    /**
+     * @return the same response with its headers, Content-Length included, but no body, as sent for HEAD requests
+     */
+    public PreparedResponse withoutBody() {
+        return new PreparedResponse(statusCode, headers, head, NO_BODY, null, 0, 0, etag, lastModified, notModified, null, null);
+    }
+
+    /**
+     * @return the same response, announced by the hints before it is sent
+     */
+    PreparedResponse withEarlyHints(EarlyHints earlyHints) {
+        return new PreparedResponse(
+                statusCode, headers, head, body, bodyFile, bodyFilePosition, bodyFileLength,
+                etag, lastModified, notModified, offHeapBuffer, earlyHints
+        );
+    }
+
+    /**
+     * Releases the off-heap memory the body is a view of, once the response has been sent or abandoned.
+     */
+    public void release() {
+        if (offHeapBuffer != null) {
+            offHeapBuffer.release();
+        }
+    }
+
+    /**
+     * @return the buffers to send, in order, meant for a single gathering write. They are fresh
+     * views of the shared encoded bytes, so writing them doesn't disturb other connections.
+     */
+    public ByteBuffer[] toBuffers(boolean keepAlive) {
+        ByteBuffer[] buffers = new ByteBuffer[3 + body.length];
+        buffers[0] = head.duplicate();
+        buffers[1] = HttpDate.currentDateLine();
+        buffers[2] = (keepAlive ? KEEP_ALIVE : CLOSE).duplicate();
+
+        for (int i = 0; i < body.length; i++) {
+            buffers[3 + i] = body[i].duplicate();
+        }
+
+        return buffers;
+    }
+
+    /**
+     * @return fresh views of the in-memory body, empty if there is none or it is streamed from a file
+     */
+    ByteBuffer[] bodyBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[body.length];
+        for (int i = 0; i < body.length; i++) {
+            buffers[i] = body[i].duplicate();
+        }
+        return buffers;
+    }
+
+    /**
+     * @return a read-only view of bytes of the in-memory body, which must be a single buffer
+     */
+    ByteBuffer bodySlice(int offset, int length) {
+        return body[0].slice(offset, length);
+    }
+
+    /**
+     * @return the length of the body, in memory or streamed from disk
+     */
+    long contentLength() {
+        if (bodyFile != null) {
+            return bodyFileLength;
+        }
+
+        long length = 0;
+        for (ByteBuffer part : body) {
+            length += part.remaining();
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of bytes held in memory for this response
+     */
+    public long encodedLength() {
+        long length = head.capacity() + (earlyHints == null ? 0 : earlyHints.encodedLength());
+        for (ByteBuffer part : body) {
+            length += part.capacity();
+        }
+        return length;
+    }
+
+    private static ByteBuffer encode(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+    }
+}
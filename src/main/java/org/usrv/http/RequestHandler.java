@@ -1,43 +1,125 @@
 package org.usrv.http;
 
+import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.usrv.cache.BoundedCache;
+import org.usrv.cache.Cache;
+import org.usrv.config.CacheConfig;
 import org.usrv.config.ServerConfig;
 import org.usrv.exceptions.InvalidRequestException;
 import org.usrv.exceptions.RequestParsingException;
+import org.usrv.file.MimeTypes;
 import org.usrv.file.PathResolver;
 import org.usrv.file.StaticFile;
+import org.usrv.jfr.CacheLookupEvent;
+import org.usrv.jfr.PathResolveEvent;
+import org.usrv.jfr.RequestEvent;
+import org.usrv.jfr.ResponseWriteEvent;
 
+import javax.net.ssl.SSLException;
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RequestHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestHandler.class);
+    // Read once, so the JIT drops the per-request debug logging entirely when it is off
+    static final boolean DEBUG = logger.isDebugEnabled();
 
-    private static final Map<Path, Response> cache = new ConcurrentHashMap<>();
+    // Rough size of a cached response's bookkeeping, on top of its encoded bytes
+    private static final long RESPONSE_OVERHEAD_BYTES = 128;
+
+    // Bounds the responses held back for one write, for clients that pipeline faster than they read
+    private static final int MAX_PIPELINED_RESPONSES = 64;
+
+    static final PreparedResponse BAD_REQUEST = emptyResponse(400);
+    static final PreparedResponse NOT_FOUND = emptyResponse(404);
+    static final PreparedResponse INTERNAL_SERVER_ERROR = emptyResponse(500);
+    static final PreparedResponse SERVICE_UNAVAILABLE = unavailableResponse();
 
     private final ServerConfig serverConfig;
+    private final PathResolver pathResolver;
+    private final MimeTypes mimeTypes;
+    private final Cache<Path, CachedFile> cache;
+    private final boolean servesFromMemoryOnly;
+    // Null when connections are plaintext
+    @Getter
+    private final TlsContext tlsContext;
+    // Shared by all handlers of a server
+    private final ServerMetrics metrics;
+    // Null when there is no access log
+    private final AccessLog accessLog;
 
-    public RequestHandler(ServerConfig serverConfig) {
+    public RequestHandler(ServerConfig serverConfig, Cache<Path, CachedFile> cache) {
+        this(serverConfig, cache, null, new ServerMetrics(), null);
+    }
+
+    RequestHandler(
+            ServerConfig serverConfig,
+            Cache<Path, CachedFile> cache,
+            TlsContext tlsContext,
+            ServerMetrics metrics,
+            AccessLog accessLog
+    ) {
         this.serverConfig = serverConfig;
+        this.tlsContext = tlsContext;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.pathResolver = new PathResolver(serverConfig);
+        this.mimeTypes = new MimeTypes(serverConfig.mimeTypes());
+        this.cache = cache;
+        // Watched files get evicted when they change, and have to be read again on the next request
+        this.servesFromMemoryOnly = serverConfig.cache().warmUp() == CacheConfig.WarmUp.PRELOAD
+                && !serverConfig.cache().watchForChanges();
     }
 
-    public void handleRequest(Socket socket) {
-        String requestId = UUID.randomUUID().toString();
-        MDC.put("requestId", requestId);
+    public static Cache<Path, CachedFile> createCache(ServerConfig serverConfig) {
+        return new BoundedCache<>(serverConfig.cache(), RequestHandler::responseWeight, CachedFile::release);
+    }
+
+    static long responseWeight(CachedFile response) {
+        return response.encodedLength() + RESPONSE_OVERHEAD_BYTES;
+    }
+
+    private static PreparedResponse emptyResponse(int status) {
+        Response response = new Response(status);
+        response.setHeader("Content-Length", "0");
+        return PreparedResponse.of(response);
+    }
+
+    private static PreparedResponse unavailableResponse() {
+        Response response = new Response(503);
+        response.setHeader("Content-Length", "0");
+        // Overload is expected to pass quickly, a client retrying right away would only add to it
+        response.setHeader("Retry-After", "1");
+        return PreparedResponse.of(response);
+    }
+
+    /**
+     * @param lease the connection's slot from the {@link ConnectionLimiter}, released by the caller
+     */
+    public void handleRequest(Socket socket, ConnectionLimiter.Lease lease) {
+        MDC.put("requestId", RequestIds.next());
 
         try {
-            processRequest(socket);
+            processRequest(socket, lease);
         } catch (java.net.SocketTimeoutException e) {
             logger.warn("Socket timeout occurred while processing request: {}", e.getMessage());
+        } catch (SSLException e) {
+            logger.warn("TLS error, closing connection: {}", e.getMessage());
         } catch (IOException e) {
-            logger.error("I/O error handling request: {}", e.getMessage(), e);
+            if (lease.isShed()) {
+                logger.debug("Connection was shed or closed on shutdown: {}", e.getMessage());
+            } else {
+                logger.error("I/O error handling request: {}", e.getMessage(), e);
+            }
         } catch (Exception e) {
             logger.error("Uncaught exception in request handler: {}", e.getMessage(), e);
             logger.error("Exception type: {}", e.getClass().getName());
@@ -46,101 +128,426 @@ public class RequestHandler {
         }
     }
 
-    private void processRequest(Socket socket) throws IOException {
-        Response response;
-        Path filePath = null;
-        ClientRequest request;
-        PathResolver pathResolver = new PathResolver(serverConfig);
-
-        boolean keepAlive = true;
-
+    private void processRequest(Socket socket, ConnectionLimiter.Lease lease) throws IOException {
         try (
                 socket;
-                PrintStream out = new PrintStream(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))
+                InputStream in = socket.getInputStream()
         ) {
-            while (keepAlive) {
-                try {
-                    logger.debug("Parse request");
-                    request = ClientRequest.parseBuffer(in);
-                    logger.debug("Validate request");
-                    request.validate();
+            WritableByteChannel channel = socket.getChannel() != null
+                    ? socket.getChannel()
+                    : Channels.newChannel(socket.getOutputStream());
+
+            if (tlsContext == null) {
+                serveHttp1(in, channel, true, lease);
+                return;
+            }
+
+            // Reading through the socket's stream keeps its timeout, which a blocking channel ignores
+            TlsChannel tls = new TlsChannel(in, channel, tlsContext.createEngine(serverConfig.http2()));
+            try {
+                tls.handshake();
+
+                if (TlsContext.H2.equals(tls.getApplicationProtocol())) {
+                    logger.debug("Client chose HTTP/2 in the TLS handshake");
+                    Http2Connection connection = new Http2Connection(this, tls.inputStream(), tls, Server.SOCKET_TIMEOUT_MILLIS);
+                    lease.onDrain(connection::drain);
+                    connection.serve();
+                } else {
+                    serveHttp1(tls.inputStream(), tls, false, lease);
+                }
+            } finally {
+                tls.close();
+            }
+        }
+    }
+
+    /**
+     * @param cleartext whether the connection may switch to h2c, which is never done over TLS
+     */
+    private void serveHttp1(InputStream in, WritableByteChannel channel, boolean cleartext, ConnectionLimiter.Lease lease) throws IOException {
+        PreparedResponse response;
+
+        boolean keepAlive = true;
+        boolean keptAlive = false;
 
-                    keepAlive = request.isKeepAlive();
+        RequestParser parser = new RequestParser();
+        ResponseWriter out = new ResponseWriter(channel);
+        // Responses to pipelined requests, sent together once no complete request is left in the buffer
+        List<PreparedResponse> batch = new ArrayList<>();
 
-                    logger.debug("Resolve file path");
-                    filePath = pathResolver.resolveRequest(request);
-                    boolean isHeadMethod = request.method().equals("HEAD");
+        try {
+            while (keepAlive) {
+                ClientRequest request = null;
 
-                    logger.debug("Check cache");
-                    if (cache.containsKey(filePath)) {
-                        response = cache.get(filePath);
+                try {
+                    if (batch.isEmpty()) {
+                        if (keptAlive && !parser.hasBufferedData()) {
+                            // Waiting for a next request that may never come, the first connection to shed
+                            lease.idle();
+                        }
+                        request = parser.parse(in);
+                        if (!lease.busy()) {
+                            if (DEBUG) {
+                                logger.debug("Connection was shed while idle");
+                            }
+                            break;
+                        }
+                        if (request == null) {
+                            if (DEBUG) {
+                                logger.debug("Client closed the connection");
+                            }
+                            break;
+                        }
+                        keptAlive = true;
+                        if (cleartext && serverConfig.http2() && switchToHttp2(request, parser, in, channel, lease)) {
+                            break;
+                        }
                     } else {
-                        try {
-                            logger.debug("Cache miss. Generating a response.");
-                            response = generateFileResponse(filePath, isHeadMethod);
-                        } catch (FileNotFoundException e) {
-                            response = new Response(404);
+                        request = parser.parseNext();
+                        if (request == null) {
+                            // Answer what is buffered before blocking for more
+                            sendResponses(out, channel, batch, true);
+                            continue;
                         }
                     }
+
+                    // A stopping server answers what it has already read, with Connection: close
+                    keepAlive = request.isKeepAlive() && !lease.isDraining();
+                    response = respond(request);
                 } catch (RequestParsingException | InvalidRequestException e) {
                     logger.warn("Error processing request: {}", e.getMessage());
-                    response = new Response(400);
+                    response = BAD_REQUEST;
                     keepAlive = false;
                 } catch (java.net.SocketTimeoutException e) {
                     logger.warn("Socket timeout occurred, closing connection.");
                     break;
                 }
 
-                response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+                batch.add(response);
+                recordResponse(request, response);
 
-                sendResponse(out, response);
+                if (batch.size() == MAX_PIPELINED_RESPONSES) {
+                    sendResponses(out, channel, batch, keepAlive);
+                }
+            }
 
-                if (filePath == null) {
-                    logger.info("Sent {} response", response.getStatusCode());
-                } else {
-                    logger.info("Sent {} response for file {}", response.getStatusCode(), filePath);
+            if (!batch.isEmpty()) {
+                sendResponses(out, channel, batch, keepAlive);
+            }
+        } finally {
+            // Left over if responding failed
+            for (PreparedResponse unsent : batch) {
+                unsent.release();
+            }
+        }
+        if (DEBUG) {
+            logger.debug("Closing connection");
+        }
+    }
+
+    /**
+     * Hands the connection over to HTTP/2 if the request starts the client preface or asks for an
+     * upgrade, and serves it until it is closed.
+     *
+     * @return false if the request is an ordinary HTTP/1.1 one
+     */
+    private boolean switchToHttp2(
+            ClientRequest request,
+            RequestParser parser,
+            InputStream in,
+            WritableByteChannel channel,
+            ConnectionLimiter.Lease lease
+    ) throws IOException {
+        boolean priorKnowledge = Http2Connection.isPriorKnowledge(request);
+        if (!priorKnowledge && !Http2Connection.isUpgrade(request)) {
+            return false;
+        }
+
+        // Frames the client sent right behind the request may already be in the parser's buffer
+        InputStream frames = new SequenceInputStream(new ByteArrayInputStream(parser.takeBuffered()), in);
+        Http2Connection connection = new Http2Connection(this, frames, channel, Server.SOCKET_TIMEOUT_MILLIS);
+        lease.onDrain(connection::drain);
+
+        if (priorKnowledge) {
+            logger.debug("Client started HTTP/2 with prior knowledge");
+            connection.servePriorKnowledge();
+        } else {
+            logger.debug("Upgrading the connection to HTTP/2");
+            connection.serveUpgrade(request);
+        }
+        return true;
+    }
+
+    /**
+     * A request whose file was looked up in the cache but not answered yet.
+     *
+     * @param cached    the cache entry for the file, retained for the request, or null on a miss
+     * @param readsFile whether answering it means reading the file, which may block on the disk
+     */
+    record Lookup(ClientRequest request, Path filePath, CachedFile cached, boolean readsFile, long start, RequestEvent event) {
+    }
+
+    /**
+     * Produces the response for a parsed request. Shared by the blocking and the NIO engine,
+     * so it must not touch the connection itself. The caller has to {@link PreparedResponse#release()}
+     * the response once it is sent.
+     *
+     * @throws InvalidRequestException if the request fails validation
+     */
+    PreparedResponse respond(ClientRequest request) throws IOException {
+        return respond(lookup(request));
+    }
+
+    /**
+     * The part of {@link #respond(ClientRequest)} that never waits for the disk: validating the
+     * request and finding its file in the cache. The result has to be passed to {@link #respond(Lookup)}.
+     *
+     * @throws InvalidRequestException if the request fails validation
+     */
+    Lookup lookup(ClientRequest request) {
+        long start = System.nanoTime();
+        RequestEvent event = new RequestEvent();
+        event.begin();
+
+        request.validate();
+
+        PathResolveEvent resolveEvent = new PathResolveEvent();
+        resolveEvent.begin();
+        Path filePath = pathResolver.resolveRequest(request);
+        if (resolveEvent.shouldCommit()) {
+            resolveEvent.path = request.path();
+            resolveEvent.file = filePath.toString();
+            resolveEvent.commit();
+        }
+
+        CacheLookupEvent lookupEvent = new CacheLookupEvent();
+        lookupEvent.begin();
+        CachedFile cached = cache.get(filePath);
+        if (cached != null && !cached.retain()) {
+            if (DEBUG) {
+                logger.debug("Cached file was unmapped after the lookup, loading it again");
+            }
+            cached = null;
+        }
+        if (lookupEvent.shouldCommit()) {
+            lookupEvent.file = filePath.toString();
+            lookupEvent.hit = cached != null;
+            lookupEvent.commit();
+        }
+
+        return new Lookup(request, filePath, cached, cached == null && !servesFromMemoryOnly, start, event);
+    }
+
+    /**
+     * Answers a looked up request, reading its file first if {@link Lookup#readsFile()}.
+     */
+    PreparedResponse respond(Lookup lookup) throws IOException {
+        ClientRequest request = lookup.request();
+        CachedFile cached = lookup.cached();
+
+        PreparedResponse response = null;
+        try {
+            response = respond(request, lookup.filePath(), cached);
+            return response;
+        } finally {
+            metrics.recordDuration(cached != null, System.nanoTime() - lookup.start());
+
+            RequestEvent event = lookup.event();
+            if (event.shouldCommit()) {
+                event.method = request.method();
+                event.path = request.path();
+                event.protocol = request.protocol();
+                event.status = response == null ? 0 : response.getStatusCode();
+                event.bodyBytes = response == null ? 0 : response.contentLength();
+                event.cacheOutcome = cached != null ? RequestEvent.CACHE_HIT : RequestEvent.CACHE_MISS;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @param cached the cache entry for the file, retained for this request, or null on a miss
+     */
+    private PreparedResponse respond(ClientRequest request, Path filePath, CachedFile cached) throws IOException {
+        boolean isHeadMethod = request.method().equals("HEAD");
+        String acceptEncoding = request.headers().get("Accept-Encoding");
+
+        if (cached == null && servesFromMemoryOnly) {
+            // Everything was preloaded, so a miss can only be a file that doesn't exist
+            return NOT_FOUND;
+        }
+
+        if (cached == null) {
+            try {
+                if (DEBUG) {
+                    logger.debug("Cache miss for {}", filePath);
                 }
+                long generation = cache.generation(filePath);
+                StaticFile file = new StaticFile(filePath, mimeTypes);
 
-                if (!keepAlive) {
-                    logger.debug("Closing connection");
-                    break;
+                if (file.getSize() > serverConfig.streamingThreshold()) {
+                    if (DEBUG) {
+                        logger.debug("Large file, streaming it from disk");
+                    }
+                    return respondWith(request, isHeadMethod, streamedResponse(filePath, file));
                 }
+
+                cached = loadFile(filePath, file, generation);
+            } catch (FileNotFoundException e) {
+                return NOT_FOUND;
+            }
+        }
+
+        try {
+            PreparedResponse response = respondWith(request, isHeadMethod, cached.select(acceptEncoding));
+            if (response.getOffHeapBuffer() == null) {
+                // Nothing sent from off-heap memory, otherwise the response takes over the reference
+                cached.release();
             }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            cached.release();
+            throw e;
+        }
+    }
+
+    private static PreparedResponse respondWith(ClientRequest request, boolean isHeadMethod, PreparedResponse response) throws IOException {
+        if (isNotModified(request, response)) {
+            return response.getNotModified();
+        }
+
+        if (isHeadMethod) {
+            return response.withoutBody();
         }
+
+        return ByteRanges.respond(request, response);
     }
 
-    private Response generateFileResponse(Path filePath, boolean isHeadMethod) throws IOException {
-        logger.debug("Open file");
-        StaticFile file = new StaticFile(filePath);
-        logger.debug("Get file contents");
+    /**
+     * @return true if the client's copy is current, going by If-None-Match, or If-Modified-Since without it
+     */
+    static boolean isNotModified(ClientRequest request, PreparedResponse response) {
+        if (response.getNotModified() == null) {
+            return false;
+        }
 
-        byte[] body = file.getFileContents();
+        String ifNoneMatch = request.headers().get("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, response.getEtag());
+        }
 
-        logger.debug("Create response");
-        Response response = new Response(200);
-        response.setHeader("Content-Type", file.getMimeType());
-        response.setHeader("Content-Length", String.valueOf(body.length));
+        String ifModifiedSince = request.headers().get("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long since = HttpDate.parse(ifModifiedSince);
+            return since >= 0 && response.getLastModified() <= since;
+        }
 
+        return false;
+    }
 
-        if (!isHeadMethod) {
-            response.setBody(body);
-            logger.debug("Added body");
-            cache.put(filePath, response);
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            // If-None-Match uses the weak comparison, so a W/ prefix doesn't matter
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
         }
 
-        return response;
+        return false;
     }
 
-    private void sendResponse(PrintStream out, Response response) {
-        out.print(response.getFullResponseHeaders());
+    /**
+     * Counts a response in the metrics and the access log, once it is handed to the connection to send.
+     *
+     * @param request null if the request couldn't be parsed
+     */
+    void recordResponse(ClientRequest request, PreparedResponse response) {
+        metrics.recordResponse(response);
 
-        if (response.getBody() != null && response.getBody().length > 0) {
-            out.writeBytes(response.getBody());
-        } else {
-            out.writeBytes(new byte[0]);
+        if (accessLog != null) {
+            accessLog.log(request, response);
         }
+    }
+
+    private static PreparedResponse streamedResponse(Path filePath, StaticFile file) throws IOException {
+        long size = file.getSize();
+
+        Response response = new Response(200);
+        response.setHeader("Content-Type", file.getMimeType());
+        response.setHeader("Content-Length", String.valueOf(size));
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setBodyFile(filePath, size);
+
+        // Hashing would mean reading the whole file, so the ETag is derived from size and time instead
+        long lastModified = file.getLastModified();
+        String etag = String.format("\"%x-%x\"", size, lastModified);
+
+        return PreparedResponse.withValidators(response, etag, lastModified);
+    }
+
+    /**
+     * @return the loaded file, retained for the current request
+     */
+    private CachedFile loadFile(Path filePath, StaticFile file, long generation) throws IOException {
+        CachedFile cached = CachedFile.load(serverConfig, filePath, file);
+
+        // The reference the file was created with goes to the cache, which releases it if it doesn't keep the file
+        cached.retain();
+        cache.put(filePath, cached, generation);
 
-        out.flush();
+        return cached;
+    }
+
+    /**
+     * Writes the responses in as few gathering writes as possible, one unless a body has to be
+     * streamed from a file in between, then releases and clears them.
+     *
+     * @param keepAlive whether the connection stays open after the last response, all others keep it open
+     */
+    private void sendResponses(
+            ResponseWriter out,
+            WritableByteChannel channel,
+            List<PreparedResponse> responses,
+            boolean keepAlive
+    ) throws IOException {
+        ResponseWriteEvent event = new ResponseWriteEvent();
+        event.begin();
+
+        try {
+            for (int i = 0; i < responses.size(); i++) {
+                PreparedResponse response = responses.get(i);
+                out.add(response, keepAlive || i < responses.size() - 1);
+
+                if (response.getBodyFile() != null) {
+                    out.flush();
+
+                    try (FileRegion region = FileRegion.open(response.getBodyFile(), response.getBodyFilePosition(), response.getBodyFileLength())) {
+                        region.transferFully(channel);
+                    }
+                }
+            }
+
+            out.flush();
+
+            if (event.shouldCommit()) {
+                event.responses = responses.size();
+                for (PreparedResponse response : responses) {
+                    event.bodyBytes += response.contentLength();
+                }
+                event.commit();
+            }
+        } finally {
+            for (PreparedResponse response : responses) {
+                response.release();
+            }
+            responses.clear();
+        }
     }
 }
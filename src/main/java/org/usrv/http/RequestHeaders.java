@@ -0,0 +1,196 @@
+package org.usrv.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only, case-insensitive header map backed by the raw bytes of a request head.
+ * Names of well known headers resolve to shared constants, values are only decoded
+ * to strings the first time they are asked for.
+ */
+final class RequestHeaders extends AbstractMap<String, String> {
+    private static final String[] KNOWN_NAMES = {
+            "Host",
+            "Connection",
+            "Accept",
+            "Accept-Encoding",
+            "Accept-Language",
+            "User-Agent",
+            "Content-Length",
+            "Content-Type",
+            "Transfer-Encoding",
+            "Cache-Control",
+            "Pragma",
+            "Cookie",
+            "Referer",
+            "Origin",
+            "Upgrade",
+            "HTTP2-Settings",
+            "If-None-Match",
+            "If-Modified-Since",
+            "If-Range",
+            "Range",
+            "Sec-Fetch-Dest",
+            "Sec-Fetch-Mode",
+            "Sec-Fetch-Site",
+            "Upgrade-Insecure-Requests",
+    };
+
+    static final RequestHeaders EMPTY = new RequestHeaders(new byte[0], new int[0], 0);
+
+    private final byte[] data;
+    // Four offsets per header: name start, name end, value start, value end
+    private final int[] offsets;
+    private final int size;
+    private final String[] names;
+    private String[] values;
+
+    RequestHeaders(byte[] data, int[] offsets, int size) {
+        this.data = data;
+        this.offsets = offsets;
+        this.size = size;
+        this.names = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            names[i] = knownName(offsets[i * 4], offsets[i * 4 + 1]);
+        }
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String name)) {
+            return null;
+        }
+
+        int index = indexOf(name);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String name && indexOf(name) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int current = index++;
+                        return new SimpleImmutableEntry<>(name(current), value(current));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Compares a header value to an ASCII token ignoring case, without materializing the value.
+     */
+    boolean valueEqualsIgnoreCase(String name, String token) {
+        int index = indexOf(name);
+        if (index < 0) {
+            return false;
+        }
+
+        return regionEqualsIgnoreCase(offsets[index * 4 + 2], offsets[index * 4 + 3], token);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            String known = names[i];
+            if (known != null) {
+                if (known.equalsIgnoreCase(name)) {
+                    return i;
+                }
+            } else if (regionEqualsIgnoreCase(offsets[i * 4], offsets[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private String name(int index) {
+        String name = names[index];
+        if (name == null) {
+            name = decode(offsets[index * 4], offsets[index * 4 + 1]);
+            names[index] = name;
+        }
+
+        return name;
+    }
+
+    private String value(int index) {
+        if (values == null) {
+            values = new String[size];
+        }
+
+        String value = values[index];
+        if (value == null) {
+            value = decode(offsets[index * 4 + 2], offsets[index * 4 + 3]);
+            values[index] = value;
+        }
+
+        return value;
+    }
+
+    private String decode(int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private String knownName(int from, int to) {
+        for (String known : KNOWN_NAMES) {
+            if (regionEqualsIgnoreCase(from, to, known)) {
+                return known;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean regionEqualsIgnoreCase(int from, int to, String token) {
+        if (to - from != token.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < token.length(); i++) {
+            if (toLowerCase(data[from + i]) != toLowerCase((byte) token.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
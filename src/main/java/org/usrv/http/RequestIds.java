@@ -0,0 +1,18 @@
+package org.usrv.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ids that tie together the log lines of a connection or stream. A counter is enough to tell them
+ * apart within a server's logs, and unlike a random UUID doesn't draw on SecureRandom per connection.
+ */
+final class RequestIds {
+    private static final AtomicLong last = new AtomicLong();
+
+    private RequestIds() {
+    }
+
+    static String next() {
+        return Long.toHexString(last.incrementAndGet());
+    }
+}
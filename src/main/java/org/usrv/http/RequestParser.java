@@ -0,0 +1,353 @@
+package org.usrv.http;
+
+import org.usrv.exceptions.RequestParsingException;
+import org.usrv.jfr.RequestParseEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.1 request parser working directly on bytes.
+ * <p>
+ * One instance is meant to live as long as a connection: the read buffer is reused between
+ * requests and any bytes following a complete request stay buffered for the next call.
+ */
+public class RequestParser {
+    static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    static final int MAX_HEAD_SIZE = 64 * 1024;
+    static final int MAX_HEADERS = 100;
+
+    private static final String[] KNOWN_METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT"};
+    private static final String[] KNOWN_PROTOCOLS = {"HTTP/1.1", "HTTP/1.0", "HTTP/2.0"};
+    private static final URI ROOT_URI = URI.create("/");
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    // Unparsed data lives between start and end
+    private int start;
+    private int end;
+    // Where to resume looking for the end of the head, so bytes aren't scanned twice
+    private int scanPosition;
+    private long bodyBytesToSkip;
+
+    private ByteBuffer bufferView;
+
+    private final int[] headerOffsets = new int[MAX_HEADERS * 4];
+
+    /**
+     * Blocks until a full request head has been read from the stream.
+     *
+     * @return the parsed request, or null if the stream ended cleanly between requests
+     */
+    public ClientRequest parse(InputStream in) throws IOException {
+        while (true) {
+            ClientRequest request = parseNext();
+            if (request != null) {
+                return request;
+            }
+
+            if (!fill(in)) {
+                if (start == end || bodyBytesToSkip > 0) {
+                    return null;
+                }
+                throw new RequestParsingException("Connection closed before the request was complete");
+            }
+        }
+    }
+
+    /**
+     * Parses the next request if a complete head is already buffered.
+     *
+     * @return the parsed request, or null if more bytes are needed
+     */
+    public ClientRequest parseNext() {
+        RequestParseEvent event = new RequestParseEvent();
+        event.begin();
+
+        skipBody();
+        if (bodyBytesToSkip > 0) {
+            return null;
+        }
+
+        skipLeadingLineBreaks();
+
+        int headEnd = findHeadEnd();
+        if (headEnd < 0) {
+            if (end - start > MAX_HEAD_SIZE) {
+                throw new RequestParsingException("Request head exceeds " + MAX_HEAD_SIZE + " bytes");
+            }
+            return null;
+        }
+
+        ClientRequest request = parseHead(start, headEnd);
+        if (event.shouldCommit()) {
+            event.method = request.method();
+            event.path = request.path();
+            event.headBytes = headEnd - start;
+            event.commit();
+        }
+
+        start = headEnd;
+        scanPosition = start;
+        if (start == end) {
+            start = end = scanPosition = 0;
+        }
+
+        return request;
+    }
+
+    /**
+     * @return true if there are buffered bytes that have not been parsed yet
+     */
+    public boolean hasBufferedData() {
+        return end - start > bodyBytesToSkip;
+    }
+
+    /**
+     * Hands over the buffered bytes that have not been parsed yet, when the connection switches
+     * to another protocol, and empties the buffer.
+     */
+    public byte[] takeBuffered() {
+        byte[] buffered = Arrays.copyOfRange(buffer, start, end);
+        start = end = scanPosition = 0;
+        return buffered;
+    }
+
+    /**
+     * Reads whatever the channel has available into the buffer, for use with non-blocking channels.
+     *
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        ensureWritable();
+
+        if (bufferView == null || bufferView.array() != buffer) {
+            bufferView = ByteBuffer.wrap(buffer);
+        }
+        bufferView.limit(buffer.length).position(end);
+
+        int read = channel.read(bufferView);
+        if (read > 0) {
+            end += read;
+        }
+
+        return read;
+    }
+
+    private boolean fill(InputStream in) throws IOException {
+        ensureWritable();
+
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            return false;
+        }
+
+        end += read;
+        return true;
+    }
+
+    private void ensureWritable() {
+        if (end < buffer.length) {
+            return;
+        }
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanPosition -= start;
+            start = 0;
+        } else {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+
+    private void skipBody() {
+        if (bodyBytesToSkip == 0) {
+            return;
+        }
+
+        int skipped = (int) Math.min(bodyBytesToSkip, end - start);
+        start += skipped;
+        scanPosition = start;
+        bodyBytesToSkip -= skipped;
+
+        if (start == end) {
+            start = end = scanPosition = 0;
+        }
+    }
+
+    private void skipLeadingLineBreaks() {
+        // RFC 9112 2.2: servers should ignore at least one empty line received before the request line
+        while (start < end && (buffer[start] == '\r' || buffer[start] == '\n')) {
+            start++;
+        }
+        scanPosition = Math.max(scanPosition, start);
+    }
+
+    private int findHeadEnd() {
+        for (int i = scanPosition; i < end; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+
+            int next = i + 1;
+            if (next < end && buffer[next] == '\r') {
+                next++;
+            }
+            if (next < end && buffer[next] == '\n') {
+                return next + 1;
+            }
+        }
+
+        // The last two bytes may be the start of a terminator that is still arriving
+        scanPosition = Math.max(start, end - 2);
+        return -1;
+    }
+
+    private ClientRequest parseHead(int from, int to) {
+        int requestLineEnd = lineEnd(from, to);
+
+        int firstSpace = indexOf(' ', from, requestLineEnd);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(' ', firstSpace + 1, requestLineEnd);
+        if (firstSpace <= from || secondSpace <= firstSpace + 1 || secondSpace + 1 >= requestLineEnd
+                || indexOf(' ', secondSpace + 1, requestLineEnd) >= 0) {
+            throw new RequestParsingException("Failed to parse request line: ");
+        }
+
+        String method = intern(KNOWN_METHODS, from, firstSpace);
+        String target = new String(buffer, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.ISO_8859_1);
+        String protocol = intern(KNOWN_PROTOCOLS, secondSpace + 1, requestLineEnd);
+
+        RequestHeaders headers = parseHeaders(nextLine(requestLineEnd, to), to);
+
+        if (headers.containsKey("Transfer-Encoding")) {
+            throw new RequestParsingException("Request bodies with a transfer encoding are not supported");
+        }
+        String contentLength = headers.get("Content-Length");
+        if (contentLength != null) {
+            String digits = contentLength.trim();
+            long length;
+            try {
+                length = Long.parseLong(digits);
+            } catch (NumberFormatException e) {
+                throw new RequestParsingException("Invalid Content-Length: " + contentLength, e);
+            }
+            // Only digits are allowed, a sign would let a negative length move the parser backwards
+            if (length < 0 || !Character.isDigit(digits.charAt(0))) {
+                throw new RequestParsingException("Invalid Content-Length: " + contentLength);
+            }
+            bodyBytesToSkip = length;
+        }
+
+        URI uri;
+        try {
+            uri = target.equals("/") ? ROOT_URI : URI.create(target);
+        } catch (IllegalArgumentException e) {
+            throw new RequestParsingException("Failed to parse request target: " + target, e);
+        }
+
+        return new ClientRequest(method, uri.getPath() == null ? target : uri.getPath(), protocol, headers, uri);
+    }
+
+    private RequestHeaders parseHeaders(int from, int to) {
+        int count = 0;
+        int lineStart = from;
+
+        while (lineStart < to) {
+            int lineEnd = lineEnd(lineStart, to);
+            if (lineEnd == lineStart) {
+                break;
+            }
+
+            int colon = indexOf(':', lineStart, lineEnd);
+            if (colon <= lineStart || count == MAX_HEADERS) {
+                throw new RequestParsingException("Failed to parse header line: ");
+            }
+
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && isWhitespace(buffer[valueStart])) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+                valueEnd--;
+            }
+
+            headerOffsets[count * 4] = lineStart - from;
+            headerOffsets[count * 4 + 1] = colon - from;
+            headerOffsets[count * 4 + 2] = valueStart - from;
+            headerOffsets[count * 4 + 3] = valueEnd - from;
+            count++;
+
+            lineStart = nextLine(lineEnd, to);
+        }
+
+        if (count == 0) {
+            return RequestHeaders.EMPTY;
+        }
+
+        // Requests may be kept around after the buffer has moved on, so they get their own copy of the header block
+        return new RequestHeaders(
+                Arrays.copyOfRange(buffer, from, lineStart),
+                Arrays.copyOf(headerOffsets, count * 4),
+                count
+        );
+    }
+
+    private int lineEnd(int from, int to) {
+        int newline = indexOf('\n', from, to);
+        int lineEnd = newline < 0 ? to : newline;
+
+        return lineEnd > from && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private int nextLine(int lineEnd, int to) {
+        if (lineEnd < to && buffer[lineEnd] == '\r') {
+            lineEnd++;
+        }
+
+        return Math.min(lineEnd + 1, to);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private String intern(String[] known, int from, int to) {
+        for (String token : known) {
+            if (regionEquals(from, to, token)) {
+                return token;
+            }
+        }
+
+        return new String(buffer, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean regionEquals(int from, int to, String token) {
+        if (to - from != token.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < token.length(); i++) {
+            if (buffer[from + i] != token.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
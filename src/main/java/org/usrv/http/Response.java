@@ -3,6 +3,7 @@ package org.usrv.http;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.file.Path;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -15,9 +16,13 @@ import java.util.stream.Collectors;
 public class Response {
     private static final Map<Integer, String> statuses = Map.of(
             200, "OK",
+            206, "Partial Content",
+            304, "Not Modified",
             400, "Bad Request",
             404, "Not Found",
-            500, "Internal Server Error"
+            416, "Range Not Satisfiable",
+            500, "Internal Server Error",
+            503, "Service Unavailable"
     );
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
             "EEE, dd MMM yyyy HH:mm:ss z",
@@ -32,6 +37,10 @@ public class Response {
     @Setter
     private byte[] body;
 
+    // Bodies too large to hold in memory are streamed from disk instead of being set as a byte array
+    private Path bodyFile;
+    private long bodyFileLength;
+
     private void initializeHeaders() {
         headers.put("Server", "usrv");
 
@@ -45,11 +54,19 @@ public class Response {
         initializeHeaders();
     }
 
+    String getStatusLine() {
+        return String.format("HTTP/1.1 %s %s", this.getStatusCode(), statuses.get(this.getStatusCode()));
+    }
+
     public String getFullResponseHeaders() {
-        String protocolAndStatus = String.format("HTTP/1.1 %s %s", this.getStatusCode(), statuses.get(this.getStatusCode()));
-        String headersString = headers.keySet().stream().map(key -> String.format("%s: %s", key, headers.get(key))).collect(Collectors.joining("\n"));
+        String headersString = headers.keySet().stream().map(key -> String.format("%s: %s", key, headers.get(key))).collect(Collectors.joining("\r\n"));
+
+        return String.format("%s\r\n%s\r\n\r\n", getStatusLine(), headersString);
+    }
 
-        return String.format("%s\n%s\n\n", protocolAndStatus, headersString);
+    public void setBodyFile(Path bodyFile, long length) {
+        this.bodyFile = bodyFile;
+        this.bodyFileLength = length;
     }
 
     public void setHeader(String headerName, String value) {
@@ -0,0 +1,105 @@
+package org.usrv.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes responses to a blocking connection in gathering writes. Heads and small bodies are copied
+ * into a direct buffer that is reused for as long as the connection is open, so a typical response
+ * goes out as one contiguous buffer in one write, and the JDK doesn't have to copy each heap buffer
+ * into a temporary direct one first. Other bodies are passed to the same write as they are.
+ */
+final class ResponseWriter {
+    // Fits the heads of a batch of pipelined responses, and small files such as icons along with them
+    static final int STAGING_BUFFER_SIZE = 8 * 1024;
+
+    private final WritableByteChannel out;
+    private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BUFFER_SIZE);
+    // The buffers of the next write in order, slices of staging and bodies that were too large for it
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    // Where the bytes staged since the last slice start
+    private int segmentStart;
+
+    ResponseWriter(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    /**
+     * Queues the response for the next {@link #flush()}. A body streamed from a file is left to the caller.
+     */
+    void add(PreparedResponse response, boolean keepAlive) throws IOException {
+        if (response.getEarlyHints() != null) {
+            add(response.getEarlyHints().toBuffer());
+        }
+        for (ByteBuffer buffer : response.toBuffers(keepAlive)) {
+            add(buffer);
+        }
+    }
+
+    private void add(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        if (buffer.isDirect() || buffer.remaining() > STAGING_BUFFER_SIZE) {
+            // Off-heap bodies can be written as they are, and large heap bodies would only be copied once more
+            endSegment();
+            pending.add(buffer);
+            return;
+        }
+
+        if (buffer.remaining() > staging.remaining()) {
+            flush();
+        }
+        staging.put(buffer);
+    }
+
+    /**
+     * Writes everything queued, in as few calls as the channel allows.
+     */
+    void flush() throws IOException {
+        endSegment();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            writeFully(out, pending.toArray(ByteBuffer[]::new));
+        } finally {
+            pending.clear();
+            staging.clear();
+            segmentStart = 0;
+        }
+    }
+
+    private void endSegment() {
+        if (staging.position() > segmentStart) {
+            pending.add(staging.slice(segmentStart, staging.position() - segmentStart));
+            segmentStart = staging.position();
+        }
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer[] buffers) throws IOException {
+        if (out instanceof GatheringByteChannel gathering) {
+            // Trailing empty buffers, such as a frame without payload, must not end the loop before it started
+            int index = buffers.length - 1;
+            while (index > 0 && !buffers[index].hasRemaining()) {
+                index--;
+            }
+            ByteBuffer last = buffers[index];
+            while (last.hasRemaining()) {
+                gathering.write(buffers);
+            }
+            return;
+        }
+
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+}
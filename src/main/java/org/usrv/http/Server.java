@@ -5,22 +5,60 @@ import lombok.Setter;
 import org.slf4j.Logger;
 
 import org.slf4j.LoggerFactory;
+import org.usrv.cache.Cache;
+import org.usrv.cache.CacheInvalidator;
+import org.usrv.cache.CacheStats;
+import org.usrv.config.CacheConfig;
 import org.usrv.config.ServerConfig;
+import org.usrv.jfr.AcceptEvent;
+import org.usrv.jfr.ConnectionEvent;
+import org.usrv.metrics.PrometheusWriter;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
+    static final int SOCKET_TIMEOUT_MILLIS = 30000;
+    // Time stop() allows on top of the drain timeout, for closing the event loops and the cache watcher
+    private static final long STOP_MARGIN_MILLIS = 5000;
+
     public final int port;
 
     @Setter
     @Getter
-    private boolean shouldRun = true;
+    private volatile boolean shouldRun = true;
 
     private final ServerConfig serverConfig;
 
+    @Getter
+    private final Cache<Path, CachedFile> cache;
+    // Shared by all connections, so sessions can be resumed on any of them
+    private final TlsContext tlsContext;
+    @Getter
+    private final ConnectionLimiter connectionLimiter;
+    @Getter
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    private volatile NioEngine nioEngine;
+    private volatile CacheInvalidator cacheInvalidator;
+    private volatile AdminServer adminServer;
+    private volatile AccessLog accessLog;
+    // The blocking engine's listening socket, closed by stop() to end a pending accept
+    private volatile ServerSocketChannel listener;
+    private volatile boolean started;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
     private final static Logger logger = LoggerFactory.getLogger(Server.class);
 
     public Server() {
@@ -30,29 +68,46 @@ public class Server {
     public Server(ServerConfig config) {
         this.serverConfig = config;
         this.port = config.port();
+        this.cache = RequestHandler.createCache(config);
+        this.tlsContext = TlsContext.forConfig(config);
+        this.connectionLimiter = new ConnectionLimiter(config.connections());
     }
 
     public void start() {
-        try (ServerSocket socket = new ServerSocket(port, 1000)) {
+        started = true;
+        startCacheInvalidator();
+
+        try {
+            openAccessLog();
+            startAdminServer();
+            warmCache();
+
+            if (serverConfig.engine() == ServerConfig.Engine.NIO) {
+                startNio();
+            } else {
+                startBlocking();
+            }
+        } finally {
+            stopCacheInvalidator();
+            stopAdminServer();
+            closeAccessLog();
+            stopped.countDown();
+        }
+    }
+
+    private void startBlocking() {
+        // Sockets accepted through a channel can hand large files to the kernel with transferTo
+        try (ServerSocketChannel socket = ServerSocketChannel.open()) {
+            listener = socket;
+            socket.bind(new InetSocketAddress(port), 1000);
             System.out.printf("Server started at port: %s%n", port);
 
             try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-                while (shouldRun) {
-                    Socket clientSocket = socket.accept();
-                    // Check if shutdown was requested while this thread was waiting
-                    if (!shouldRun) {
-                        logger.debug("Server shutdown requested, closing connection");
-                        return;
-                    }
-                    clientSocket.setSoTimeout(30000);
-                    executor.submit(() -> {
-                        try {
-                            RequestHandler handler = new RequestHandler(serverConfig);
-                            handler.handleRequest(clientSocket);
-                        } catch (Throwable t) {
-                            logger.error("Fatal error in request handler: {}", t.getMessage(), t);
-                        }
-                    });
+                try {
+                    acceptConnections(socket, executor);
+                } finally {
+                    // Before the executor waits for the connections' threads, which is how long they take to close
+                    connectionLimiter.drain(serverConfig.connections().drainTimeoutMillis());
                 }
             }
         } catch (IOException e) {
@@ -60,9 +115,258 @@ public class Server {
         }
     }
 
+    private void acceptConnections(ServerSocketChannel socket, ExecutorService executor) throws IOException {
+        while (shouldRun) {
+            SocketChannel client;
+            try {
+                client = socket.accept();
+            } catch (ClosedChannelException e) {
+                if (shouldRun) {
+                    throw e;
+                }
+                logger.debug("Server shutdown requested, no longer accepting connections");
+                return;
+            }
+            // Check if shutdown was requested while this thread was waiting
+            if (!shouldRun) {
+                logger.debug("Server shutdown requested, closing connection");
+                closeQuietly(client);
+                return;
+            }
+
+            AcceptEvent acceptEvent = new AcceptEvent();
+            acceptEvent.begin();
+
+            Socket clientSocket = client.socket();
+            ConnectionLimiter.Lease lease = connectionLimiter.admit(clientSocket.getInetAddress(), () -> closeQuietly(clientSocket));
+            if (lease == null) {
+                logger.debug("Connection limit reached, turning away {}", clientSocket.getInetAddress());
+                ConnectionLimiter.turnAway(client, tlsContext != null);
+                commitAccept(acceptEvent, clientSocket, false);
+                continue;
+            }
+
+            clientSocket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            executor.submit(() -> {
+                ConnectionEvent connectionEvent = new ConnectionEvent();
+                connectionEvent.begin();
+
+                try {
+                    RequestHandler handler = new RequestHandler(serverConfig, cache, tlsContext, metrics, accessLog);
+                    handler.handleRequest(clientSocket, lease);
+                } catch (Throwable t) {
+                    logger.error("Fatal error in request handler: {}", t.getMessage(), t);
+                } finally {
+                    lease.release();
+
+                    if (connectionEvent.shouldCommit()) {
+                        connectionEvent.client = String.valueOf(clientSocket.getInetAddress());
+                        connectionEvent.tls = tlsContext != null;
+                        connectionEvent.commit();
+                    }
+                }
+            });
+            commitAccept(acceptEvent, clientSocket, true);
+        }
+    }
+
+    static void commitAccept(AcceptEvent event, Socket socket, boolean admitted) {
+        if (event.shouldCommit()) {
+            event.client = String.valueOf(socket.getInetAddress());
+            event.admitted = admitted;
+            event.commit();
+        }
+    }
+
+    private void startNio() {
+        nioEngine = new NioEngine(serverConfig, cache, tlsContext, connectionLimiter, metrics, accessLog, this::isShouldRun);
+
+        try {
+            nioEngine.run();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void warmCache() {
+        CacheConfig.WarmUp warmUp = serverConfig.cache().warmUp();
+        if (warmUp == CacheConfig.WarmUp.NONE) {
+            return;
+        }
+
+        try {
+            new CacheWarmer(serverConfig, cache).warm(warmUp == CacheConfig.WarmUp.PRELOAD);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void startCacheInvalidator() {
+        if (!serverConfig.cache().watchForChanges()) {
+            return;
+        }
+
+        try {
+            cacheInvalidator = new CacheInvalidator(Path.of(serverConfig.distFolder()), cache);
+            cacheInvalidator.start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void stopCacheInvalidator() {
+        CacheInvalidator invalidator = cacheInvalidator;
+        if (invalidator == null) {
+            return;
+        }
+
+        try {
+            invalidator.close();
+        } catch (IOException e) {
+            logger.warn("Failed to stop watching the dist folder: {}", e.getMessage());
+        }
+    }
+
+    private void openAccessLog() {
+        if (serverConfig.accessLog() == null) {
+            return;
+        }
+
+        try {
+            accessLog = new AccessLog(serverConfig.accessLog());
+            accessLog.start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void closeAccessLog() {
+        AccessLog log = accessLog;
+        if (log == null) {
+            return;
+        }
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the access log: {}", e.getMessage());
+        }
+    }
+
+    private void startAdminServer() {
+        if (serverConfig.adminPort() <= 0) {
+            return;
+        }
+
+        try {
+            // Metrics are for the operator, so unless told otherwise they are only served to the host itself
+            InetAddress host = serverConfig.adminHost() != null
+                    ? InetAddress.getByName(serverConfig.adminHost())
+                    : InetAddress.getLoopbackAddress();
+            adminServer = new AdminServer(host, serverConfig.adminPort(), this::scrapeMetrics);
+            adminServer.start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void stopAdminServer() {
+        AdminServer admin = adminServer;
+        if (admin != null) {
+            admin.stop();
+        }
+    }
+
+    /**
+     * @return the request, cache and connection metrics in Prometheus' text format, as served on the admin port
+     */
+    public String scrapeMetrics() {
+        PrometheusWriter out = new PrometheusWriter();
+        metrics.write(out);
+
+        CacheStats cacheStats = cache.stats();
+        out.family("usrv_cache_hits_total", PrometheusWriter.Type.COUNTER, "Cache lookups that found a response")
+                .sample("usrv_cache_hits_total", null, cacheStats.hits());
+        out.family("usrv_cache_misses_total", PrometheusWriter.Type.COUNTER, "Cache lookups that found nothing")
+                .sample("usrv_cache_misses_total", null, cacheStats.misses());
+        out.family("usrv_cache_evictions_total", PrometheusWriter.Type.COUNTER, "Entries evicted to stay within the byte budget")
+                .sample("usrv_cache_evictions_total", null, cacheStats.evictions());
+        out.family("usrv_cache_rejections_total", PrometheusWriter.Type.COUNTER, "Responses not cached, too large or not admitted")
+                .sample("usrv_cache_rejections_total", null, cacheStats.rejections());
+        out.family("usrv_cache_hit_ratio", PrometheusWriter.Type.GAUGE, "Share of cache lookups that were hits since the start")
+                .sample("usrv_cache_hit_ratio", null, cacheStats.hitRatio());
+        out.family("usrv_cache_entries", PrometheusWriter.Type.GAUGE, "Cached responses")
+                .sample("usrv_cache_entries", null, cacheStats.entries());
+        out.family("usrv_cache_bytes", PrometheusWriter.Type.GAUGE, "Bytes accounted to cached responses")
+                .sample("usrv_cache_bytes", null, cacheStats.weightedSize());
+        out.family("usrv_cache_max_bytes", PrometheusWriter.Type.GAUGE, "Byte budget of the cache")
+                .sample("usrv_cache_max_bytes", null, cacheStats.maxWeightedSize());
+
+        ConnectionStats connectionStats = connectionLimiter.stats();
+        out.family("usrv_connections_accepted_total", PrometheusWriter.Type.COUNTER, "Connections admitted")
+                .sample("usrv_connections_accepted_total", null, connectionStats.accepted());
+        out.family("usrv_connections_rejected_total", PrometheusWriter.Type.COUNTER, "Connections turned away at the limits")
+                .sample("usrv_connections_rejected_total", null, connectionStats.rejected());
+        out.family("usrv_connections_shed_total", PrometheusWriter.Type.COUNTER, "Idle keep-alive connections closed to make room")
+                .sample("usrv_connections_shed_total", null, connectionStats.shed());
+        out.family("usrv_connections_open", PrometheusWriter.Type.GAUGE, "Open connections, idle ones included")
+                .sample("usrv_connections_open", null, connectionStats.active());
+        out.family("usrv_connections_idle", PrometheusWriter.Type.GAUGE, "Keep-alive connections waiting for a next request")
+                .sample("usrv_connections_idle", null, connectionStats.idle());
+
+        AccessLog log = accessLog;
+        if (log != null) {
+            out.family("usrv_access_log_dropped_total", PrometheusWriter.Type.COUNTER, "Access log records dropped while the writer was behind")
+                    .sample("usrv_access_log_dropped_total", null, log.dropped());
+        }
+
+        long acceptQueue = AcceptQueue.depth(port);
+        if (acceptQueue >= 0) {
+            out.family("usrv_accept_queue_depth", PrometheusWriter.Type.GAUGE, "Connections the kernel completed that wait to be accepted")
+                    .sample("usrv_accept_queue_depth", null, acceptQueue);
+        }
+
+        return out.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting connections right away, and returns once the open ones are drained: requests in
+     * flight are answered with {@code Connection: close}, idle keep-alive connections are closed, and
+     * whatever is still open after {@link org.usrv.config.ConnectionConfig#drainTimeoutMillis()} is closed.
+     */
     public void stop() {
         shouldRun = false;
-    }
+        stopCacheInvalidator();
+
+        ServerSocketChannel channel = listener;
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+        if (nioEngine != null) {
+            nioEngine.stop();
+        }
 
+        if (started) {
+            awaitStopped();
+        }
+    }
 
+    private void awaitStopped() {
+        long timeoutMillis = serverConfig.connections().drainTimeoutMillis() + STOP_MARGIN_MILLIS;
+        try {
+            if (!stopped.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warn("Server didn't stop within {} ms", timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package org.usrv.http;
+
+import org.usrv.metrics.Histogram;
+import org.usrv.metrics.PrometheusWriter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters updated on every request, by all engines and protocols. They are {@link LongAdder}s
+ * set up front, so recording takes no lock and allocates nothing.
+ */
+public final class ServerMetrics {
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private final LongAdder[] responses = new LongAdder[MAX_STATUS - MIN_STATUS + 1];
+    private final LongAdder bodyBytes = new LongAdder();
+    private final Histogram hitDuration = new Histogram();
+    private final Histogram missDuration = new Histogram();
+
+    public ServerMetrics() {
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = new LongAdder();
+        }
+    }
+
+    void recordResponse(PreparedResponse response) {
+        int status = Math.clamp(response.getStatusCode(), MIN_STATUS, MAX_STATUS);
+        responses[status - MIN_STATUS].increment();
+        bodyBytes.add(response.contentLength());
+    }
+
+    /**
+     * @param cacheHit whether the response came from the cache, rather than from disk or a 404
+     */
+    void recordDuration(boolean cacheHit, long nanos) {
+        (cacheHit ? hitDuration : missDuration).record(nanos);
+    }
+
+    public long responses(int status) {
+        return responses[Math.clamp(status, MIN_STATUS, MAX_STATUS) - MIN_STATUS].sum();
+    }
+
+    public long bodyBytes() {
+        return bodyBytes.sum();
+    }
+
+    public void write(PrometheusWriter out) {
+        out.family("usrv_responses_total", PrometheusWriter.Type.COUNTER, "Responses sent, by status code");
+        for (int i = 0; i < responses.length; i++) {
+            long count = responses[i].sum();
+            if (count > 0) {
+                out.sample("usrv_responses_total", "code=\"" + (i + MIN_STATUS) + "\"", count);
+            }
+        }
+
+        out.family("usrv_response_body_bytes_total", PrometheusWriter.Type.COUNTER, "Bytes of response bodies sent, without heads");
+        out.sample("usrv_response_body_bytes_total", null, bodyBytes.sum());
+
+        out.family("usrv_request_duration_seconds", PrometheusWriter.Type.HISTOGRAM,
+                "Time from a request being read to its response being ready to send, by cache result");
+        out.histogram("usrv_request_duration_seconds", "cache=\"hit\"", hitDuration);
+        out.histogram("usrv_request_duration_seconds", "cache=\"miss\"", missDuration);
+    }
+}
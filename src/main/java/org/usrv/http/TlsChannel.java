@@ -0,0 +1,381 @@
+package org.usrv.http;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection's bytes passed through an {@link SSLEngine}, presented as a plain channel so the
+ * request parser, the response writers and HTTP/2 work on TLS connections unchanged. Works on
+ * blocking and non-blocking sockets alike: on a non-blocking one, reads and writes return 0 when
+ * the socket can't make progress, and {@link #flush()} has to be called again once it is writable,
+ * since written bytes may still be waiting here, encrypted.
+ * <p>
+ * One thread may read while others write, as HTTP/2 does; the engine allows wrapping and unwrapping
+ * concurrently. Bodies are encrypted in user space, so files can't be sent with sendfile over TLS,
+ * {@link FileRegion} falls back to reading them through a buffer.
+ */
+final class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final ByteBuffer[] NOTHING = {ByteBuffer.allocate(0)};
+
+    private final ReadableByteChannel source;
+    private final WritableByteChannel sink;
+    private final SSLEngine engine;
+
+    // Received records not unwrapped yet, in write mode
+    private ByteBuffer netIn;
+    // Decrypted bytes not read by the caller yet, in read mode
+    private ByteBuffer appIn;
+    private boolean inputClosed;
+
+    // Held while wrapping and writing, which handshake messages sent by the reading thread do too
+    private final ReentrantLock outputLock = new ReentrantLock();
+    // Wrapped records not written yet, in read mode
+    private ByteBuffer netOut;
+    private volatile boolean handshakeComplete;
+
+    /**
+     * @param source where encrypted bytes are read from, usually the socket, or its stream where reads must time out
+     * @param sink   where encrypted bytes are written to, the socket
+     */
+    TlsChannel(ReadableByteChannel source, WritableByteChannel sink, SSLEngine engine) throws SSLException {
+        this.source = source;
+        this.sink = sink;
+        this.engine = engine;
+        // Otherwise a server engine claims not to be handshaking until the ClientHello is unwrapped
+        engine.beginHandshake();
+
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize()).flip();
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize()).flip();
+    }
+
+    /**
+     * @param source where encrypted bytes are read from, a socket's stream so reads time out
+     */
+    TlsChannel(InputStream source, WritableByteChannel sink, SSLEngine engine) throws SSLException {
+        this(new StreamSource(source), sink, engine);
+    }
+
+    /**
+     * @return the decrypted bytes as a stream, for the request parser and HTTP/2 on a blocking socket
+     */
+    InputStream inputStream() {
+        // Channels.newInputStream would block in a synchronized method, pinning a virtual thread to its carrier
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                return length == 0 ? 0 : TlsChannel.this.read(ByteBuffer.wrap(bytes, offset, length));
+            }
+        };
+    }
+
+    /**
+     * Advances the handshake as far as the socket allows. Reads and writes do this on their own,
+     * it's only needed to learn the negotiated protocol before anything is read.
+     *
+     * @return true once the handshake is complete, always on a blocking socket
+     */
+    boolean handshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> runDelegatedTasks();
+                case NEED_WRAP -> {
+                    outputLock.lock();
+                    try {
+                        if (!flush()) {
+                            return false;
+                        }
+                        if (wrap(NOTHING, 0, 1).getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Connection closed during the TLS handshake");
+                        }
+                    } finally {
+                        outputLock.unlock();
+                    }
+                }
+                case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                    SSLEngineResult.Status status = unwrap();
+                    if (status == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during the TLS handshake");
+                    }
+                    if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        // The peer can't answer before it has the whole flight
+                        if (!flush()) {
+                            return false;
+                        }
+                        int read = fill();
+                        if (read < 0) {
+                            throw new EOFException("Connection closed during the TLS handshake");
+                        }
+                        if (read == 0) {
+                            return false;
+                        }
+                    }
+                }
+                default -> {
+                    // The last handshake messages, or a session ticket, may still have to go out
+                    handshakeComplete = flush();
+                    return handshakeComplete;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the protocol agreed on with ALPN, empty if the client didn't ask, or null before the handshake
+     */
+    String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    /**
+     * @return true if decrypted or received bytes are waiting, which a selector can't tell
+     */
+    boolean hasBufferedInput() {
+        return appIn.hasRemaining() || netIn.position() > 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (appIn.hasRemaining()) {
+                int count = Math.min(appIn.remaining(), dst.remaining());
+                dst.put(dst.position(), appIn, appIn.position(), count);
+                dst.position(dst.position() + count);
+                appIn.position(appIn.position() + count);
+                return count;
+            }
+            if (inputClosed) {
+                return -1;
+            }
+            if (!handshake()) {
+                return 0;
+            }
+
+            switch (unwrap()) {
+                case BUFFER_UNDERFLOW -> {
+                    int read = fill();
+                    if (read < 0) {
+                        inputClosed = true;
+                        try {
+                            engine.closeInbound();
+                        } catch (SSLException e) {
+                            // The client closed without close_notify, which HTTP's own framing makes harmless
+                        }
+                    } else if (read == 0) {
+                        return 0;
+                    }
+                }
+                case CLOSED -> inputClosed = true;
+                default -> {
+                    // Decrypted data, or a post-handshake message such as a key update, handled in the next round
+                }
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources) throws IOException {
+        return write(sources, 0, sources.length);
+    }
+
+    /**
+     * Encrypts as much as the socket takes. On a non-blocking socket the bytes counted as written
+     * may be held here until {@link #flush()} succeeds.
+     */
+    @Override
+    public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+        // Later handshakes, such as key updates, are driven by the reading side
+        if (!handshakeComplete && !handshake()) {
+            return 0;
+        }
+
+        outputLock.lock();
+        try {
+            long consumed = 0;
+            while (hasRemaining(sources, offset, length) && flush()) {
+                SSLEngineResult result = wrap(sources, offset, length);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    // The engine waits for handshake messages the reading thread has yet to unwrap
+                    Thread.yield();
+                    break;
+                }
+                consumed += result.bytesConsumed();
+            }
+
+            flush();
+            return consumed;
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * Writes out encrypted bytes held back by a full socket.
+     *
+     * @return true if nothing is left, always on a blocking socket
+     */
+    boolean flush() throws IOException {
+        outputLock.lock();
+        try {
+            while (netOut.hasRemaining()) {
+                if (sink.write(netOut) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return sink.isOpen();
+    }
+
+    /**
+     * Sends close_notify if the socket takes it right away, then closes the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        outputLock.lock();
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone() && flush()) {
+                wrap(NOTHING, 0, 1);
+            }
+            flush();
+        } catch (IOException e) {
+            // The client may already be gone, the socket is closed either way
+        } finally {
+            outputLock.unlock();
+            sink.close();
+        }
+    }
+
+    private SSLEngineResult wrap(ByteBuffer[] sources, int offset, int length) throws SSLException {
+        while (true) {
+            netOut.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.wrap(sources, offset, length, netOut);
+            } finally {
+                netOut.flip();
+            }
+
+            if (result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                return result;
+            }
+            // Only ever wrapped into an empty buffer, so it's too small for the negotiated record size
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize()).flip();
+        }
+    }
+
+    private SSLEngineResult.Status unwrap() throws SSLException {
+        while (true) {
+            netIn.flip();
+            appIn.compact();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+                appIn.flip();
+            }
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW -> appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                case BUFFER_UNDERFLOW -> {
+                    // A record larger than the buffer, possible once the session's packet size is known
+                    int packetSize = engine.getSession().getPacketBufferSize();
+                    if (netIn.capacity() < packetSize) {
+                        netIn = ByteBuffer.allocate(packetSize).put(netIn.flip());
+                    }
+                    return result.getStatus();
+                }
+                default -> {
+                    return result.getStatus();
+                }
+            }
+        }
+    }
+
+    private int fill() throws IOException {
+        return source.read(netIn);
+    }
+
+    private void runDelegatedTasks() {
+        // Run on the calling thread, a virtual thread or the event loop, as the work would be done there anyway
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return a buffer in read mode with the same content and room for {@code extra} more bytes
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+        return ByteBuffer.allocate(buffer.remaining() + extra).put(buffer).flip();
+    }
+
+    /**
+     * A stream read into heap buffers, without the monitor {@code Channels.newChannel} holds while it blocks.
+     */
+    private record StreamSource(InputStream in) implements ReadableByteChannel {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int read = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package org.usrv.http;
+
+import org.usrv.config.ServerConfig;
+import org.usrv.config.TlsConfig;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * The server's {@link SSLContext}, shared by all connections. Sharing it is what makes resumption
+ * work: its session cache lets a returning client resume by session ID, and the JDK issues session
+ * tickets (stateless resumption, for TLS 1.2 and 1.3) encrypted with keys that live in it too.
+ */
+final class TlsContext {
+    static final String H2 = "h2";
+    static final String HTTP_1_1 = "http/1.1";
+
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+    private final SSLContext context;
+
+    private TlsContext(SSLContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the context for the configured key store, or null if the server runs plaintext
+     */
+    static TlsContext forConfig(ServerConfig serverConfig) {
+        return serverConfig.tls() != null ? create(serverConfig.tls()) : null;
+    }
+
+    static TlsContext create(TlsConfig config) {
+        char[] password = config.keyStorePassword().toCharArray();
+
+        try {
+            // Detects PKCS12 and JKS
+            KeyStore keyStore = KeyStore.getInstance(config.keyStore().toFile(), password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(config.sessionCacheSize());
+            sessions.setSessionTimeout(config.sessionTimeoutSeconds());
+
+            return new TlsContext(context);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new RuntimeException("Failed to load key store " + config.keyStore(), e);
+        }
+    }
+
+    /**
+     * @param http2 whether to offer h2 with ALPN, which the client may pick over http/1.1
+     */
+    SSLEngine createEngine(boolean http2) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(PROTOCOLS);
+        parameters.setUseCipherSuitesOrder(true);
+        parameters.setApplicationProtocols(http2 ? new String[]{H2, HTTP_1_1} : new String[]{HTTP_1_1});
+        engine.setSSLParameters(parameters);
+
+        return engine;
+    }
+}
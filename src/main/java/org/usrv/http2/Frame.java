@@ -0,0 +1,139 @@
+package org.usrv.http2;
+
+import org.usrv.exceptions.Http2Exception;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An HTTP/2 frame (RFC 9113, section 4), along with the protocol's constants.
+ */
+public record Frame(int type, int flags, int streamId, byte[] payload) {
+    public static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final int HEADER_LENGTH = 9;
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024;
+    public static final int DEFAULT_WINDOW_SIZE = 65_535;
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    public static final int DATA = 0x0;
+    public static final int HEADERS = 0x1;
+    public static final int PRIORITY = 0x2;
+    public static final int RST_STREAM = 0x3;
+    public static final int SETTINGS = 0x4;
+    public static final int PUSH_PROMISE = 0x5;
+    public static final int PING = 0x6;
+    public static final int GOAWAY = 0x7;
+    public static final int WINDOW_UPDATE = 0x8;
+    public static final int CONTINUATION = 0x9;
+
+    public static final int FLAG_END_STREAM = 0x1;
+    public static final int FLAG_ACK = 0x1;
+    public static final int FLAG_END_HEADERS = 0x4;
+    public static final int FLAG_PADDED = 0x8;
+    public static final int FLAG_PRIORITY = 0x20;
+
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    /**
+     * Blocks until a whole frame has been read.
+     *
+     * @param maxFrameSize the largest payload the connection allows
+     * @return the frame, or null if the stream ended cleanly between frames
+     * @throws Http2Exception if the frame is larger than allowed
+     */
+    public static Frame read(InputStream in, int maxFrameSize) throws IOException {
+        int firstByte = in.read();
+        if (firstByte < 0) {
+            return null;
+        }
+        return read(firstByte, in, maxFrameSize);
+    }
+
+    /**
+     * Reads the rest of a frame whose first byte was already read. Lets a caller wait for the next
+     * frame with a timeout, and retry it, without giving up part of a frame.
+     *
+     * @throws Http2Exception if the frame is larger than allowed
+     */
+    public static Frame read(int firstByte, InputStream in, int maxFrameSize) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        header[0] = (byte) firstByte;
+        if (in.readNBytes(header, 1, HEADER_LENGTH - 1) < HEADER_LENGTH - 1) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+
+        int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+        if (length > maxFrameSize) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes exceeds " + maxFrameSize);
+        }
+
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+
+        int streamId = ByteBuffer.wrap(header, 5, 4).getInt() & Integer.MAX_VALUE;
+        return new Frame(header[3] & 0xff, header[4] & 0xff, streamId, payload);
+    }
+
+    /**
+     * @return the 9 byte header of a frame with a payload of {@code length} bytes, ready to write
+     */
+    public static ByteBuffer header(int length, int type, int flags, int streamId) {
+        return ByteBuffer.allocate(HEADER_LENGTH)
+                .put((byte) (length >>> 16))
+                .put((byte) (length >>> 8))
+                .put((byte) length)
+                .put((byte) type)
+                .put((byte) flags)
+                .putInt(streamId)
+                .flip();
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * @return the payload without the padding, and without the priority fields of a HEADERS frame
+     */
+    public byte[] content() {
+        int from = 0;
+        int to = payload.length;
+
+        if (hasFlag(FLAG_PADDED) && (type == DATA || type == HEADERS)) {
+            if (payload.length == 0) {
+                throw new Http2Exception(PROTOCOL_ERROR, "Padded frame without a pad length");
+            }
+            from = 1;
+            to -= payload[0] & 0xff;
+        }
+        if (hasFlag(FLAG_PRIORITY) && type == HEADERS) {
+            from += 5;
+        }
+        if (to < from) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds the frame");
+        }
+
+        return from == 0 && to == payload.length ? payload : Arrays.copyOfRange(payload, from, to);
+    }
+}
@@ -0,0 +1,13 @@
+package org.usrv.http2;
+
+/**
+ * A header field as HPACK codes it, with a lower case name.
+ */
+public record Header(String name, String value) {
+    /**
+     * @return the size the field takes up in a header table (RFC 7541, section 4.1)
+     */
+    int size() {
+        return name.length() + value.length() + 32;
+    }
+}
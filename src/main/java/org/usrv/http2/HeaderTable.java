@@ -0,0 +1,147 @@
+package org.usrv.http2;
+
+import org.usrv.exceptions.Http2Exception;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HPACK header table: the static table (RFC 7541, appendix A) followed by a dynamic table
+ * of recently indexed fields, newest first, that is bounded by size.
+ */
+final class HeaderTable {
+    static final Header[] STATIC_TABLE = {
+            new Header(":authority", ""),
+            new Header(":method", "GET"),
+            new Header(":method", "POST"),
+            new Header(":path", "/"),
+            new Header(":path", "/index.html"),
+            new Header(":scheme", "http"),
+            new Header(":scheme", "https"),
+            new Header(":status", "200"),
+            new Header(":status", "204"),
+            new Header(":status", "206"),
+            new Header(":status", "304"),
+            new Header(":status", "400"),
+            new Header(":status", "404"),
+            new Header(":status", "500"),
+            new Header("accept-charset", ""),
+            new Header("accept-encoding", "gzip, deflate"),
+            new Header("accept-language", ""),
+            new Header("accept-ranges", ""),
+            new Header("accept", ""),
+            new Header("access-control-allow-origin", ""),
+            new Header("age", ""),
+            new Header("allow", ""),
+            new Header("authorization", ""),
+            new Header("cache-control", ""),
+            new Header("content-disposition", ""),
+            new Header("content-encoding", ""),
+            new Header("content-language", ""),
+            new Header("content-length", ""),
+            new Header("content-location", ""),
+            new Header("content-range", ""),
+            new Header("content-type", ""),
+            new Header("cookie", ""),
+            new Header("date", ""),
+            new Header("etag", ""),
+            new Header("expect", ""),
+            new Header("expires", ""),
+            new Header("from", ""),
+            new Header("host", ""),
+            new Header("if-match", ""),
+            new Header("if-modified-since", ""),
+            new Header("if-none-match", ""),
+            new Header("if-range", ""),
+            new Header("if-unmodified-since", ""),
+            new Header("last-modified", ""),
+            new Header("link", ""),
+            new Header("location", ""),
+            new Header("max-forwards", ""),
+            new Header("proxy-authenticate", ""),
+            new Header("proxy-authorization", ""),
+            new Header("range", ""),
+            new Header("referer", ""),
+            new Header("refresh", ""),
+            new Header("retry-after", ""),
+            new Header("server", ""),
+            new Header("set-cookie", ""),
+            new Header("strict-transport-security", ""),
+            new Header("transfer-encoding", ""),
+            new Header("user-agent", ""),
+            new Header("vary", ""),
+            new Header("via", ""),
+            new Header("www-authenticate", ""),
+    };
+
+    // Static table indexes, one based, of the first entry with a name and of entries with a value
+    static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    static final Map<Header, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i].name(), i + 1);
+            if (!STATIC_TABLE[i].value().isEmpty()) {
+                STATIC_FIELDS.put(STATIC_TABLE[i], i + 1);
+            }
+        }
+    }
+
+    private final ArrayDeque<Header> dynamic = new ArrayDeque<>();
+    // The most the peer may set the capacity to, our SETTINGS_HEADER_TABLE_SIZE
+    private final int maxCapacity;
+    private int capacity;
+    private int size;
+
+    HeaderTable(int maxCapacity) {
+        this.maxCapacity = maxCapacity;
+        this.capacity = maxCapacity;
+    }
+
+    /**
+     * @param index one based, across the static and the dynamic table
+     */
+    Header get(int index) {
+        if (index <= 0) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Invalid header table index " + index);
+        }
+        if (index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+
+        int dynamicIndex = index - STATIC_TABLE.length - 1;
+        if (dynamicIndex >= dynamic.size()) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Invalid header table index " + index);
+        }
+
+        // Indexes are small and the table holds few fields, so walking it is cheap
+        int i = 0;
+        for (Header header : dynamic) {
+            if (i++ == dynamicIndex) {
+                return header;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    void add(Header header) {
+        size += header.size();
+        dynamic.addFirst(header);
+        evict();
+    }
+
+    void resize(int newCapacity) {
+        if (newCapacity > maxCapacity) {
+            throw new Http2Exception(Frame.COMPRESSION_ERROR, "Header table size " + newCapacity + " exceeds " + maxCapacity);
+        }
+        capacity = newCapacity;
+        evict();
+    }
+
+    private void evict() {
+        while (size > capacity) {
+            size -= dynamic.removeLast().size();
+        }
+    }
+}
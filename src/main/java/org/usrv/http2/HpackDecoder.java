@@ -0,0 +1,129 @@
+package org.usrv.http2;
+
+import org.usrv.exceptions.Http2Exception;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541). One instance per connection, since the dynamic
+ * table carries over from one header block to the next.
+ */
+public final class HpackDecoder {
+    private final HeaderTable table;
+    private final int maxHeaderListSize;
+
+    /**
+     * @param maxTableSize      our SETTINGS_HEADER_TABLE_SIZE
+     * @param maxHeaderListSize our SETTINGS_MAX_HEADER_LIST_SIZE, larger header lists are a connection error
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new HeaderTable(maxTableSize);
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    public List<Header> decode(byte[] block) {
+        List<Header> headers = new ArrayList<>();
+        Reader reader = new Reader(block);
+        int listSize = 0;
+
+        while (reader.hasRemaining()) {
+            int first = reader.peek();
+            Header header;
+
+            if ((first & 0x80) != 0) {
+                // Indexed field
+                header = table.get(reader.readInteger(7));
+            } else if ((first & 0x40) != 0) {
+                // Literal with incremental indexing
+                header = readLiteral(reader, 6);
+                table.add(header);
+            } else if ((first & 0x20) != 0) {
+                // Dynamic table size update
+                if (!headers.isEmpty()) {
+                    throw new Http2Exception(Frame.COMPRESSION_ERROR, "Table size update after a header field");
+                }
+                table.resize(reader.readInteger(5));
+                continue;
+            } else {
+                // Literal without indexing, or never indexed, which only matters to intermediaries
+                header = readLiteral(reader, 4);
+            }
+
+            listSize += header.size();
+            if (listSize > maxHeaderListSize) {
+                throw new Http2Exception(Frame.PROTOCOL_ERROR, "Header list exceeds " + maxHeaderListSize + " bytes");
+            }
+            headers.add(header);
+        }
+
+        return headers;
+    }
+
+    private Header readLiteral(Reader reader, int prefixBits) {
+        int index = reader.readInteger(prefixBits);
+        String name = index == 0 ? reader.readString() : table.get(index).name();
+        return new Header(name, reader.readString());
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        int peek() {
+            return data[position] & 0xff;
+        }
+
+        int readInteger(int prefixBits) {
+            int mask = (1 << prefixBits) - 1;
+            int value = next() & mask;
+            if (value < mask) {
+                return value;
+            }
+
+            int shift = 0;
+            int b;
+            do {
+                b = next();
+                if (shift > 21) {
+                    // Anything this long would overflow, no legitimate index or length gets close
+                    throw new Http2Exception(Frame.COMPRESSION_ERROR, "Integer overflow");
+                }
+                value += (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+
+        String readString() {
+            boolean huffman = (peek() & 0x80) != 0;
+            int length = readInteger(7);
+            if (length > data.length - position) {
+                throw new Http2Exception(Frame.COMPRESSION_ERROR, "String exceeds the header block");
+            }
+
+            String value = huffman
+                    ? Huffman.decode(data, position, length)
+                    : new String(data, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
+            return value;
+        }
+
+        private int next() {
+            if (position >= data.length) {
+                throw new Http2Exception(Frame.COMPRESSION_ERROR, "Truncated header block");
+            }
+            return data[position++] & 0xff;
+        }
+    }
+}
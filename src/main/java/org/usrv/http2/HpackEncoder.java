@@ -0,0 +1,65 @@
+package org.usrv.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes header blocks with references to the static table and plain literals. Nothing is
+ * added to the dynamic table, so there is no state to keep in step with the peer's decoder.
+ */
+public final class HpackEncoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+    /**
+     * @param name lower case, as HTTP/2 requires
+     */
+    public HpackEncoder add(String name, String value) {
+        Integer index = HeaderTable.STATIC_FIELDS.get(new Header(name, value));
+        if (index != null) {
+            writeInteger(0x80, 7, index);
+            return this;
+        }
+
+        // Literal without indexing, with the name from the static table if it's there
+        Integer nameIndex = HeaderTable.STATIC_NAMES.get(name);
+        if (nameIndex != null) {
+            writeInteger(0x00, 4, nameIndex);
+        } else {
+            out.write(0x00);
+            writeString(name);
+        }
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * @return the encoded block, after which the encoder starts over
+     */
+    public byte[] toByteArray() {
+        byte[] block = out.toByteArray();
+        out.reset();
+        return block;
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(0x00, 7, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private void writeInteger(int pattern, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(pattern | value);
+            return;
+        }
+
+        out.write(pattern | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
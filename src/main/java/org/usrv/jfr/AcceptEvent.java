@@ -0,0 +1,21 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.Accept")
+@Label("Accept")
+@Category({"usrv", "Connection"})
+@Description("Admitting an accepted connection and handing it over, or turning it away at the limits")
+@StackTrace(false)
+public final class AcceptEvent extends Event {
+    @Label("Client")
+    public String client;
+
+    @Label("Admitted")
+    public boolean admitted;
+}
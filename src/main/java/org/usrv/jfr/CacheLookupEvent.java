@@ -0,0 +1,21 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.CacheLookup")
+@Label("Cache Lookup")
+@Category({"usrv", "Cache"})
+@Description("Looking a file up in the response cache")
+@StackTrace(false)
+public final class CacheLookupEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Hit")
+    public boolean hit;
+}
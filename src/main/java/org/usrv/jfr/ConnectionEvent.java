@@ -0,0 +1,21 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.Connection")
+@Label("Connection")
+@Category({"usrv", "Connection"})
+@Description("An HTTP/1.1 or HTTP/2 connection, from being admitted to being closed")
+@StackTrace(false)
+public final class ConnectionEvent extends Event {
+    @Label("Client")
+    public String client;
+
+    @Label("TLS")
+    public boolean tls;
+}
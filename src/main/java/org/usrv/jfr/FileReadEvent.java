@@ -0,0 +1,23 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.FileRead")
+@Label("File Read")
+@Category({"usrv", "File"})
+@Description("Reading a file from disk onto the heap on a cache miss")
+@StackTrace(false)
+public final class FileReadEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
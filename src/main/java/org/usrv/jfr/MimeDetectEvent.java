@@ -0,0 +1,21 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.MimeDetect")
+@Label("MIME Type Detection")
+@Category({"usrv", "File"})
+@Description("Detecting the MIME type of an extension missing from the table with Tika, once per extension")
+@StackTrace(false)
+public final class MimeDetectEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("MIME Type")
+    public String mimeType;
+}
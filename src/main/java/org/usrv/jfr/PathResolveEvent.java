@@ -0,0 +1,21 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.PathResolve")
+@Label("Path Resolve")
+@Category({"usrv", "HTTP"})
+@Description("Mapping a request path to a file in the dist folder")
+@StackTrace(false)
+public final class PathResolveEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("File")
+    public String file;
+}
@@ -0,0 +1,43 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A request from being parsed to its response being ready to send, spanning the phase events of
+ * {@link PathResolveEvent}, {@link CacheLookupEvent}, {@link FileReadEvent} and {@link MimeDetectEvent}.
+ */
+@Name("org.usrv.Request")
+@Label("Request")
+@Category({"usrv", "HTTP"})
+@Description("A request from being parsed to its response being ready to send")
+@StackTrace(false)
+public final class RequestEvent extends Event {
+    public static final String CACHE_HIT = "hit";
+    public static final String CACHE_MISS = "miss";
+
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Protocol")
+    public String protocol;
+
+    @Label("Status")
+    public int status;
+
+    @Label("Body Bytes")
+    @DataAmount
+    public long bodyBytes;
+
+    @Label("Cache Outcome")
+    @Description("hit if the response came from the cache, miss if it was read from disk or the file doesn't exist")
+    public String cacheOutcome;
+}
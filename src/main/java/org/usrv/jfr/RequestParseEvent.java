@@ -0,0 +1,26 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.RequestParse")
+@Label("Request Parse")
+@Category({"usrv", "HTTP"})
+@Description("Parsing a request head that was already read, not the wait for its bytes")
+@StackTrace(false)
+public final class RequestParseEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Head Bytes")
+    @DataAmount
+    public long headBytes;
+}
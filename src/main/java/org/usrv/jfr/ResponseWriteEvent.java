@@ -0,0 +1,23 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.usrv.ResponseWrite")
+@Label("Response Write")
+@Category({"usrv", "HTTP"})
+@Description("Writing a batch of HTTP/1.1 responses, or the frames of an HTTP/2 response, including waiting for the client to take them")
+@StackTrace(false)
+public final class ResponseWriteEvent extends Event {
+    @Label("Responses")
+    public int responses;
+
+    @Label("Body Bytes")
+    @DataAmount
+    public long bodyBytes;
+}
@@ -0,0 +1,76 @@
+package org.usrv.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations counted in fixed buckets, as Prometheus histograms are. Recording is an add to two
+ * {@link LongAdder}s, so threads recording at once don't contend on a lock or a shared cache line.
+ */
+public final class Histogram {
+    // Upper bounds, from a cache hit's tens of microseconds to a large file read from a slow disk
+    private static final long[] UPPER_BOUNDS_NANOS = {
+            TimeUnit.MICROSECONDS.toNanos(50),
+            TimeUnit.MICROSECONDS.toNanos(100),
+            TimeUnit.MICROSECONDS.toNanos(250),
+            TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MICROSECONDS.toNanos(2500),
+            TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(25),
+            TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(250),
+            TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(2500),
+            TimeUnit.SECONDS.toNanos(5),
+            TimeUnit.SECONDS.toNanos(10)
+    };
+
+    // One per upper bound and a last one for everything above, not cumulative
+    private final LongAdder[] counts = new LongAdder[UPPER_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < UPPER_BOUNDS_NANOS.length && nanos > UPPER_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return the number of buckets, the last of which has no upper bound
+     */
+    public int buckets() {
+        return counts.length;
+    }
+
+    /**
+     * @return the highest duration counted in the bucket, {@link Long#MAX_VALUE} for the last one
+     */
+    public long upperBoundNanos(int bucket) {
+        return bucket < UPPER_BOUNDS_NANOS.length ? UPPER_BOUNDS_NANOS[bucket] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the durations counted in this bucket only, which may be slightly behind while others are recorded
+     */
+    public long count(int bucket) {
+        return counts[bucket].sum();
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+}
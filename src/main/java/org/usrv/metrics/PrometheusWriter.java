@@ -0,0 +1,88 @@
+package org.usrv.metrics;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * Writes metrics in Prometheus' text exposition format. Each metric starts with {@link #family},
+ * followed by its samples, one per set of labels.
+ */
+public final class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final StringBuilder out = new StringBuilder();
+
+    public enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM
+    }
+
+    public PrometheusWriter family(String name, Type type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase(Locale.ROOT)).append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels label pairs as written between the braces, e.g. {@code code="200"}, or null for none
+     */
+    public PrometheusWriter sample(String name, String labels, long value) {
+        appendName(name, labels);
+        out.append(value).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, String labels, double value) {
+        appendName(name, labels);
+        out.append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the histogram's cumulative buckets, sum and count, in seconds.
+     */
+    public PrometheusWriter histogram(String name, String labels, Histogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int i = 0; i < histogram.buckets(); i++) {
+            cumulative += histogram.count(i);
+
+            long upperBound = histogram.upperBoundNanos(i);
+            String le = upperBound == Long.MAX_VALUE ? "+Inf" : format(upperBound / NANOS_PER_SECOND);
+            sample(name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+        }
+
+        sample(name + "_sum", labels, histogram.sumNanos() / NANOS_PER_SECOND);
+        return sample(name + "_count", labels, cumulative);
+    }
+
+    private void appendName(String name, String labels) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        // Without an exponent, which Prometheus reads but people rarely expect for bucket bounds
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? String.valueOf((long) value)
+                : BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+}
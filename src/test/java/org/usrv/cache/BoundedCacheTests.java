@@ -0,0 +1,172 @@
+package org.usrv.cache;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.CacheConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BoundedCacheTests {
+
+    BoundedCache<String, byte[]> createCache(long maxBytes, CacheConfig.EvictionPolicy policy) {
+        return new BoundedCache<>(new CacheConfig(maxBytes, policy, false), value -> value.length);
+    }
+
+    @Test
+    @DisplayName("Cached values can be retrieved, and hits and misses are counted")
+    void testGetAndStats() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+        byte[] value = new byte[10];
+
+        assertNull(cache.get("a"));
+        cache.put("a", value);
+        assertSame(value, cache.get("a"));
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.entries());
+        assertEquals(10, stats.weightedSize());
+        assertEquals(0.5, stats.hitRatio(), 0.001);
+    }
+
+    @Test
+    @DisplayName("The least recently used entries are evicted to stay within the byte budget")
+    void testLruEviction() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        // Touch a, so b becomes the least recently used entry
+        cache.get("a");
+        cache.put("c", new byte[40]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(80, cache.stats().weightedSize());
+    }
+
+    @Test
+    @DisplayName("Entries larger than the whole budget are not cached")
+    void testOversizedEntry() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+
+        cache.put("a", new byte[40]);
+        cache.put("huge", new byte[101]);
+
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.stats().rejections());
+    }
+
+    @Test
+    @DisplayName("Replacing an entry updates the accounted size")
+    void testReplaceEntry() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+
+        cache.put("a", new byte[40]);
+        cache.put("a", new byte[90]);
+
+        assertEquals(90, cache.stats().weightedSize());
+        assertEquals(1, cache.stats().entries());
+        assertEquals(0, cache.stats().evictions());
+    }
+
+    @Test
+    @DisplayName("Invalidated entries are removed and no longer count towards the budget")
+    void testInvalidate() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.invalidate("a");
+
+        assertNull(cache.get("a"));
+        assertEquals(40, cache.stats().weightedSize());
+
+        cache.invalidateAll();
+
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.stats().weightedSize());
+        assertEquals(0, cache.stats().entries());
+    }
+
+    @Test
+    @DisplayName("Invalidating one key doesn't drop values of other keys loaded meanwhile")
+    void testInvalidationIsPerKey() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.LRU);
+
+        long generationOfA = cache.generation("a");
+        long generationOfB = cache.generation("b");
+        cache.invalidate("a");
+        cache.put("a", new byte[10], generationOfA);
+        cache.put("b", new byte[10], generationOfB);
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+
+        // Bulk invalidation may cover any key
+        generationOfB = cache.generation("b");
+        cache.invalidateIf(key -> key.equals("c"));
+        cache.put("b", new byte[20], generationOfB);
+
+        assertEquals(10, cache.get("b").length);
+    }
+
+    @Test
+    @DisplayName("With TinyLFU, a rarely requested entry doesn't push out a popular one")
+    void testTinyLfuAdmission() {
+        BoundedCache<String, byte[]> cache = createCache(100, CacheConfig.EvictionPolicy.TINY_LFU);
+
+        cache.put("popular", new byte[60]);
+        for (int i = 0; i < 10; i++) {
+            cache.get("popular");
+        }
+
+        // Requested once, so it loses against the popular entry
+        cache.get("crawled");
+        cache.put("crawled", new byte[60]);
+
+        assertNotNull(cache.get("popular"));
+        assertNull(cache.get("crawled"));
+        assertEquals(1, cache.stats().rejections());
+
+        // Once it's requested more often than the popular entry, it is admitted
+        for (int i = 0; i < 15; i++) {
+            cache.get("rising");
+        }
+        cache.put("rising", new byte[60]);
+
+        assertNotNull(cache.get("rising"));
+        assertNull(cache.get("popular"));
+    }
+
+    @Test
+    @DisplayName("The removal listener sees every value the cache lets go of or refuses")
+    void testRemovalListener() {
+        List<byte[]> removed = new ArrayList<>();
+        BoundedCache<String, byte[]> cache = new BoundedCache<>(
+                new CacheConfig(100, CacheConfig.EvictionPolicy.LRU, false),
+                value -> value.length,
+                removed::add
+        );
+
+        byte[] first = new byte[60];
+        byte[] second = new byte[60];
+        byte[] huge = new byte[101];
+
+        cache.put("a", first);
+        cache.put("b", second);
+        cache.put("huge", huge);
+        cache.invalidate("b");
+
+        assertEquals(List.of(first, huge, second), removed);
+    }
+}
@@ -0,0 +1,149 @@
+package org.usrv.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.CacheConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CacheInvalidatorTests {
+    private static final Path testDirectory = Path.of("./TEST_WATCH");
+    private static final Path distDirectory = testDirectory.resolve("dist");
+
+    private BoundedCache<Path, String> cache;
+    private CacheInvalidator invalidator;
+
+    @BeforeEach
+    void setup() throws IOException {
+        Files.createDirectories(distDirectory.resolve("assets"));
+        Files.writeString(distDirectory.resolve("index.html"), "index");
+        Files.writeString(distDirectory.resolve("assets/app.js"), "app");
+        Files.writeString(distDirectory.resolve("assets/app.css"), "css");
+
+        cache = new BoundedCache<>(CacheConfig.getDefaultConfig(), String::length);
+        cache.put(key("/index.html"), "index");
+        cache.put(key("/assets/app.js"), "app");
+        cache.put(key("/assets/app.css"), "css");
+
+        invalidator = new CacheInvalidator(distDirectory, cache);
+        invalidator.start();
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        invalidator.close();
+
+        try (Stream<Path> stream = Files.walk(testDirectory)) {
+            //noinspection ResultOfMethodCallIgnored
+            stream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    // Keys are built the same way PathResolver builds them
+    Path key(String path) {
+        return Path.of(distDirectory.toAbsolutePath().normalize().toString(), path);
+    }
+
+    void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    @DisplayName("Modifying a file evicts only that file from the cache")
+    void testModifiedFileIsEvicted() throws Exception {
+        Files.writeString(distDirectory.resolve("assets/app.js"), "changed");
+
+        waitFor(() -> cache.get(key("/assets/app.js")) == null);
+
+        assertNull(cache.get(key("/assets/app.js")));
+        assertNotNull(cache.get(key("/assets/app.css")));
+        assertNotNull(cache.get(key("/index.html")));
+    }
+
+    @Test
+    @DisplayName("A file replaced by an atomic rename is evicted from the cache")
+    void testRenamedFileIsEvicted() throws Exception {
+        Path temporary = distDirectory.resolve("index.html.tmp");
+        Files.writeString(temporary, "new index");
+        Files.move(temporary, distDirectory.resolve("index.html"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        waitFor(() -> cache.get(key("/index.html")) == null);
+
+        assertNull(cache.get(key("/index.html")));
+        assertNotNull(cache.get(key("/assets/app.js")));
+    }
+
+    @Test
+    @DisplayName("Changing a precompressed sibling evicts the file it belongs to")
+    void testPrecompressedSiblingIsEvicted() throws Exception {
+        Files.writeString(distDirectory.resolve("assets/app.js.gz"), "compressed");
+
+        waitFor(() -> cache.get(key("/assets/app.js")) == null);
+
+        assertNull(cache.get(key("/assets/app.js")));
+        assertNotNull(cache.get(key("/assets/app.css")));
+    }
+
+    @Test
+    @DisplayName("Deleting a directory evicts every file in it from the cache")
+    void testDeletedDirectoryIsEvicted() throws Exception {
+        Files.move(distDirectory.resolve("assets"), testDirectory.resolve("assets-old"), StandardCopyOption.ATOMIC_MOVE);
+
+        waitFor(() -> cache.get(key("/assets/app.js")) == null && cache.get(key("/assets/app.css")) == null);
+
+        assertNull(cache.get(key("/assets/app.js")));
+        assertNull(cache.get(key("/assets/app.css")));
+        assertNotNull(cache.get(key("/index.html")));
+    }
+
+    @Test
+    @DisplayName("Swapping the whole dist folder clears the cache and watches the new folder")
+    void testSwappedDistFolder() throws Exception {
+        Path next = testDirectory.resolve("dist-next");
+        Files.createDirectories(next);
+        Files.writeString(next.resolve("index.html"), "next index");
+
+        Files.move(distDirectory, testDirectory.resolve("dist-old"), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(next, distDirectory, StandardCopyOption.ATOMIC_MOVE);
+
+        waitFor(() -> cache.stats().entries() == 0);
+        assertEquals(0, cache.stats().entries());
+
+        // The new folder is watched as well
+        cache.put(key("/index.html"), "next index");
+        Thread.sleep(200);
+        Files.writeString(distDirectory.resolve("index.html"), "changed again");
+
+        waitFor(() -> cache.get(key("/index.html")) == null);
+        assertNull(cache.get(key("/index.html")));
+    }
+
+    @Test
+    @DisplayName("A value loaded before an invalidation is not cached")
+    void testPutAfterInvalidation() {
+        Path key = key("/assets/new.js");
+        long generation = cache.generation(key);
+
+        cache.invalidate(key);
+        cache.put(key, "stale", generation);
+
+        assertNull(cache.get(key));
+    }
+}
@@ -0,0 +1,50 @@
+package org.usrv.file;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.ServerConfig;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class MimeTypesTests {
+
+    @Test
+    @DisplayName("Common web extensions are resolved from the table, in any case")
+    void testTable() {
+        MimeTypes mimeTypes = MimeTypes.getDefault();
+
+        assertEquals("text/html", mimeTypes.resolve(Path.of("dist", "index.html")));
+        assertEquals("text/javascript", mimeTypes.resolve(Path.of("assets", "index-FZLPApSI.js")));
+        assertEquals("font/woff2", mimeTypes.resolve(Path.of("fonts", "inter.woff2")));
+        assertEquals("image/png", mimeTypes.resolve(Path.of("LOGO.PNG")));
+        assertEquals("application/wasm", mimeTypes.resolve(Path.of("app.wasm")));
+    }
+
+    @Test
+    @DisplayName("Configured types take precedence over the table, however their extensions are written")
+    void testOverrides() {
+        ServerConfig config = new ServerConfig("./dist", 80, false)
+                .withMimeTypes(Map.of(".JS", "application/javascript", "glb", "model/gltf-binary"));
+        MimeTypes mimeTypes = new MimeTypes(config.mimeTypes());
+
+        assertEquals("application/javascript", mimeTypes.resolve(Path.of("app.js")));
+        assertEquals("model/gltf-binary", mimeTypes.resolve(Path.of("scene.glb")));
+        assertEquals("text/css", mimeTypes.resolve(Path.of("app.css")));
+    }
+
+    @Test
+    @DisplayName("Unknown extensions fall back to detection, and get the same answer again")
+    void testFallback() {
+        MimeTypes mimeTypes = MimeTypes.getDefault();
+
+        String type = mimeTypes.resolve(Path.of("data.qqq"));
+
+        assertEquals("application/octet-stream", type);
+        assertSame(type, mimeTypes.resolve(Path.of("other.QQQ")));
+    }
+}
@@ -0,0 +1,106 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class AccessLogTests {
+    private static final Path directory = Path.of("./TEST_DIST/accesslog");
+
+    private static ClientRequest request(String path) {
+        return new ClientRequest("GET", path, "HTTP/1.1", Map.of(), null);
+    }
+
+    private static PreparedResponse response(int status, String body) {
+        Response response = new Response(status);
+        response.setHeader("Content-Length", String.valueOf(body.length()));
+        response.setBody(body.getBytes());
+        return PreparedResponse.of(response);
+    }
+
+    @BeforeAll
+    void setup() throws Exception {
+        Files.createDirectories(directory);
+    }
+
+    @Test
+    @DisplayName("Writes a line per response with its request line, status and body bytes, escaping its fields")
+    void testFormat() throws Exception {
+        Path file = directory.resolve("format.log");
+        Files.deleteIfExists(file);
+
+        try (AccessLog log = new AccessLog(file)) {
+            log.start();
+            assertTrue(log.log(request("/index.html"), response(200, "hello")));
+            assertTrue(log.log(request("/a b\nfake"), RequestHandler.NOT_FOUND));
+            assertTrue(log.log(null, RequestHandler.BAD_REQUEST));
+            assertTrue(log.log(new ClientRequest("GET /\nforged", "/", "HTTP/2\r", Map.of(), null), RequestHandler.NOT_FOUND));
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).matches("\\S+Z 0 GET /index\\.html HTTP/1\\.1 200 5"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" 1 GET /a%20b%0afake HTTP/1.1 404 0"), lines.get(1));
+        assertTrue(lines.get(2).endsWith(" 2 - - - 400 0"), lines.get(2));
+        assertTrue(lines.get(3).endsWith(" 3 GET%20/%0aforged / HTTP/2%0d 404 0"), lines.get(3));
+    }
+
+    @Test
+    @DisplayName("Drops and counts records once the writer is a full ring behind")
+    void testDropsWhenFull() throws Exception {
+        Path file = directory.resolve("full.log");
+        Files.deleteIfExists(file);
+
+        // Not started, so nothing is written until it is closed
+        try (AccessLog log = new AccessLog(file, 4)) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(log.log(request("/" + i), RequestHandler.NOT_FOUND));
+            }
+            assertFalse(log.log(request("/4"), RequestHandler.NOT_FOUND));
+            assertEquals(1, log.dropped());
+        }
+
+        assertEquals(4, Files.readAllLines(file).size());
+    }
+
+    @Test
+    @DisplayName("Keeps every record of concurrent connections, in sequence order, unless it was dropped")
+    void testConcurrentLogging() throws Exception {
+        Path file = directory.resolve("concurrent.log");
+        Files.deleteIfExists(file);
+        int threads = 4;
+        int perThread = 5000;
+
+        long logged;
+        try (AccessLog log = new AccessLog(file, 256)) {
+            log.start();
+
+            List<Thread> loggers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                loggers.add(Thread.ofVirtual().start(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        log.log(request("/file"), RequestHandler.NOT_FOUND);
+                    }
+                }));
+            }
+            for (Thread thread : loggers) {
+                thread.join();
+            }
+
+            logged = threads * perThread - log.dropped();
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(logged, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(Long.toHexString(i), lines.get(i).split(" ")[1]);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ByteRangesTests {
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    PreparedResponse createResponse() throws Exception {
+        return createResponse(CONTENT);
+    }
+
+    PreparedResponse createResponse(String content) throws Exception {
+        return CachedFile.load(Path.of("file.bin"), "application/octet-stream", 0, content.getBytes(StandardCharsets.US_ASCII))
+                .select(null);
+    }
+
+    ClientRequest createRequest(Map<String, String> headers) {
+        return new ClientRequest("GET", "/file.bin", "HTTP/1.1", headers, URI.create("/file.bin"));
+    }
+
+    String asString(PreparedResponse response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : response.toBuffers(true)) {
+            byte[] array = new byte[buffer.remaining()];
+            buffer.get(array);
+            bytes.writeBytes(array);
+        }
+        return bytes.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    @DisplayName("Range headers are parsed into satisfiable ranges, malformed ones are ignored")
+    void testParse() {
+        assertEquals(List.of(new ByteRanges.Range(0, 4)), ByteRanges.parse("bytes=0-4", 20));
+        assertEquals(List.of(new ByteRanges.Range(15, 19)), ByteRanges.parse("bytes=15-", 20));
+        assertEquals(List.of(new ByteRanges.Range(15, 19)), ByteRanges.parse("bytes=-5", 20));
+        assertEquals(List.of(new ByteRanges.Range(10, 19)), ByteRanges.parse("bytes=10-100", 20));
+        assertEquals(List.of(new ByteRanges.Range(0, 1), new ByteRanges.Range(5, 6)), ByteRanges.parse("bytes=0-1, 5-6", 20));
+
+        // Nothing satisfiable
+        assertEquals(List.of(), ByteRanges.parse("bytes=20-", 20));
+
+        // Ignored
+        assertNull(ByteRanges.parse("items=0-4", 20));
+        assertNull(ByteRanges.parse("bytes=4-0", 20));
+        assertNull(ByteRanges.parse("bytes=a-b", 20));
+        assertNull(ByteRanges.parse("bytes=5", 20));
+    }
+
+    @Test
+    @DisplayName("A single range is a slice of the cached body")
+    void testSingleRange() throws Exception {
+        PreparedResponse response = ByteRanges.respond(createRequest(Map.of("Range", "bytes=10-14")), createResponse());
+
+        String text = asString(response);
+        assertEquals(206, response.getStatusCode());
+        assertThat(text, containsString("Content-Range: bytes 10-14/20\r\n"));
+        assertThat(text, containsString("Content-Length: 5\r\n"));
+        assertTrue(text.endsWith("\r\n\r\nabcde"));
+    }
+
+    @Test
+    @DisplayName("Several ranges are sent as multipart/byteranges")
+    void testMultipleRanges() throws Exception {
+        // Far enough apart not to be merged
+        String content = "01" + ".".repeat(196) + "ij";
+        PreparedResponse response = ByteRanges.respond(createRequest(Map.of("Range", "bytes=0-1,-2")), createResponse(content));
+
+        String text = asString(response);
+        int bodyStart = text.indexOf("\r\n\r\n") + 4;
+
+        assertEquals(206, response.getStatusCode());
+        assertThat(text, containsString("Content-Type: multipart/byteranges; boundary="));
+        assertThat(text, containsString("Content-Range: bytes 0-1/200\r\n\r\n01\r\n"));
+        assertThat(text, containsString("Content-Range: bytes 198-199/200\r\n\r\nij\r\n"));
+        assertThat(text, containsString("Content-Length: " + (text.length() - bodyStart) + "\r\n"));
+        assertTrue(text.endsWith("--\r\n"));
+    }
+
+    @Test
+    @DisplayName("Overlapping, adjacent and nearby ranges are sorted and merged")
+    void testCoalesce() {
+        assertEquals(
+                List.of(new ByteRanges.Range(0, 49), new ByteRanges.Range(500, 599)),
+                ByteRanges.coalesce(List.of(
+                        new ByteRanges.Range(500, 599),
+                        new ByteRanges.Range(10, 19),
+                        new ByteRanges.Range(0, 9),
+                        new ByteRanges.Range(40, 49),
+                        new ByteRanges.Range(5, 12)
+                ))
+        );
+    }
+
+    @Test
+    @DisplayName("Ranges merged into one are sent as a single part")
+    void testCoalescedRanges() throws Exception {
+        PreparedResponse response = ByteRanges.respond(createRequest(Map.of("Range", "bytes=10-14,0-4,3-8")), createResponse());
+
+        String text = asString(response);
+        assertEquals(206, response.getStatusCode());
+        assertThat(text, containsString("Content-Range: bytes 0-14/20\r\n"));
+        assertTrue(text.endsWith("\r\n\r\n0123456789abcde"));
+    }
+
+    @Test
+    @DisplayName("Ranges asking for more bytes than the file has are ignored")
+    void testOverlappingRangesBeyondLength() throws Exception {
+        PreparedResponse full = createResponse();
+
+        assertSame(full, ByteRanges.respond(createRequest(Map.of("Range", "bytes=0-,0-,0-")), full));
+        assertSame(full, ByteRanges.respond(createRequest(Map.of("Range", "bytes=0-15,5-19")), full));
+    }
+
+    @Test
+    @DisplayName("Unsatisfiable ranges get a 416 with the full length")
+    void testNotSatisfiable() throws Exception {
+        PreparedResponse response = ByteRanges.respond(createRequest(Map.of("Range", "bytes=50-60")), createResponse());
+
+        assertEquals(416, response.getStatusCode());
+        assertThat(asString(response), containsString("Content-Range: bytes */20\r\n"));
+    }
+
+    @Test
+    @DisplayName("If-Range only lets the range through while the ETag still matches")
+    void testIfRange() throws Exception {
+        PreparedResponse full = createResponse();
+
+        PreparedResponse current = ByteRanges.respond(
+                createRequest(Map.of("Range", "bytes=0-4", "If-Range", full.getEtag())), full);
+        assertEquals(206, current.getStatusCode());
+
+        PreparedResponse changed = ByteRanges.respond(
+                createRequest(Map.of("Range", "bytes=0-4", "If-Range", "\"outdated\"")), full);
+        assertSame(full, changed);
+    }
+
+    @Test
+    @DisplayName("A range of a streamed file is sent from the matching position in the file")
+    void testStreamedRange() throws Exception {
+        Response streamed = new Response(200);
+        streamed.setHeader("Content-Length", "1000");
+        streamed.setBodyFile(Path.of("large.bin"), 1000);
+
+        PreparedResponse response = ByteRanges.respond(
+                createRequest(Map.of("Range", "bytes=100-199")), PreparedResponse.of(streamed));
+
+        assertEquals(206, response.getStatusCode());
+        assertEquals(Path.of("large.bin"), response.getBodyFile());
+        assertEquals(100, response.getBodyFilePosition());
+        assertEquals(100, response.getBodyFileLength());
+    }
+}
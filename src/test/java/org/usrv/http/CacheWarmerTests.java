@@ -0,0 +1,93 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.cache.Cache;
+import org.usrv.config.CacheConfig;
+import org.usrv.config.ServerConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CacheWarmerTests {
+    private static final Path testDirectory = Path.of("./TEST_WARM");
+    private static final Path distDirectory = testDirectory.resolve("dist");
+
+    @BeforeEach
+    void setup() throws IOException {
+        Files.createDirectories(distDirectory.resolve("assets"));
+        Files.writeString(distDirectory.resolve("index.html"), "<html></html>");
+        Files.write(distDirectory.resolve("assets/app.js"), new byte[1000]);
+        Files.write(distDirectory.resolve("assets/vendor.js"), new byte[5000]);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> stream = Files.walk(testDirectory)) {
+            //noinspection ResultOfMethodCallIgnored
+            stream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    // Keys are built the same way PathResolver builds them
+    Path key(String path) {
+        return Path.of(distDirectory.toAbsolutePath().normalize().toString(), path);
+    }
+
+    ServerConfig createConfig(long maxBytes) {
+        return new ServerConfig(distDirectory.toString(), 80, false)
+                .withCache(CacheConfig.getDefaultConfig().withMaxBytes(maxBytes));
+    }
+
+    @Test
+    @DisplayName("All files are cached under the keys requests resolve to")
+    void testWarmAll() throws IOException {
+        ServerConfig config = createConfig(CacheConfig.DEFAULT_MAX_BYTES);
+        Cache<Path, CachedFile> cache = RequestHandler.createCache(config);
+
+        CacheWarmer.Result result = new CacheWarmer(config, cache).warm(false);
+
+        assertEquals(3, result.files());
+        assertEquals(0, result.skipped());
+        assertEquals(3, cache.stats().entries());
+        assertEquals(result.bytes(), cache.stats().weightedSize());
+        assertNotNull(cache.get(key("/assets/app.js")));
+        assertNotNull(cache.get(key("/index.html")));
+    }
+
+    @Test
+    @DisplayName("Warming stops at the byte budget, keeping the smaller files")
+    void testWarmWithinBudget() throws IOException {
+        ServerConfig config = createConfig(3000);
+        Cache<Path, CachedFile> cache = RequestHandler.createCache(config);
+
+        CacheWarmer.Result result = new CacheWarmer(config, cache).warm(false);
+
+        assertEquals(2, result.files());
+        assertEquals(1, result.skipped());
+        assertTrue(cache.stats().weightedSize() <= 3000);
+        assertNull(cache.get(key("/assets/vendor.js")));
+        assertEquals(0, cache.stats().evictions());
+    }
+
+    @Test
+    @DisplayName("Preloading fails if the dist folder doesn't fit in the cache")
+    void testPreloadRequiresAll() {
+        ServerConfig config = createConfig(3000);
+        Cache<Path, CachedFile> cache = RequestHandler.createCache(config);
+
+        assertThrows(IllegalStateException.class, () -> new CacheWarmer(config, cache).warm(true));
+    }
+}
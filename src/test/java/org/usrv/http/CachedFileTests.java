@@ -0,0 +1,290 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.ServerConfig;
+import org.usrv.file.StaticFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CachedFileTests {
+    private static final Path testDirectory = Path.of("./TEST_ENCODING");
+    private static final String SCRIPT = "console.log('usrv');\n".repeat(100);
+
+    @BeforeEach
+    void setup() throws IOException {
+        Files.createDirectories(testDirectory);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        try (Stream<Path> stream = Files.walk(testDirectory)) {
+            //noinspection ResultOfMethodCallIgnored
+            stream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    /**
+     * @return the head of the response, its body is written to {@code body}
+     */
+    String split(PreparedResponse response, ByteArrayOutputStream body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : response.toBuffers(true)) {
+            byte[] array = new byte[buffer.remaining()];
+            buffer.get(array);
+            bytes.writeBytes(array);
+        }
+
+        String text = bytes.toString(StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("\r\n\r\n") + 4;
+        body.write(bytes.toByteArray(), end, bytes.size() - end);
+
+        return text.substring(0, end);
+    }
+
+    @Test
+    @DisplayName("Accept-Encoding q-values are parsed, including wildcards and refusals")
+    void testQuality() {
+        assertEquals(1.0, CachedFile.quality("gzip, deflate, br", "br"));
+        assertEquals(0.5, CachedFile.quality("gzip;q=0.5, br;q=1.0", "gzip"));
+        assertEquals(0.0, CachedFile.quality("gzip;q=0", "gzip"));
+        assertEquals(0.0, CachedFile.quality("deflate", "gzip"));
+        assertEquals(0.1, CachedFile.quality("br, *;q=0.1", "gzip"));
+        assertEquals(1.0, CachedFile.quality("GZIP", "gzip"));
+    }
+
+    @Test
+    @DisplayName("Compressible files are gzipped once and the variant is picked by Accept-Encoding")
+    void testGzipVariant() throws IOException {
+        Path path = testDirectory.resolve("app.js");
+        CachedFile cachedFile = CachedFile.load(path, "application/javascript", 0, SCRIPT.getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String head = split(cachedFile.select("gzip, deflate"), body);
+
+        assertThat(head, containsString("Content-Encoding: gzip\r\n"));
+        assertThat(head, containsString("Vary: Accept-Encoding\r\n"));
+        assertThat(head, containsString("Content-Length: " + body.size() + "\r\n"));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            assertEquals(SCRIPT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        body.reset();
+        head = split(cachedFile.select(null), body);
+        assertThat(head, not(containsString("Content-Encoding")));
+        assertThat(head, containsString("Vary: Accept-Encoding\r\n"));
+        assertEquals(SCRIPT, body.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Precompressed siblings are served as they are, brotli first")
+    void testPrecompressedSiblings() throws IOException {
+        Path path = testDirectory.resolve("app.css");
+        Files.writeString(testDirectory.resolve("app.css.gz"), "gzipped by the build");
+        Files.writeString(testDirectory.resolve("app.css.br"), "brotli by the build");
+
+        CachedFile cachedFile = CachedFile.load(path, "text/css", 0, "body { }".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertThat(split(cachedFile.select("gzip, br"), body), containsString("Content-Encoding: br\r\n"));
+        assertEquals("brotli by the build", body.toString(StandardCharsets.UTF_8));
+
+        body.reset();
+        assertThat(split(cachedFile.select("gzip, br;q=0"), body), containsString("Content-Encoding: gzip\r\n"));
+        assertEquals("gzipped by the build", body.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Empty precompressed siblings, such as one a build is still writing, are ignored")
+    void testEmptySiblings() throws IOException {
+        Path path = testDirectory.resolve("app.css");
+        Files.writeString(testDirectory.resolve("app.css.gz"), "");
+        Files.writeString(testDirectory.resolve("app.css.br"), "");
+
+        CachedFile cachedFile = CachedFile.load(path, "text/css", 0, "body { }".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertThat(split(cachedFile.select("gzip, br"), body), not(containsString("Content-Encoding")));
+        assertEquals("body { }", body.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Every variant has its own strong ETag and a 304 without body prepared")
+    void testValidators() throws IOException {
+        Path path = testDirectory.resolve("app.js");
+        CachedFile cachedFile = CachedFile.load(path, "application/javascript", 1738491330, SCRIPT.getBytes(StandardCharsets.UTF_8));
+
+        PreparedResponse identity = cachedFile.select(null);
+        PreparedResponse gzip = cachedFile.select("gzip");
+
+        assertTrue(identity.getEtag().matches("\"[0-9a-f]{16}\""));
+        assertNotEquals(identity.getEtag(), gzip.getEtag());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String head = split(gzip.getNotModified(), body);
+
+        assertTrue(head.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertThat(head, containsString("ETag: " + gzip.getEtag() + "\r\n"));
+        assertThat(head, containsString("Last-Modified: Sun, 02 Feb 2025 10:15:30 GMT\r\n"));
+        assertThat(head, containsString("Vary: Accept-Encoding\r\n"));
+        assertThat(head, not(containsString("Content-Length")));
+        assertEquals(0, body.size());
+    }
+
+    @Test
+    @DisplayName("Files that can't be compressed have no variants and don't vary")
+    void testIncompressible() throws IOException {
+        Path path = testDirectory.resolve("image.png");
+        CachedFile cachedFile = CachedFile.load(path, "image/png", 0, new byte[1000]);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String head = split(cachedFile.select("gzip, br"), body);
+
+        assertThat(head, not(containsString("Content-Encoding")));
+        assertThat(head, not(containsString("Vary")));
+        assertEquals(1000, body.size());
+    }
+
+    @Test
+    @DisplayName("A mapped file stays mapped until the cache and every response sent from it release it")
+    void testMappedFile() throws IOException {
+        Path path = testDirectory.resolve("video.bin");
+        byte[] content = SCRIPT.getBytes(StandardCharsets.UTF_8);
+        Files.write(path, content);
+
+        CachedFile cachedFile = CachedFile.loadMapped(path, "application/octet-stream", 0, content.length);
+        assertTrue(cachedFile.retain());
+
+        PreparedResponse response = cachedFile.select("gzip");
+        OffHeapBuffer mapping = response.getOffHeapBuffer();
+        assertNotNull(mapping);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertThat(split(response, body), containsString("Content-Length: " + content.length));
+        assertArrayEquals(content, body.toByteArray());
+
+        // Evicted while the response is still being sent
+        cachedFile.release();
+        assertTrue(mapping.isAllocated());
+
+        response.release();
+        assertFalse(mapping.isAllocated());
+        assertFalse(cachedFile.retain());
+    }
+
+    @Test
+    @DisplayName("Precompressed siblings of a mapped file are mapped with it and freed together")
+    void testMappedSiblings() throws IOException {
+        Path path = testDirectory.resolve("bundle.js");
+        byte[] content = SCRIPT.getBytes(StandardCharsets.UTF_8);
+        Files.write(path, content);
+        Files.writeString(testDirectory.resolve("bundle.js.gz"), "gzipped by the build");
+        Files.writeString(testDirectory.resolve("bundle.js.br"), "brotli by the build");
+
+        CachedFile cachedFile = CachedFile.loadMapped(path, "application/javascript", 0, content.length);
+        assertTrue(cachedFile.retain());
+
+        PreparedResponse brotli = cachedFile.select("gzip, br");
+        PreparedResponse gzip = cachedFile.select("gzip");
+        PreparedResponse identity = cachedFile.select(null);
+        assertSame(identity.getOffHeapBuffer(), brotli.getOffHeapBuffer());
+        assertSame(identity.getOffHeapBuffer(), gzip.getOffHeapBuffer());
+        assertNotEquals(identity.getEtag(), gzip.getEtag());
+        assertNotEquals(gzip.getEtag(), brotli.getEtag());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String head = split(brotli, body);
+        assertThat(head, containsString("Content-Encoding: br\r\n"));
+        assertThat(head, containsString("Vary: Accept-Encoding\r\n"));
+        assertEquals("brotli by the build", body.toString(StandardCharsets.UTF_8));
+
+        body.reset();
+        assertThat(split(gzip, body), containsString("Content-Encoding: gzip\r\n"));
+        assertEquals("gzipped by the build", body.toString(StandardCharsets.UTF_8));
+
+        body.reset();
+        assertThat(split(identity, body), containsString("Vary: Accept-Encoding\r\n"));
+        assertArrayEquals(content, body.toByteArray());
+
+        cachedFile.release();
+        cachedFile.release();
+        assertFalse(identity.getOffHeapBuffer().isAllocated());
+    }
+
+    @Test
+    @DisplayName("Large compressible files without siblings stay on the heap to be gzipped, others are mapped")
+    void testMappingThreshold() throws IOException {
+        ServerConfig config = new ServerConfig(testDirectory.toString(), 0, false).withMappingThreshold(1024);
+        byte[] content = SCRIPT.getBytes(StandardCharsets.UTF_8);
+        Path script = testDirectory.resolve("large.js");
+        Path binary = testDirectory.resolve("large.bin");
+        Files.write(script, content);
+        Files.write(binary, content);
+
+        CachedFile heap = CachedFile.load(config, script, new StaticFile(script));
+        assertNull(heap.select("gzip").getOffHeapBuffer());
+        assertThat(split(heap.select("gzip"), new ByteArrayOutputStream()), containsString("Content-Encoding: gzip\r\n"));
+
+        CachedFile mapped = CachedFile.load(config, binary, new StaticFile(binary));
+        assertNotNull(mapped.select(null).getOffHeapBuffer());
+        mapped.release();
+
+        Files.writeString(testDirectory.resolve("large.js.gz"), "gzipped by the build");
+        CachedFile mappedWithSibling = CachedFile.load(config, script, new StaticFile(script));
+        assertNotNull(mappedWithSibling.select("gzip").getOffHeapBuffer());
+        mappedWithSibling.release();
+    }
+
+    @Test
+    @DisplayName("With off-heap storage all variants share one direct buffer, freed once nothing uses it")
+    void testOffHeapStorage() throws IOException {
+        Path path = testDirectory.resolve("app.js");
+        CachedFile cachedFile = CachedFile.load(path, "application/javascript", 0, SCRIPT.getBytes(StandardCharsets.UTF_8), true);
+        assertTrue(cachedFile.retain());
+
+        PreparedResponse gzip = cachedFile.select("gzip");
+        PreparedResponse identity = cachedFile.select(null);
+        OffHeapBuffer offHeapBuffer = gzip.getOffHeapBuffer();
+        assertSame(offHeapBuffer, identity.getOffHeapBuffer());
+        assertTrue(offHeapBuffer.buffer().isDirect());
+        assertEquals(identity.contentLength() + gzip.contentLength(), offHeapBuffer.buffer().capacity());
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        split(gzip, body);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            assertEquals(SCRIPT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        body.reset();
+        split(identity, body);
+        assertEquals(SCRIPT, body.toString(StandardCharsets.UTF_8));
+
+        cachedFile.release();
+        assertTrue(offHeapBuffer.isAllocated());
+
+        gzip.release();
+        assertFalse(offHeapBuffer.isAllocated());
+        assertFalse(cachedFile.retain());
+    }
+}
@@ -0,0 +1,174 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.ConnectionConfig;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ConnectionLimiterTests {
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    private static InetAddress otherClient(int i) throws Exception {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) i});
+    }
+
+    @Test
+    @DisplayName("Turns away a client's connections beyond its limit, and admits them again once one closes")
+    void testPerClientLimit() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new ConnectionConfig(0, 2, 0, ConnectionConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+
+        ConnectionLimiter.Lease first = limiter.admit(CLIENT, () -> fail("Not idle"));
+        assertNotNull(first);
+        assertNotNull(limiter.admit(CLIENT, () -> fail("Not idle")));
+        assertNull(limiter.admit(CLIENT, () -> fail("Not idle")));
+        assertNotNull(limiter.admit(otherClient(1), () -> fail("Not idle")));
+
+        first.release();
+        first.release();
+        assertNotNull(limiter.admit(CLIENT, () -> fail("Not idle")));
+
+        ConnectionStats stats = limiter.stats();
+        assertEquals(4, stats.accepted());
+        assertEquals(1, stats.rejected());
+        assertEquals(3, stats.active());
+    }
+
+    @Test
+    @DisplayName("At the connection limit, sheds the connection idle the longest, or turns away new ones if none is idle")
+    void testShedsLongestIdle() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new ConnectionConfig(3, 0, 0, ConnectionConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+        List<String> closed = new ArrayList<>();
+
+        ConnectionLimiter.Lease a = limiter.admit(otherClient(1), () -> closed.add("a"));
+        ConnectionLimiter.Lease b = limiter.admit(otherClient(2), () -> closed.add("b"));
+        ConnectionLimiter.Lease c = limiter.admit(otherClient(3), () -> closed.add("c"));
+        b.idle();
+        a.idle();
+
+        assertNotNull(limiter.admit(otherClient(4), () -> closed.add("d")));
+        assertEquals(List.of("b"), closed);
+        assertFalse(b.busy());
+        assertTrue(b.isShed());
+
+        // Busy again, so no longer a candidate
+        assertTrue(a.busy());
+        assertNull(limiter.admit(otherClient(5), () -> closed.add("e")));
+
+        c.idle();
+        assertNotNull(limiter.admit(otherClient(6), () -> closed.add("f")));
+        assertEquals(List.of("b", "c"), closed);
+
+        ConnectionStats stats = limiter.stats();
+        assertEquals(2, stats.shed());
+        assertEquals(1, stats.rejected());
+        assertEquals(3, stats.active());
+        assertEquals(0, stats.idle());
+    }
+
+    @Test
+    @DisplayName("A connection that serves another request goes to the back of the idle order")
+    void testIdleOrderAfterReuse() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new ConnectionConfig(2, 0, 0, ConnectionConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+        List<String> closed = new ArrayList<>();
+
+        ConnectionLimiter.Lease a = limiter.admit(otherClient(1), () -> closed.add("a"));
+        ConnectionLimiter.Lease b = limiter.admit(otherClient(2), () -> closed.add("b"));
+        // Many requests over the same connection, each leaving an entry behind in the idle order
+        for (int i = 0; i < 1000; i++) {
+            a.idle();
+            assertTrue(a.busy());
+        }
+        a.idle();
+        b.idle();
+        assertTrue(a.busy());
+        a.idle();
+
+        assertNotNull(limiter.admit(otherClient(3), () -> closed.add("c")));
+        assertEquals(List.of("b"), closed);
+        assertEquals(1, limiter.stats().idle());
+    }
+
+    @Test
+    @DisplayName("Keeps idle connections within their budget, oldest first")
+    void testIdleBudget() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(new ConnectionConfig(0, 0, 2, ConnectionConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+        List<Integer> closed = new ArrayList<>();
+
+        List<ConnectionLimiter.Lease> leases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int id = i;
+            leases.add(limiter.admit(otherClient(i), () -> closed.add(id)));
+        }
+        for (ConnectionLimiter.Lease lease : leases) {
+            lease.idle();
+        }
+
+        assertEquals(List.of(0, 1), closed);
+        assertEquals(2, limiter.stats().idle());
+        assertEquals(2, limiter.stats().active());
+    }
+
+    @Test
+    @DisplayName("Draining closes idle connections, asks busy ones to finish, and waits for them to close")
+    void testDrain() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(ConnectionConfig.getDefaultConfig());
+        Queue<String> closed = new ConcurrentLinkedQueue<>();
+
+        ConnectionLimiter.Lease idle = limiter.admit(otherClient(1), () -> closed.add("idle"));
+        ConnectionLimiter.Lease busy = limiter.admit(otherClient(2), () -> closed.add("busy"));
+        ConnectionLimiter.Lease http2 = limiter.admit(otherClient(3), () -> closed.add("http2"));
+        http2.onDrain(() -> closed.add("http2 drained"));
+        idle.idle();
+
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> limiter.drain(5000));
+        while (closed.size() < 2) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(List.of("http2 drained", "idle"), closed.stream().sorted().toList());
+        assertTrue(busy.isDraining());
+        assertNull(limiter.admit(otherClient(4), () -> fail("Not admitted")));
+        assertFalse(drained.isDone());
+
+        // Finished its response, and is closed instead of waiting for another request
+        busy.idle();
+        http2.release();
+
+        assertTrue(drained.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("busy", "http2 drained", "idle"), closed.stream().sorted().toList());
+        assertEquals(0, limiter.stats().active());
+        assertEquals(0, limiter.stats().shed());
+    }
+
+    @Test
+    @DisplayName("Draining closes the connections still busy at the deadline")
+    void testDrainDeadline() throws Exception {
+        ConnectionLimiter limiter = new ConnectionLimiter(ConnectionConfig.getDefaultConfig());
+        List<String> closed = new ArrayList<>();
+
+        ConnectionLimiter.Lease busy = limiter.admit(CLIENT, () -> closed.add("busy"));
+
+        long start = System.nanoTime();
+        assertFalse(limiter.drain(100));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(List.of("busy"), closed);
+        assertTrue(busy.isShed());
+        assertEquals(0, limiter.stats().active());
+
+        // Set once the connection is closing anyway
+        busy.onDrain(() -> closed.add("drained"));
+        assertEquals(List.of("busy", "drained"), closed);
+    }
+}
@@ -0,0 +1,94 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class EarlyHintsTests {
+    // What Vite writes into dist/index.html
+    private static final String VITE_INDEX = """
+            <!doctype html>
+            <html lang="en">
+              <head>
+                <meta charset="UTF-8" />
+                <link rel="icon" type="image/svg+xml" href="/vite.svg" />
+                <title>App</title>
+                <script type="module" crossorigin src="/assets/index-BxDo2bb9.js"></script>
+                <link rel="modulepreload" crossorigin href="/assets/vendor-C4z2lUJR.js">
+                <link rel="stylesheet" crossorigin href="/assets/index-DiwrgTda.css">
+              </head>
+              <body>
+                <div id="root"></div>
+              </body>
+            </html>
+            """;
+
+    private static EarlyHints scan(String html) {
+        return EarlyHints.scan(html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Finds the entry points of a built SPA, in page order")
+    void testViteIndex() {
+        EarlyHints hints = scan(VITE_INDEX);
+
+        assertEquals(List.of(
+                "</assets/index-BxDo2bb9.js>; rel=modulepreload; crossorigin",
+                "</assets/vendor-C4z2lUJR.js>; rel=modulepreload; crossorigin",
+                "</assets/index-DiwrgTda.css>; rel=preload; as=style; crossorigin"
+        ), hints.getLinks());
+
+        String response = StandardCharsets.ISO_8859_1.decode(hints.toBuffer()).toString();
+        assertTrue(response.startsWith("HTTP/1.1 103 Early Hints\r\nLink: </assets/index-BxDo2bb9.js>"), response);
+        assertTrue(response.endsWith("\r\n\r\n"), response);
+    }
+
+    @Test
+    @DisplayName("Classic scripts and explicit preloads keep their destination")
+    void testScriptsAndPreloads() {
+        EarlyHints hints = scan("""
+                <script src='app.js?v=1&amp;x=2'></script>
+                <link rel=preload href=/fonts/inter.woff2 as=font crossorigin=use-credentials>
+                """);
+
+        assertEquals(List.of(
+                "<app.js?v=1&x=2>; rel=preload; as=script",
+                "</fonts/inter.woff2>; rel=preload; as=font; crossorigin=use-credentials"
+        ), hints.getLinks());
+    }
+
+    @Test
+    @DisplayName("Ignores other origins, inline scripts, comments and other link relations")
+    void testIgnoredTags() {
+        assertNull(scan("""
+                <!-- <script src="/old.js"></script> -->
+                <script>console.log("inline")</script>
+                <script src="https://cdn.example.com/lib.js"></script>
+                <script src="//cdn.example.com/lib.js"></script>
+                <link rel="icon" href="/favicon.ico">
+                <link rel="stylesheet" href="data:text/css,body{}">
+                <link rel="preload" href="/x.js">
+                """));
+    }
+
+    @Test
+    @DisplayName("Lists each asset once and stops at the limit")
+    void testLimit() {
+        StringBuilder html = new StringBuilder("<script src=\"/a.js\"></script>");
+        for (int i = 0; i < EarlyHints.MAX_LINKS * 2; i++) {
+            html.append("<script src=\"/chunk-").append(i).append(".js\"></script>");
+        }
+        html.append("<script src=\"/a.js\"></script>");
+
+        List<String> links = scan(html.toString()).getLinks();
+
+        assertEquals(EarlyHints.MAX_LINKS, links.size());
+        assertEquals("</a.js>; rel=preload; as=script", links.getFirst());
+    }
+}
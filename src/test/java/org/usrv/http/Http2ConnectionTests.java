@@ -0,0 +1,113 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.*;
+import org.usrv.config.ServerConfig;
+import org.usrv.http2.Frame;
+import org.usrv.http2.HpackEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class Http2ConnectionTests {
+    private static final Path distDirectory = Path.of("./TEST_DIST/h2");
+
+    private RequestHandler handler;
+
+    /**
+     * Hands out the bytes it was given, then times out on every read like a socket with SO_TIMEOUT.
+     */
+    static class StallingInputStream extends InputStream {
+        private final ByteArrayInputStream bytes;
+        int timeouts;
+
+        StallingInputStream(byte[] bytes) {
+            this.bytes = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (bytes.available() == 0) {
+                timeouts++;
+                throw new SocketTimeoutException("Read timed out");
+            }
+            return bytes.read(buffer, offset, length);
+        }
+    }
+
+    @BeforeAll
+    void setup() throws Exception {
+        Files.createDirectories(distDirectory);
+        Files.writeString(distDirectory.resolve("index.html"), "<html></html>");
+
+        ServerConfig config = new ServerConfig(distDirectory.toString(), 0, false).withHttp2(true);
+        handler = new RequestHandler(config, RequestHandler.createCache(config));
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int type, int flags, int streamId, byte[] payload) {
+        out.writeBytes(Frame.header(payload.length, type, flags, streamId).array());
+        out.writeBytes(payload);
+    }
+
+    @Test
+    @DisplayName("A timeout in the middle of a frame is a connection error, not a read resumed mid-frame")
+    void testStalledFrame() throws Exception {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        client.writeBytes(Frame.CLIENT_PREFACE);
+        // A window of 0, so the response stays open while the connection waits for more frames
+        writeFrame(client, Frame.SETTINGS, 0, 0, ByteBuffer.allocate(6).putShort((short) Frame.SETTINGS_INITIAL_WINDOW_SIZE).putInt(0).array());
+        writeFrame(client, Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 1, new HpackEncoder()
+                .add(":method", "GET")
+                .add(":scheme", "http")
+                .add(":path", "/index.html")
+                .add(":authority", "localhost")
+                .toByteArray());
+        // The start of a frame header, and then nothing
+        client.writeBytes(new byte[]{0, 0, 4});
+
+        StallingInputStream in = new StallingInputStream(client.toByteArray());
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        Http2Connection connection = new Http2Connection(handler, in, Channels.newChannel(server), 1000);
+
+        // Looped on the timeouts forever when it resumed reading in the middle of the frame
+        Thread serving = Thread.ofVirtual().start(() -> {
+            try {
+                connection.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serving.join(Duration.ofSeconds(10));
+        assertFalse(serving.isAlive(), "Connection kept waiting for the rest of the frame");
+
+        ByteArrayInputStream frames = new ByteArrayInputStream(server.toByteArray());
+        Frame goAway = null;
+        Frame frame;
+        while ((frame = Frame.read(frames, Frame.DEFAULT_MAX_FRAME_SIZE)) != null) {
+            if (frame.type() == Frame.GOAWAY) {
+                goAway = frame;
+            }
+        }
+
+        assertNotNull(goAway, "Expected a GOAWAY");
+        assertEquals(Frame.PROTOCOL_ERROR, ByteBuffer.wrap(goAway.payload()).getInt(4));
+        assertEquals(1, in.timeouts);
+    }
+}
@@ -0,0 +1,76 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PreparedResponseTests {
+
+    PreparedResponse createResponse() {
+        Response response = new Response(200);
+        response.setHeader("Content-Type", "text/plain");
+        response.setHeader("Content-Length", "5");
+        response.setHeader("Connection", "keep-alive");
+        response.setBody("hello".getBytes(StandardCharsets.UTF_8));
+
+        return PreparedResponse.of(response);
+    }
+
+    String asString(ByteBuffer[] buffers) {
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            text.append(new String(bytes, StandardCharsets.ISO_8859_1));
+        }
+        return text.toString();
+    }
+
+    @Test
+    @DisplayName("The Date and Connection lines are added per send, everything else is encoded up front")
+    void testPerSendLines() {
+        PreparedResponse response = createResponse();
+
+        String keepAlive = asString(response.toBuffers(true));
+        assertTrue(keepAlive.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertThat(keepAlive, containsString("Content-Type: text/plain\r\n"));
+        assertThat(keepAlive, containsString("Date: "));
+        assertThat(keepAlive, containsString(" GMT\r\n"));
+        assertTrue(keepAlive.endsWith("Connection: keep-alive\r\n\r\nhello"));
+
+        String close = asString(response.toBuffers(false));
+        assertTrue(close.endsWith("Connection: close\r\n\r\nhello"));
+        assertThat(close, not(containsString("keep-alive")));
+    }
+
+    @Test
+    @DisplayName("Sending a shared response doesn't consume it for the next send")
+    void testBuffersAreIndependent() {
+        PreparedResponse response = createResponse();
+
+        String first = asString(response.toBuffers(true));
+        String second = asString(response.toBuffers(true));
+
+        assertEquals(first.length(), second.length());
+        assertTrue(second.endsWith("hello"));
+    }
+
+    @Test
+    @DisplayName("A response without body keeps its headers")
+    void testWithoutBody() {
+        PreparedResponse response = createResponse().withoutBody();
+
+        String text = asString(response.toBuffers(true));
+        assertThat(text, containsString("Content-Length: 5\r\n"));
+        assertTrue(text.endsWith("\r\n\r\n"));
+    }
+}
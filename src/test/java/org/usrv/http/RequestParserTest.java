@@ -0,0 +1,154 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.exceptions.RequestParsingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RequestParserTest {
+
+    InputStream streamOf(String request) {
+        return new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    @DisplayName("A request with CRLF line endings is parsed into method, path, protocol and headers")
+    void testParseRequest() throws IOException {
+        String requestString = "GET /assets/index.js?v=2 HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Accept: */*\r\n" +
+                "X-Custom:   padded value  \r\n" +
+                "\r\n";
+
+        ClientRequest request = new RequestParser().parse(streamOf(requestString));
+
+        assertEquals("GET", request.method());
+        assertEquals("/assets/index.js", request.path());
+        assertEquals("v=2", request.uri().getQuery());
+        assertEquals("HTTP/1.1", request.protocol());
+        assertEquals("localhost", request.headers().get("Host"));
+        assertEquals("*/*", request.headers().get("Accept"));
+        assertEquals("padded value", request.headers().get("X-Custom"));
+        assertEquals(3, request.headers().size());
+    }
+
+    @Test
+    @DisplayName("Method and protocol tokens are shared constants")
+    void testInternedTokens() throws IOException {
+        ClientRequest request = new RequestParser().parse(streamOf("HEAD / HTTP/1.1\nHost: localhost\n\n"));
+
+        assertSame("HEAD", request.method());
+        assertSame("HTTP/1.1", request.protocol());
+    }
+
+    @Test
+    @DisplayName("Header names are matched case-insensitively")
+    void testCaseInsensitiveHeaders() throws IOException {
+        ClientRequest request = new RequestParser().parse(streamOf("GET / HTTP/1.1\nhost: localhost\nCONNECTION: keep-alive\n\n"));
+
+        assertEquals("localhost", request.headers().get("Host"));
+        assertTrue(request.headers().containsKey("Host"));
+        assertTrue(request.headers().containsKey("host"));
+        assertTrue(request.isKeepAlive());
+        assertTrue(request.headers().keySet().contains("Connection"));
+    }
+
+    @Test
+    @DisplayName("Several requests in the same buffer are returned one at a time")
+    void testPipelinedRequests() throws IOException {
+        String requests = "GET /a.txt HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                "GET /b.txt HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nhello" +
+                "GET /c.txt HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        InputStream in = streamOf(requests);
+        RequestParser parser = new RequestParser();
+
+        assertEquals("/a.txt", parser.parse(in).path());
+        assertTrue(parser.hasBufferedData());
+        assertEquals("/b.txt", parser.parseNext().path());
+        assertEquals("/c.txt", parser.parseNext().path());
+        assertFalse(parser.hasBufferedData());
+        assertNull(parser.parse(in));
+    }
+
+    @Test
+    @DisplayName("A request arriving one byte at a time is parsed once the head is complete")
+    void testFragmentedRequest() throws IOException {
+        byte[] bytes = "GET /slow.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        InputStream in = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                return position < bytes.length ? bytes[position++] : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= bytes.length) {
+                    return -1;
+                }
+                b[off] = bytes[position++];
+                return 1;
+            }
+        };
+
+        ClientRequest request = new RequestParser().parse(in);
+
+        assertEquals("/slow.txt", request.path());
+        assertEquals("localhost", request.headers().get("Host"));
+    }
+
+    @Test
+    @DisplayName("A head larger than the initial buffer is still parsed")
+    void testLargeHead() throws IOException {
+        String cookie = "a".repeat(RequestParser.INITIAL_BUFFER_SIZE * 2);
+        String requestString = "GET / HTTP/1.1\r\nHost: localhost\r\nCookie: " + cookie + "\r\n\r\n";
+
+        ClientRequest request = new RequestParser().parse(streamOf(requestString));
+
+        assertEquals(cookie, request.headers().get("Cookie"));
+    }
+
+    @Test
+    @DisplayName("It should throw an error upon parsing a malformed request line")
+    void testMalformedRequestLine() {
+        InputStream in = streamOf("GET HTTP/1.1\nHost: localhost\n\n");
+
+        Exception exception = assertThrows(RequestParsingException.class, () -> new RequestParser().parse(in));
+
+        assertEquals("Failed to parse request line: ", exception.getMessage());
+    }
+
+    @Test
+    @DisplayName("It should throw an error upon parsing a header without a colon")
+    void testMalformedHeader() {
+        InputStream in = streamOf("GET / HTTP/1.1\nHost localhost\n\n");
+
+        assertThrows(RequestParsingException.class, () -> new RequestParser().parse(in));
+    }
+
+    @Test
+    @DisplayName("A negative or signed Content-Length is a parsing error")
+    void testSignedContentLength() {
+        assertThrows(RequestParsingException.class,
+                () -> new RequestParser().parse(streamOf("GET / HTTP/1.1\nHost: localhost\nContent-Length: -1\n\n")));
+        assertThrows(RequestParsingException.class,
+                () -> new RequestParser().parse(streamOf("GET / HTTP/1.1\nHost: localhost\nContent-Length: +5\n\nhello")));
+    }
+
+    @Test
+    @DisplayName("A connection closed in the middle of a request is a parsing error")
+    void testTruncatedRequest() {
+        InputStream in = streamOf("GET / HTTP/1.1\nHost: loc");
+
+        assertThrows(RequestParsingException.class, () -> new RequestParser().parse(in));
+    }
+}
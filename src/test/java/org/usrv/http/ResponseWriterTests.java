@@ -0,0 +1,146 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ResponseWriterTests {
+
+    /**
+     * Records what every write call was given, standing in for a socket.
+     */
+    static class RecordingChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final List<List<ByteBuffer>> calls = new ArrayList<>();
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            List<ByteBuffer> call = new ArrayList<>();
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                call.add(sources[i]);
+                total += consume(sources[i]);
+            }
+            calls.add(call);
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            calls.add(List.of(source));
+            return consume(source);
+        }
+
+        private int consume(ByteBuffer source) {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            written.writeBytes(bytes);
+            return bytes.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    PreparedResponse createResponse(String body) {
+        Response response = new Response(200);
+        response.setHeader("Content-Type", "text/plain");
+        response.setHeader("Content-Length", String.valueOf(body.length()));
+        response.setBody(body.getBytes(StandardCharsets.UTF_8));
+
+        return PreparedResponse.of(response);
+    }
+
+    @Test
+    @DisplayName("Small responses are staged into one buffer and sent with a single write")
+    void testStagedResponses() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        ResponseWriter writer = new ResponseWriter(channel);
+
+        writer.add(createResponse("first"), true);
+        writer.add(createResponse("second"), false);
+        writer.flush();
+
+        assertEquals(1, channel.calls.size());
+        assertEquals(1, channel.calls.getFirst().size());
+        assertTrue(channel.calls.getFirst().getFirst().isDirect());
+
+        String written = channel.written.toString(StandardCharsets.ISO_8859_1);
+        assertThat(written, containsString("Connection: keep-alive\r\n\r\nfirst"));
+        assertTrue(written.endsWith("Connection: close\r\n\r\nsecond"));
+    }
+
+    @Test
+    @DisplayName("Large and off-heap bodies are passed to the same write without being copied")
+    void testLargeBodies() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        ResponseWriter writer = new ResponseWriter(channel);
+        String large = "x".repeat(ResponseWriter.STAGING_BUFFER_SIZE + 1);
+
+        writer.add(createResponse(large), true);
+        writer.add(createResponse("after"), true);
+        writer.flush();
+
+        assertEquals(1, channel.calls.size());
+        List<ByteBuffer> call = channel.calls.getFirst();
+        // The first head, the large body as it is, then the second response staged after it
+        assertEquals(3, call.size());
+        assertFalse(call.get(1).isDirect());
+        assertEquals(large.length(), call.get(1).capacity());
+
+        String written = channel.written.toString(StandardCharsets.ISO_8859_1);
+        assertThat(written, containsString("\r\n\r\n" + large + "HTTP/1.1 200 OK\r\n"));
+        assertTrue(written.endsWith("\r\n\r\nafter"));
+    }
+
+    @Test
+    @DisplayName("Responses that don't fit the staging buffer together are split over several writes")
+    void testStagingBufferOverflow() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+        ResponseWriter writer = new ResponseWriter(channel);
+        String body = "y".repeat(ResponseWriter.STAGING_BUFFER_SIZE / 2);
+
+        for (int i = 0; i < 3; i++) {
+            writer.add(createResponse(body), true);
+        }
+        writer.flush();
+
+        assertTrue(channel.calls.size() > 1);
+        String written = channel.written.toString(StandardCharsets.ISO_8859_1);
+        assertEquals(3, written.split("HTTP/1.1 200 OK").length - 1);
+        assertTrue(written.endsWith(body));
+    }
+
+    @Test
+    @DisplayName("Buffers ending in an empty one, like a frame without payload, are still written")
+    void testTrailingEmptyBuffer() throws Exception {
+        RecordingChannel channel = new RecordingChannel();
+
+        ResponseWriter.writeFully(channel, new ByteBuffer[]{ByteBuffer.wrap("head".getBytes(StandardCharsets.US_ASCII)), ByteBuffer.allocate(0)});
+
+        assertEquals("head", channel.written.toString(StandardCharsets.US_ASCII));
+    }
+}
@@ -1,8 +1,15 @@
 package org.usrv.http;
 
 import org.junit.jupiter.api.*;
+import org.usrv.config.CacheConfig;
+import org.usrv.config.ConnectionConfig;
 import org.usrv.config.ServerConfig;
+import org.usrv.config.TlsConfig;
+import org.usrv.http2.Frame;
+import org.usrv.http2.HpackDecoder;
+import org.usrv.http2.HpackEncoder;
 
+import javax.net.ssl.SSLContext;
 import java.io.*;
 import java.net.Socket;
 import java.net.URI;
@@ -10,6 +17,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,7 +26,9 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -110,6 +121,98 @@ class ServerTests {
         }
     }
 
+    @Test
+    @DisplayName("Server can be started with the NIO engine")
+    void serverWithNioEngine() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 83, false)
+                .withEngine(ServerConfig.Engine.NIO)
+                .withEventLoopThreads(2);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        try {
+            Thread.sleep(500);
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:83"))
+                    .GET()
+                    .build();
+
+            HttpResponse<String> response = httpClient.send(request,
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertThat(response.body(), containsString(TEST_CONTENT));
+
+            // Two pipelined requests on one keep-alive connection, the second one closing it
+            try (Socket socket = new Socket("localhost", 83);
+                 PrintStream out = new PrintStream(socket.getOutputStream(), true)) {
+
+                out.print("GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n");
+                out.print("GET /notafile.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                out.flush();
+
+                // The connection is closed after the second response, so everything can be read at once
+                String responses = new String(socket.getInputStream().readAllBytes());
+
+                int ok = responses.indexOf("HTTP/1.1 200 OK");
+                int notFound = responses.indexOf("HTTP/1.1 404 Not Found");
+                assertTrue(ok >= 0, "Expected a 200 response for the first request");
+                assertTrue(notFound > ok, "Expected a 404 response after the first response");
+            }
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("The NIO engine answers cache misses on workers, keeping pipelined responses in order")
+    void nioServerRespondsToMissesInOrder() throws Exception {
+        Path distDirectory = Path.of("./TEST_DIST/nio-misses");
+        Files.createDirectories(distDirectory);
+        Files.writeString(distDirectory.resolve("first.txt"), "first");
+        Files.writeString(distDirectory.resolve("second.txt"), "second");
+        Files.writeString(distDirectory.resolve("third.txt"), "third");
+
+        ServerConfig config = new ServerConfig(distDirectory.toString(), 101, false)
+                .withEngine(ServerConfig.Engine.NIO)
+                .withEventLoopThreads(1);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        try {
+            Thread.sleep(500);
+
+            // The second file is cached, so its response is ready before the misses around it
+            try (Socket socket = new Socket("localhost", 101)) {
+                socket.getOutputStream().write("GET /second.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                socket.getInputStream().readAllBytes();
+            }
+
+            try (Socket socket = new Socket("localhost", 101)) {
+                socket.getOutputStream().write((
+                        "GET /first.txt HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n" +
+                        "GET /second.txt HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n" +
+                        "GET /missing.txt HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n" +
+                        "GET /third.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                ).getBytes(StandardCharsets.US_ASCII));
+
+                String responses = new String(socket.getInputStream().readAllBytes());
+
+                int first = responses.indexOf("\nfirst");
+                int second = responses.indexOf("\nsecond");
+                int missing = responses.indexOf("HTTP/1.1 404 Not Found");
+                int third = responses.indexOf("\nthird");
+                assertTrue(first >= 0, responses);
+                assertTrue(second > first, responses);
+                assertTrue(missing > second, responses);
+                assertTrue(third > missing, responses);
+            }
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
     @Test
     @DisplayName("Server can respond with an image")
     public void testImageEndpoint() throws IOException, InterruptedException, NoSuchAlgorithmException {
@@ -141,6 +244,672 @@ class ServerTests {
         assertArrayEquals(expectedHash, responseHash, "Image file hash doesn't match expected hash");
     }
 
+    @Test
+    @DisplayName("Files above the streaming threshold are streamed from disk and not cached")
+    void serverStreamsLargeFiles() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 84, false)
+                .withStreamingThreshold(1024);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Path imagePath = Paths.get("src", "test", "resources", "testImage.jpg");
+        Path streamedPath = defaultDistDirectory.resolve("streamed.jpg");
+        Files.copy(imagePath, streamedPath);
+
+        try {
+            Thread.sleep(500);
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:84/streamed.jpg"))
+                    .GET()
+                    .build();
+
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+            assertEquals(200, response.statusCode());
+            assertArrayEquals(Files.readAllBytes(imagePath), response.body());
+
+            // Streamed files are read from disk for every request
+            byte[] replacement = new byte[4096];
+            Arrays.fill(replacement, (byte) 7);
+            Files.write(streamedPath, replacement);
+
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+            assertArrayEquals(replacement, response.body());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("A preloaded server answers from memory without touching the dist folder")
+    void serverWithPreloadedCache() throws Exception {
+        Path preloadDirectory = Path.of("./TEST_DIST/preload");
+        Files.createDirectories(preloadDirectory.resolve("assets"));
+        Files.writeString(preloadDirectory.resolve("index.html"), TEST_CONTENT);
+        Files.writeString(preloadDirectory.resolve("assets/app.js"), "console.log('app')");
+
+        ServerConfig config = new ServerConfig(preloadDirectory.toString(), 85, false)
+                .withCache(CacheConfig.getDefaultConfig().withWarmUp(CacheConfig.WarmUp.PRELOAD));
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        try {
+            Thread.sleep(1000);
+            assertEquals(2, customServerAndThread.server().getCache().stats().entries());
+
+            Files.delete(preloadDirectory.resolve("assets/app.js"));
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:85/assets/app.js"))
+                    .GET()
+                    .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            assertEquals("console.log('app')", response.body());
+
+            Files.writeString(preloadDirectory.resolve("late.txt"), "Added after startup");
+            request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:85/late.txt"))
+                    .GET()
+                    .build();
+
+            assertEquals(404, httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Ranges of streamed files are sent from the file")
+    void serverStreamsRanges() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 86, false)
+                .withStreamingThreshold(1024);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Path imagePath = Paths.get("src", "test", "resources", "testImage.jpg");
+        byte[] image = Files.readAllBytes(imagePath);
+        Files.write(defaultDistDirectory.resolve("ranged.jpg"), image);
+
+        try {
+            Thread.sleep(500);
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:86/ranged.jpg"))
+                    .header("Range", "bytes=1000-1999")
+                    .GET()
+                    .build();
+
+            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+            assertEquals(206, response.statusCode());
+            assertEquals("bytes 1000-1999/" + image.length, response.headers().firstValue("Content-Range").orElseThrow());
+            assertArrayEquals(Arrays.copyOfRange(image, 1000, 2000), response.body());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Files above the mapping threshold are served from a mapping")
+    void serverServesMappedFiles() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 87, false)
+                .withMappingThreshold(1024);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Path imagePath = Paths.get("src", "test", "resources", "testImage.jpg");
+        byte[] image = Files.readAllBytes(imagePath);
+        Files.write(defaultDistDirectory.resolve("mapped.jpg"), image);
+
+        try {
+            Thread.sleep(500);
+
+            for (int i = 0; i < 2; i++) {
+                HttpRequest request = HttpRequest.newBuilder()
+                        .uri(URI.create("http://localhost:87/mapped.jpg"))
+                        .GET()
+                        .build();
+
+                HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+                assertEquals(200, response.statusCode());
+                assertArrayEquals(image, response.body());
+            }
+
+            HttpRequest rangeRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:87/mapped.jpg"))
+                    .header("Range", "bytes=-100")
+                    .GET()
+                    .build();
+
+            HttpResponse<byte[]> rangeResponse = httpClient.send(rangeRequest, HttpResponse.BodyHandlers.ofByteArray());
+
+            assertEquals(206, rangeResponse.statusCode());
+            assertArrayEquals(Arrays.copyOfRange(image, image.length - 100, image.length), rangeResponse.body());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Clients can upgrade to HTTP/2 and send requests concurrently over one connection")
+    void serverUpgradesToHttp2() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 88, false)
+                .withHttp2(true);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Path imagePath = Paths.get("src", "test", "resources", "testImage.jpg");
+        byte[] image = Files.readAllBytes(imagePath);
+        Files.write(defaultDistDirectory.resolve("h2.jpg"), image);
+
+        try (HttpClient h2Client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build()) {
+            Thread.sleep(500);
+
+            // The first request upgrades the connection, the rest are streams on it
+            HttpResponse<String> upgraded = h2Client.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:88/index.html")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            assertEquals(HttpClient.Version.HTTP_2, upgraded.version());
+            assertEquals(TEST_CONTENT, upgraded.body());
+
+            var futures = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+            for (int i = 0; i < 50; i++) {
+                String path = i % 5 == 0 ? "/missing.txt" : "/h2.jpg";
+                futures.add(h2Client.sendAsync(
+                        HttpRequest.newBuilder(URI.create("http://localhost:88" + path)).GET().build(),
+                        HttpResponse.BodyHandlers.ofByteArray()
+                ));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+            for (int i = 0; i < futures.size(); i++) {
+                HttpResponse<byte[]> response = futures.get(i).get();
+                assertEquals(HttpClient.Version.HTTP_2, response.version());
+                if (i % 5 == 0) {
+                    assertEquals(404, response.statusCode());
+                } else {
+                    assertEquals(200, response.statusCode());
+                    assertEquals("image/jpeg", response.headers().firstValue("Content-Type").orElseThrow());
+                    assertArrayEquals(image, response.body());
+                }
+            }
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("HTTP/2 with prior knowledge sends DATA within the client's flow control window")
+    void serverSpeaksHttp2WithPriorKnowledge() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 89, false)
+                .withHttp2(true);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Thread.sleep(500);
+        try (Socket socket = new Socket("localhost", 89)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // A window of 16 bytes per stream, so the body has to wait for a WINDOW_UPDATE
+            ByteBuffer settings = ByteBuffer.allocate(6).putShort((short) Frame.SETTINGS_INITIAL_WINDOW_SIZE).putInt(16);
+            byte[] block = new HpackEncoder()
+                    .add(":method", "GET")
+                    .add(":scheme", "http")
+                    .add(":path", "/index.html")
+                    .add(":authority", "localhost")
+                    .toByteArray();
+
+            out.write(Frame.CLIENT_PREFACE);
+            writeFrame(out, Frame.SETTINGS, 0, 0, settings.array());
+            writeFrame(out, Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 1, block);
+
+            HpackDecoder decoder = new HpackDecoder(4096, 65536);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            boolean ended = false;
+            boolean windowUpdated = false;
+            int status = 0;
+
+            while (!ended) {
+                Frame frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+                assertNotNull(frame);
+
+                if (frame.type() == Frame.HEADERS) {
+                    assertEquals(1, frame.streamId());
+                    status = Integer.parseInt(decoder.decode(frame.content()).getFirst().value());
+                } else if (frame.type() == Frame.DATA) {
+                    assertEquals(1, frame.streamId());
+                    body.writeBytes(frame.content());
+                    ended = frame.hasFlag(Frame.FLAG_END_STREAM);
+
+                    if (!windowUpdated) {
+                        assertEquals(16, body.size());
+                        windowUpdated = true;
+                        writeFrame(out, Frame.WINDOW_UPDATE, 0, 1, ByteBuffer.allocate(4).putInt(1024).array());
+                    }
+                }
+            }
+
+            assertEquals(200, status);
+            assertEquals(TEST_CONTENT, body.toString(StandardCharsets.UTF_8));
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("HTTP/2 clients get their SETTINGS acknowledged")
+    void serverAcknowledgesHttp2Settings() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 102, false)
+                .withHttp2(true);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Thread.sleep(500);
+        try (Socket socket = new Socket("localhost", 102)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write(Frame.CLIENT_PREFACE);
+            writeFrame(out, Frame.SETTINGS, 0, 0, ByteBuffer.allocate(6).putShort((short) Frame.SETTINGS_MAX_CONCURRENT_STREAMS).putInt(10).array());
+
+            // The server's own SETTINGS come first, the ACK has no payload
+            Frame frame;
+            do {
+                frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+                assertNotNull(frame, "Connection closed before the SETTINGS were acknowledged");
+            } while (frame.type() != Frame.SETTINGS || !frame.hasFlag(Frame.FLAG_ACK));
+
+            assertEquals(0, frame.streamId());
+            assertEquals(0, frame.payload().length);
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("HTML pages are preceded by 103 Early Hints for the assets they link")
+    void serverSendsEarlyHints() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 90, false)
+                .withEarlyHints(true);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        String page = "<html><head><script type=\"module\" src=\"/assets/app.js\"></script></head></html>";
+        Files.writeString(defaultDistDirectory.resolve("hinted.html"), page);
+
+        try {
+            Thread.sleep(500);
+
+            try (Socket socket = new Socket("localhost", 90);
+                 OutputStream out = socket.getOutputStream();
+                 InputStream in = socket.getInputStream()) {
+                out.write("GET /hinted.html HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                String response = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+
+                assertTrue(response.startsWith("HTTP/1.1 103 Early Hints\r\nLink: </assets/app.js>; rel=modulepreload\r\n\r\n"), response);
+                assertThat(response, containsString("HTTP/1.1 200 OK"));
+                assertTrue(response.endsWith(page), response);
+            }
+
+            // Clients that don't act on hints skip them
+            HttpResponse<String> response = httpClient.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:90/hinted.html")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            assertEquals(200, response.statusCode());
+            assertEquals(page, response.body());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Server terminates TLS, agreeing on HTTP/2 or HTTP/1.1 with ALPN")
+    void serverTerminatesTls() throws Exception {
+        Path keyStore = TlsChannelTests.createKeyStore(defaultDistDirectory.getParent());
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 91, false)
+                .withHttp2(true)
+                .withTls(new TlsConfig(keyStore, TlsChannelTests.KEY_STORE_PASSWORD));
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        try {
+            Thread.sleep(500);
+            SSLContext sslContext = TlsChannelTests.trustingContext(keyStore);
+            HttpRequest request = HttpRequest.newBuilder(URI.create("https://localhost:91/index.html")).GET().build();
+
+            for (HttpClient.Version version : HttpClient.Version.values()) {
+                try (HttpClient client = HttpClient.newBuilder().sslContext(sslContext).version(version).build()) {
+                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+                    assertEquals(200, response.statusCode());
+                    assertEquals(version, response.version());
+                    assertEquals(TEST_CONTENT, response.body());
+                }
+            }
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("NIO engine terminates TLS, also for files streamed from disk")
+    void nioServerTerminatesTls() throws Exception {
+        Path keyStore = TlsChannelTests.createKeyStore(defaultDistDirectory.getParent());
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 92, false)
+                .withEngine(ServerConfig.Engine.NIO)
+                .withEventLoopThreads(1)
+                .withStreamingThreshold(64 * 1024)
+                .withTls(new TlsConfig(keyStore, TlsChannelTests.KEY_STORE_PASSWORD));
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        byte[] large = new byte[1024 * 1024];
+        new java.util.Random(42).nextBytes(large);
+        Files.write(defaultDistDirectory.resolve("large-tls.bin"), large);
+
+        try (HttpClient client = HttpClient.newBuilder().sslContext(TlsChannelTests.trustingContext(keyStore)).build()) {
+            Thread.sleep(500);
+
+            HttpResponse<String> page = client.send(
+                    HttpRequest.newBuilder(URI.create("https://localhost:92/index.html")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            assertEquals(200, page.statusCode());
+            // Only HTTP/1.1 is offered, the client falls back to it
+            assertEquals(HttpClient.Version.HTTP_1_1, page.version());
+            assertEquals(TEST_CONTENT, page.body());
+
+            HttpResponse<byte[]> file = client.send(
+                    HttpRequest.newBuilder(URI.create("https://localhost:92/large-tls.bin")).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray()
+            );
+            assertEquals(200, file.statusCode());
+            assertArrayEquals(large, file.body());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("At the connection limit, idle connections are shed and new ones get a 503 if none is idle")
+    void serverLimitsConnections() throws Exception {
+        for (ServerConfig.Engine engine : ServerConfig.Engine.values()) {
+            int port = engine == ServerConfig.Engine.BLOCKING ? 93 : 94;
+            ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), port, false)
+                    .withEngine(engine)
+                    .withEventLoopThreads(1)
+                    .withConnections(new ConnectionConfig(1, 0, 0, ConnectionConfig.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+            ServerAndThread customServerAndThread = startServerInNewThread(config);
+            String request = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n";
+
+            try {
+                Thread.sleep(500);
+
+                try (Socket first = new Socket("localhost", port)) {
+                    first.setSoTimeout(5000);
+                    Thread.sleep(200);
+
+                    // The first connection hasn't sent a request yet, so it isn't idle
+                    try (Socket second = new Socket("localhost", port)) {
+                        String response = new String(second.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+                        assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable"), engine + ": " + response);
+                        assertThat(response, containsString("Retry-After: 1"));
+                    }
+
+                    first.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+                    assertTrue(readResponseHead(first.getInputStream()).startsWith("HTTP/1.1 200 OK"));
+                    first.getInputStream().readNBytes(TEST_CONTENT.length());
+                    Thread.sleep(200);
+
+                    // Now it waits for a next request and makes room
+                    try (Socket third = new Socket("localhost", port)) {
+                        third.setSoTimeout(5000);
+                        third.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+                        assertTrue(readResponseHead(third.getInputStream()).startsWith("HTTP/1.1 200 OK"), engine.toString());
+                        assertEquals(-1, first.getInputStream().read(), engine + ": the idle connection is closed");
+                    }
+                }
+
+                ConnectionStats stats = customServerAndThread.server().getConnectionLimiter().stats();
+                assertEquals(1, stats.rejected(), engine.toString());
+                assertEquals(1, stats.shed(), engine.toString());
+            } finally {
+                customServerAndThread.server().stop();
+                customServerAndThread.thread().join(1000);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Stopping closes idle connections at once, answers requests in flight and closes the rest at the deadline")
+    void serverDrainsConnectionsOnStop() throws Exception {
+        for (ServerConfig.Engine engine : ServerConfig.Engine.values()) {
+            int port = engine == ServerConfig.Engine.BLOCKING ? 95 : 96;
+            ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), port, false)
+                    .withEngine(engine)
+                    .withEventLoopThreads(1)
+                    .withConnections(ConnectionConfig.getDefaultConfig().withDrainTimeoutMillis(1000));
+            ServerAndThread customServerAndThread = startServerInNewThread(config);
+            String request = "GET /index.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n";
+
+            Thread.sleep(500);
+            try (
+                    Socket idle = new Socket("localhost", port);
+                    Socket inFlight = new Socket("localhost", port);
+                    Socket silent = new Socket("localhost", port)
+            ) {
+                for (Socket socket : new Socket[]{idle, inFlight, silent}) {
+                    socket.setSoTimeout(5000);
+                }
+                idle.getOutputStream().write((request + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                assertTrue(readResponseHead(idle.getInputStream()).startsWith("HTTP/1.1 200 OK"));
+                idle.getInputStream().readNBytes(TEST_CONTENT.length());
+                // The end of the headers is still to come
+                inFlight.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(200);
+
+                long start = System.nanoTime();
+                CompletableFuture<Void> stopping = CompletableFuture.runAsync(() -> customServerAndThread.server().stop());
+
+                assertEquals(-1, idle.getInputStream().read(), engine + ": the idle connection is closed");
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000), engine.toString());
+
+                inFlight.getOutputStream().write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                String response = new String(inFlight.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+                assertTrue(response.startsWith("HTTP/1.1 200 OK"), engine + ": " + response);
+                assertThat(response, containsString("Connection: close"));
+                assertThat(response, containsString(TEST_CONTENT));
+
+                assertEquals(-1, silent.getInputStream().read(), engine + ": closed at the deadline");
+                stopping.get(5, TimeUnit.SECONDS);
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(3000), engine.toString());
+            } finally {
+                customServerAndThread.thread().join(1000);
+            }
+
+            assertFalse(customServerAndThread.thread().isAlive(), engine.toString());
+            assertThrows(IOException.class, () -> new Socket("localhost", port).close());
+        }
+    }
+
+    @Test
+    @DisplayName("Stopping sends HTTP/2 clients a GOAWAY, and finishes the streams already open")
+    void serverSendsGoAwayOnStop() throws Exception {
+        ServerConfig config = new ServerConfig(defaultDistDirectory.toString(), 97, false)
+                .withHttp2(true);
+        ServerAndThread customServerAndThread = startServerInNewThread(config);
+
+        Thread.sleep(500);
+        try (Socket socket = new Socket("localhost", 97)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            // A window of 16 bytes per stream keeps the response in flight until a WINDOW_UPDATE
+            ByteBuffer settings = ByteBuffer.allocate(6).putShort((short) Frame.SETTINGS_INITIAL_WINDOW_SIZE).putInt(16);
+            byte[] block = new HpackEncoder()
+                    .add(":method", "GET")
+                    .add(":scheme", "http")
+                    .add(":path", "/index.html")
+                    .add(":authority", "localhost")
+                    .toByteArray();
+
+            out.write(Frame.CLIENT_PREFACE);
+            writeFrame(out, Frame.SETTINGS, 0, 0, settings.array());
+            writeFrame(out, Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 1, block);
+
+            Frame frame;
+            do {
+                frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+                assertNotNull(frame);
+            } while (frame.type() != Frame.DATA);
+
+            CompletableFuture<Void> stopping = CompletableFuture.runAsync(() -> customServerAndThread.server().stop());
+
+            do {
+                frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+                assertNotNull(frame);
+            } while (frame.type() != Frame.GOAWAY);
+            ByteBuffer goAway = ByteBuffer.wrap(frame.content());
+            assertEquals(1, goAway.getInt(), "last stream answered");
+            assertEquals(Frame.NO_ERROR, goAway.getInt());
+
+            // Beyond the GOAWAY, so ignored
+            writeFrame(out, Frame.HEADERS, Frame.FLAG_END_HEADERS | Frame.FLAG_END_STREAM, 3, new HpackEncoder()
+                    .add(":method", "GET")
+                    .add(":scheme", "http")
+                    .add(":path", "/index.html")
+                    .add(":authority", "localhost")
+                    .toByteArray());
+            writeFrame(out, Frame.WINDOW_UPDATE, 0, 1, ByteBuffer.allocate(4).putInt(1024).array());
+
+            boolean ended = false;
+            while ((frame = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE)) != null) {
+                assertNotEquals(3, frame.streamId());
+                ended |= frame.type() == Frame.DATA && frame.hasFlag(Frame.FLAG_END_STREAM);
+            }
+            assertTrue(ended, "stream 1 completed before the connection was closed");
+
+            stopping.get(5, TimeUnit.SECONDS);
+        } finally {
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Server exposes request, cache and connection metrics in Prometheus format on the admin port")
+    void serverExposesMetrics() throws Exception {
+        ServerAndThread customServerAndThread = startServerInNewThread(
+                new ServerConfig(defaultDistDirectory.toString(), 99, false).withAdminPort(9099)
+        );
+
+        try {
+            Thread.sleep(500);
+
+            for (String path : new String[]{"/index.html", "/index.html", "/missing.html"}) {
+                HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:99" + path)).GET().build();
+                httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            }
+
+            HttpResponse<String> metrics;
+            // A client that connects and goes quiet must not hold up the scrape behind it
+            try (Socket silentClient = new Socket("localhost", 9099)) {
+                metrics = httpClient.send(
+                        HttpRequest.newBuilder().uri(URI.create("http://localhost:9099/metrics"))
+                                .timeout(Duration.ofSeconds(2))
+                                .GET()
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString()
+                );
+            }
+            assertEquals(200, metrics.statusCode());
+            assertThat(metrics.headers().firstValue("Content-Type").orElse(""), containsString("version=0.0.4"));
+            assertThat(metrics.body(), containsString("usrv_responses_total{code=\"200\"} 2\n"));
+            assertThat(metrics.body(), containsString("usrv_responses_total{code=\"404\"} 1\n"));
+            assertThat(metrics.body(), containsString("usrv_response_body_bytes_total " + 2 * TEST_CONTENT.length() + "\n"));
+            assertThat(metrics.body(), containsString("usrv_request_duration_seconds_count{cache=\"hit\"} 1\n"));
+            assertThat(metrics.body(), containsString("usrv_request_duration_seconds_count{cache=\"miss\"} 2\n"));
+            assertThat(metrics.body(), containsString("usrv_cache_entries 1\n"));
+            assertThat(metrics.body(), containsString("# TYPE usrv_connections_open gauge\n"));
+
+            HttpResponse<String> other = httpClient.send(
+                    HttpRequest.newBuilder().uri(URI.create("http://localhost:9099/")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()
+            );
+            assertEquals(404, other.statusCode());
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+    }
+
+    @Test
+    @DisplayName("Server writes a line per response to the access log")
+    void serverWritesAccessLog() throws Exception {
+        Path accessLog = Path.of("./TEST_DIST/access.log");
+        Files.deleteIfExists(accessLog);
+        ServerAndThread customServerAndThread = startServerInNewThread(
+                new ServerConfig(defaultDistDirectory.toString(), 103, false).withAccessLog(accessLog)
+        );
+
+        try {
+            Thread.sleep(500);
+
+            for (String path : new String[]{"/index.html", "/index.html", "/missing.html"}) {
+                HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:103" + path)).GET().build();
+                httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            }
+        } finally {
+            customServerAndThread.server().stop();
+            customServerAndThread.thread().join(1000);
+        }
+
+        try {
+            // Written out when the server stops
+            List<String> lines = Files.readAllLines(accessLog);
+            assertEquals(3, lines.size());
+            assertThat(lines.get(0), containsString(" GET /index.html HTTP/1.1 200 " + TEST_CONTENT.length()));
+            assertThat(lines.get(2), containsString(" GET /missing.html HTTP/1.1 404 0"));
+        } finally {
+            Files.deleteIfExists(accessLog);
+        }
+    }
+
+    private static String readResponseHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        out.write(Frame.header(payload.length, type, flags, streamId).array());
+        out.write(payload);
+        out.flush();
+    }
+
     @Test
     @DisplayName("A server can be run with SPA configuration")
     void serverWithSPAConfig() throws Exception {
@@ -427,6 +1196,106 @@ class ServerTests {
         }
     }
 
+    @Test
+    @DisplayName("Server doesn't send a body for a HEAD request to a cached file")
+    void serverRespondsWithHeadersForCachedFile() throws Exception {
+        Files.writeString(Path.of(defaultDistDirectory.toString(), "cached.txt"), "Cached content");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/cached.txt"))
+                .GET()
+                .build();
+        assertEquals(200, httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        try (Socket socket = new Socket("localhost", 80)) {
+            OutputStream out = socket.getOutputStream();
+            out.write("HEAD /cached.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes());
+            out.flush();
+
+            String response = new String(socket.getInputStream().readAllBytes());
+
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertThat(response, containsString("Content-Length: 14\r\n"));
+            assertTrue(response.endsWith("\r\n\r\n"), "HEAD response should not contain a body");
+        }
+    }
+
+    @Test
+    @DisplayName("Server sends a gzipped body to clients that accept it")
+    void serverRespondsWithGzip() throws Exception {
+        String script = "console.log('usrv');\n".repeat(100);
+        Files.writeString(Path.of(defaultDistDirectory.toString(), "bundle.js"), script);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/bundle.js"))
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElseThrow());
+        assertEquals("Accept-Encoding", response.headers().firstValue("Vary").orElseThrow());
+        try (InputStream in = new java.util.zip.GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            assertEquals(script, new String(in.readAllBytes()));
+        }
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/bundle.js"))
+                .GET()
+                .build();
+
+        HttpResponse<String> identity = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        assertTrue(identity.headers().firstValue("Content-Encoding").isEmpty());
+        assertEquals(script, identity.body());
+    }
+
+    @Test
+    @DisplayName("Server answers conditional requests for unchanged files with 304")
+    void serverRespondsWithNotModified() throws Exception {
+        Files.writeString(Path.of(defaultDistDirectory.toString(), "revalidated.txt"), "Revalidated content");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/revalidated.txt"))
+                .GET()
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+        String lastModified = response.headers().firstValue("Last-Modified").orElseThrow();
+
+        HttpRequest ifNoneMatch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/revalidated.txt"))
+                .header("If-None-Match", "\"other\", " + etag)
+                .GET()
+                .build();
+        HttpResponse<String> notModified = httpClient.send(ifNoneMatch, HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(304, notModified.statusCode());
+        assertEquals(etag, notModified.headers().firstValue("ETag").orElseThrow());
+        assertEquals("", notModified.body());
+
+        HttpRequest ifModifiedSince = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/revalidated.txt"))
+                .header("If-Modified-Since", lastModified)
+                .GET()
+                .build();
+        assertEquals(304, httpClient.send(ifModifiedSince, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest stale = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:80/revalidated.txt"))
+                .header("If-None-Match", "\"stale\"")
+                .header("If-Modified-Since", lastModified)
+                .GET()
+                .build();
+        HttpResponse<String> full = httpClient.send(stale, HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, full.statusCode());
+        assertEquals("Revalidated content", full.body());
+    }
+
     @Test
     @DisplayName("Server should respond with 'Connection: keep-alive' in the header")
     void testKeepAliveHeader() throws IOException {
@@ -476,6 +1345,35 @@ class ServerTests {
         assertEquals("close", connectionHeader, "Server did not return 'Connection: close'");
     }
 
+    @Test
+    @DisplayName("Pipelined requests are all answered, in order")
+    void testPipelinedRequests() throws IOException {
+        Files.writeString(Path.of(defaultDistDirectory.toString(), "first.txt"), "First");
+        Files.writeString(Path.of(defaultDistDirectory.toString(), "second.txt"), "Second");
+
+        try (Socket socket = new Socket("localhost", 80);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = socket.getInputStream()) {
+
+            String requests = "GET /first.txt HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n"
+                    + "GET /missing.txt HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n"
+                    + "GET /second.txt HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+            out.write(requests.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            String responses = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+
+            int first = responses.indexOf("HTTP/1.1 200");
+            int missing = responses.indexOf("HTTP/1.1 404");
+            int second = responses.lastIndexOf("HTTP/1.1 200");
+            assertTrue(first >= 0 && first < missing && missing < second, responses);
+            assertTrue(responses.indexOf("First") < missing, responses);
+            assertTrue(responses.endsWith("Second"), responses);
+            assertEquals(2, responses.split("Connection: keep-alive").length - 1);
+            assertThat(responses.substring(second), containsString("Connection: close"));
+        }
+    }
+
     @Test
     @DisplayName("Server should keep connection alive for multiple requests if the client requests it")
     void testKeepAliveConnection() throws IOException {
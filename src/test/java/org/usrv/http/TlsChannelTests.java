@@ -0,0 +1,178 @@
+package org.usrv.http;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.config.TlsConfig;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TlsChannelTests {
+    static final String KEY_STORE_PASSWORD = "changeit";
+
+    private Path keyStore;
+    private TlsContext tlsContext;
+    private SSLContext clientContext;
+    private ServerSocketChannel serverChannel;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Generates a self-signed certificate for localhost with the JDK's keytool.
+     */
+    static Path createKeyStore(Path directory) throws IOException, InterruptedException {
+        Path keyStore = directory.resolve("localhost.p12");
+        Files.deleteIfExists(keyStore);
+
+        Process keytool = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localhost",
+                "-keyalg", "EC", "-groupname", "secp256r1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(), "-storepass", KEY_STORE_PASSWORD,
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1"
+        ).redirectErrorStream(true).start();
+        String output = new String(keytool.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, keytool.waitFor(), output);
+
+        return keyStore;
+    }
+
+    /**
+     * @return a client context that trusts the key store's certificate
+     */
+    static SSLContext trustingContext(Path keyStore) throws IOException, GeneralSecurityException {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(KeyStore.getInstance(keyStore.toFile(), KEY_STORE_PASSWORD.toCharArray()));
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    @BeforeAll
+    void setup() throws Exception {
+        keyStore = createKeyStore(Files.createTempDirectory("usrv-tls"));
+        tlsContext = TlsContext.create(new TlsConfig(keyStore, KEY_STORE_PASSWORD));
+        clientContext = trustingContext(keyStore);
+
+        serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        executor.submit(() -> {
+            echo();
+            return null;
+        });
+    }
+
+    @AfterAll
+    void cleanup() throws Exception {
+        serverChannel.close();
+        executor.shutdownNow();
+        Files.deleteIfExists(keyStore);
+        Files.deleteIfExists(keyStore.getParent());
+    }
+
+    /**
+     * Accepts connections and sends back the first bytes each one reads.
+     */
+    private void echo() throws IOException {
+        while (true) {
+            SocketChannel socket = serverChannel.accept();
+            executor.submit(() -> {
+                try (TlsChannel tls = new TlsChannel(socket, socket, tlsContext.createEngine(true))) {
+                    tls.handshake();
+                    ByteBuffer buffer = ByteBuffer.allocate(64);
+                    ByteBuffer protocol = ByteBuffer.wrap((tls.getApplicationProtocol() + " ").getBytes(StandardCharsets.US_ASCII));
+                    tls.read(buffer);
+                    tls.write(new ByteBuffer[]{protocol, buffer.flip()});
+                }
+                return null;
+            });
+        }
+    }
+
+    private SSLSocket connect(String protocol, String... applicationProtocols) throws IOException {
+        int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", port);
+        socket.setSoTimeout(5000);
+
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setProtocols(new String[]{protocol});
+        parameters.setApplicationProtocols(applicationProtocols);
+        socket.setSSLParameters(parameters);
+
+        return socket;
+    }
+
+    private static String exchange(SSLSocket socket, String message) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(message.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    @DisplayName("Decrypts what the client sends and encrypts the answer")
+    void testRoundTrip() throws Exception {
+        try (SSLSocket socket = connect("TLSv1.3", "http/1.1")) {
+            assertEquals("http/1.1 hello", exchange(socket, "hello"));
+        }
+    }
+
+    @Test
+    @DisplayName("Agrees on h2 with ALPN when the client offers it")
+    void testAlpn() throws Exception {
+        try (SSLSocket socket = connect("TLSv1.3", "h2", "http/1.1")) {
+            assertEquals("h2 hello", exchange(socket, "hello"));
+            assertEquals("h2", socket.getApplicationProtocol());
+        }
+
+        try (SSLSocket socket = connect("TLSv1.3")) {
+            // No ALPN extension at all
+            assertEquals(" hello", exchange(socket, "hello"));
+        }
+    }
+
+    @Test
+    @DisplayName("Resumes sessions with TLS 1.3 and TLS 1.2 clients")
+    void testResumption() throws Exception {
+        for (String protocol : new String[]{"TLSv1.3", "TLSv1.2"}) {
+            SSLSession first;
+            try (SSLSocket socket = connect(protocol, "http/1.1")) {
+                exchange(socket, "first");
+                first = socket.getSession();
+            }
+
+            try (SSLSocket socket = connect(protocol, "http/1.1")) {
+                assertEquals("http/1.1 second", exchange(socket, "second"));
+                SSLSession second = socket.getSession();
+
+                assertEquals(protocol, second.getProtocol());
+                // A resumed session carries over the original's creation time, a new one would get its own
+                assertEquals(first.getCreationTime(), second.getCreationTime(), protocol);
+            }
+        }
+    }
+}
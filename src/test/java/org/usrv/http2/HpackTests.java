@@ -0,0 +1,77 @@
+package org.usrv.http2;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.usrv.exceptions.Http2Exception;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class HpackTests {
+    private static final List<Header> EXAMPLE_REQUEST = List.of(
+            new Header(":method", "GET"),
+            new Header(":scheme", "http"),
+            new Header(":path", "/"),
+            new Header(":authority", "www.example.com")
+    );
+
+    @Test
+    @DisplayName("Decodes a request with literal strings (RFC 7541, C.3.1)")
+    void testDecodeLiterals() {
+        HpackDecoder decoder = new HpackDecoder(4096, 65536);
+
+        List<Header> headers = decoder.decode(HexFormat.of().parseHex("828684410f7777772e6578616d706c652e636f6d"));
+
+        assertEquals(EXAMPLE_REQUEST, headers);
+    }
+
+    @Test
+    @DisplayName("Decodes Huffman coded strings and reuses dynamic table entries (RFC 7541, C.4.1 and C.4.2)")
+    void testDecodeHuffman() {
+        HpackDecoder decoder = new HpackDecoder(4096, 65536);
+
+        assertEquals(EXAMPLE_REQUEST, decoder.decode(HexFormat.of().parseHex("828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+
+        // :authority now comes from the dynamic table
+        List<Header> second = decoder.decode(HexFormat.of().parseHex("828684be5886a8eb10649cbf"));
+        assertEquals(new Header(":authority", "www.example.com"), second.get(3));
+        assertEquals(new Header("cache-control", "no-cache"), second.get(4));
+    }
+
+    @Test
+    @DisplayName("Decodes what the encoder encodes")
+    void testRoundTrip() {
+        HpackEncoder encoder = new HpackEncoder()
+                .add(":status", "200")
+                .add(":status", "418")
+                .add("content-type", "text/html")
+                .add("x-custom", "value");
+
+        List<Header> headers = new HpackDecoder(4096, 65536).decode(encoder.toByteArray());
+
+        assertEquals(List.of(
+                new Header(":status", "200"),
+                new Header(":status", "418"),
+                new Header("content-type", "text/html"),
+                new Header("x-custom", "value")
+        ), headers);
+        assertEquals(0, encoder.toByteArray().length);
+    }
+
+    @Test
+    @DisplayName("Rejects references past the end of the table and lists over the size limit")
+    void testInvalidBlocks() {
+        HpackDecoder decoder = new HpackDecoder(4096, 65536);
+        Http2Exception error = assertThrows(Http2Exception.class, () -> decoder.decode(new byte[]{(byte) 0xff, 0x00}));
+        assertEquals(Frame.COMPRESSION_ERROR, error.getErrorCode());
+
+        HpackDecoder small = new HpackDecoder(4096, 64);
+        Http2Exception tooLarge = assertThrows(Http2Exception.class,
+                () -> small.decode(HexFormat.of().parseHex("828684410f7777772e6578616d706c652e636f6d")));
+        assertEquals(Frame.PROTOCOL_ERROR, tooLarge.getErrorCode());
+    }
+}
@@ -0,0 +1,147 @@
+package org.usrv.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.*;
+import org.usrv.config.ServerConfig;
+import org.usrv.http.Server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RequestEventsTests {
+    private static final Path distDirectory = Path.of("./TEST_DIST/jfr");
+    private static final int PORT = 100;
+    private static final String CONTENT = "<html><body>Recorded</body></html>";
+
+    private Server server;
+    private Thread serverThread;
+
+    @BeforeAll
+    void setup() throws Exception {
+        Files.createDirectories(distDirectory);
+        Files.writeString(distDirectory.resolve("index.html"), CONTENT);
+        Files.writeString(distDirectory.resolve("notes.usrvtest"), "notes");
+
+        server = new Server(new ServerConfig(distDirectory.toString(), PORT, false));
+        serverThread = new Thread(server::start);
+        serverThread.start();
+        Thread.sleep(500);
+    }
+
+    @AfterAll
+    void tearDown() throws Exception {
+        server.stop();
+        serverThread.join(1000);
+    }
+
+    private static void get(String path) throws Exception {
+        get(PORT, path);
+    }
+
+    private static void get(int port, String path) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            in.readAllBytes();
+        }
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name, Predicate<RecordedEvent> matches) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name) && matches.test(event))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + name + " event recorded"));
+    }
+
+    @Test
+    @DisplayName("Records each phase of a request, and the accept and lifetime of its connection")
+    void testRequestPhases() throws Exception {
+        Path file = Path.of("./TEST_DIST/usrv.jfr");
+
+        try (Recording recording = new Recording()) {
+            for (Class<? extends jdk.jfr.Event> type : List.of(
+                    RequestEvent.class, RequestParseEvent.class, PathResolveEvent.class, CacheLookupEvent.class,
+                    FileReadEvent.class, MimeDetectEvent.class, ResponseWriteEvent.class, AcceptEvent.class,
+                    ConnectionEvent.class
+            )) {
+                recording.enable(type).withoutThreshold();
+            }
+            recording.start();
+
+            get("/index.html");
+            get("/index.html");
+            get("/notes.usrvtest");
+            // The connection event is committed once the server's side is closed too
+            Thread.sleep(200);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+        RecordedEvent miss = find(events, "org.usrv.Request", event -> event.getString("cacheOutcome").equals(RequestEvent.CACHE_MISS));
+        assertEquals("/index.html", miss.getString("path"));
+        assertEquals(200, miss.getInt("status"));
+        assertEquals(CONTENT.length(), miss.getLong("bodyBytes"));
+        find(events, "org.usrv.Request", event -> event.getString("cacheOutcome").equals(RequestEvent.CACHE_HIT));
+
+        assertEquals("GET", find(events, "org.usrv.RequestParse", event -> true).getString("method"));
+        assertTrue(find(events, "org.usrv.PathResolve", event -> true).getString("file").endsWith("index.html"));
+        find(events, "org.usrv.CacheLookup", event -> event.getBoolean("hit"));
+        find(events, "org.usrv.CacheLookup", event -> !event.getBoolean("hit"));
+        assertEquals(CONTENT.length(), find(events, "org.usrv.FileRead", event -> event.getString("file").endsWith("index.html")).getLong("bytes"));
+        assertEquals("notes.usrvtest", find(events, "org.usrv.MimeDetect", event -> true).getString("fileName"));
+        assertEquals(1, find(events, "org.usrv.ResponseWrite", event -> true).getInt("responses"));
+        assertTrue(find(events, "org.usrv.Accept", event -> true).getBoolean("admitted"));
+        assertFalse(find(events, "org.usrv.Connection", event -> true).getBoolean("tls"));
+    }
+
+    @Test
+    @DisplayName("Records the response writes and connection lifetimes of the NIO engine on its event loops")
+    void testNioEngine() throws Exception {
+        int port = 104;
+        Path file = Path.of("./TEST_DIST/usrv-nio.jfr");
+        Server nioServer = new Server(new ServerConfig(distDirectory.toString(), port, false)
+                .withEngine(ServerConfig.Engine.NIO)
+                .withEventLoopThreads(1));
+        Thread nioThread = new Thread(nioServer::start);
+        nioThread.start();
+
+        try (Recording recording = new Recording()) {
+            recording.enable(ResponseWriteEvent.class).withoutThreshold();
+            recording.enable(ConnectionEvent.class).withoutThreshold();
+            Thread.sleep(500);
+            recording.start();
+
+            get(port, "/index.html");
+            Thread.sleep(200);
+
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            nioServer.stop();
+            nioThread.join(1000);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+        RecordedEvent write = find(events, "org.usrv.ResponseWrite", event -> event.getThread().getJavaName().startsWith("usrv-event-loop"));
+        assertEquals(1, write.getInt("responses"));
+        assertEquals(CONTENT.length(), write.getLong("bodyBytes"));
+        RecordedEvent connection = find(events, "org.usrv.Connection", event -> event.getThread().getJavaName().startsWith("usrv-event-loop"));
+        assertFalse(connection.getBoolean("tls"));
+    }
+}
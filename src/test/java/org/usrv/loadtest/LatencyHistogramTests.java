@@ -0,0 +1,79 @@
+package org.usrv.loadtest;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LatencyHistogramTests {
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    @DisplayName("Places each value in a bucket whose values are within 0.1% of it")
+    void testBuckets() {
+        for (long value = 0; value < HOUR; value = value * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(value));
+
+            assertTrue(highest >= value, "Bucket of " + value + " ends below it");
+            assertTrue(highest - value <= value / 1000, "Bucket of " + value + " ends at " + highest);
+            assertTrue(LatencyHistogram.indexOf(value) <= LatencyHistogram.indexOf(value + 1));
+        }
+    }
+
+    @Test
+    @DisplayName("Reports percentiles within 0.1% of the recorded values")
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(HOUR);
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(10_000, histogram.getTotalCount());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 1);
+
+        assertEquals(5_000_000, histogram.valueAtPercentile(50), 5_000);
+        assertEquals(9_900_000, histogram.valueAtPercentile(99), 9_900);
+        assertEquals(9_990_000, histogram.valueAtPercentile(99.9), 9_990);
+        assertEquals(10_000_000, histogram.valueAtPercentile(100));
+    }
+
+    @Test
+    @DisplayName("Adds up histograms, and counts values out of range at the edges")
+    void testAddAndClamp() {
+        LatencyHistogram first = new LatencyHistogram(HOUR);
+        LatencyHistogram second = new LatencyHistogram(HOUR);
+        first.record(-5);
+        first.record(100);
+        second.record(2 * HOUR);
+
+        first.add(second);
+
+        assertEquals(3, first.getTotalCount());
+        assertEquals(0, first.getMin());
+        assertEquals(HOUR, first.getMax());
+        assertEquals(100, first.valueAtPercentile(50));
+        assertThrows(IllegalArgumentException.class, () -> first.add(new LatencyHistogram(1000)));
+    }
+
+    @Test
+    @DisplayName("Reports zeroes and writes a valid distribution without values")
+    void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram(HOUR);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writePercentiles(new PrintStream(bytes, true, StandardCharsets.UTF_8), 1_000_000);
+
+        assertEquals(0, histogram.valueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0.0, histogram.getMean());
+        assertTrue(bytes.toString(StandardCharsets.UTF_8).contains("Total count    =            0"));
+    }
+}
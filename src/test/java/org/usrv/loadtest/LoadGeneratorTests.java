@@ -0,0 +1,97 @@
+package org.usrv.loadtest;
+
+import org.junit.jupiter.api.*;
+import org.usrv.http.Server;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LoadGeneratorTests {
+    private static final Path distDirectory = Path.of("./TEST_DIST/loadtest");
+    private static final int PORT = 98;
+    private static final List<URI> URLS = List.of(
+            URI.create("http://example.com/index.html"),
+            URI.create("http://example.com/app.js")
+    );
+
+    private LoadOptions options;
+    private Server server;
+
+    @BeforeAll
+    void setup() throws Exception {
+        Files.createDirectories(distDirectory);
+        Files.writeString(distDirectory.resolve("index.html"), "<html><body>Load</body></html>");
+        Files.writeString(distDirectory.resolve("app.js"), "console.log('load');".repeat(1000));
+
+        options = LoadOptions.getDefaultOptions(200)
+                .withDurationSeconds(1)
+                .withWarmupSeconds(0)
+                .withConnections(4)
+                .withServe(distDirectory)
+                .withPort(PORT);
+        server = LoadGenerator.startServer(options);
+    }
+
+    @AfterAll
+    void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    @DisplayName("Sends the requests due at the rate over pipelined keep-alive connections, and all get answered")
+    void testKeepAlive() throws Exception {
+        LoadReport report = new LoadGenerator(options.withPipeline(4), URLS).run();
+
+        assertEquals(200, report.sent());
+        assertEquals(200, report.answered());
+        assertEquals(0, report.errors());
+        assertEquals(200, report.latency().getTotalCount());
+        assertTrue(report.latency().valueAtPercentile(50) > 0);
+        assertTrue(report.latency().getMax() >= report.serviceTime().getMax());
+    }
+
+    @Test
+    @DisplayName("Opens a connection per request in new-connection mode")
+    void testNewConnection() throws Exception {
+        LoadReport report = new LoadGenerator(options.withMode(LoadOptions.Mode.NEW_CONNECTION), URLS).run();
+
+        assertEquals(200, report.sent());
+        assertEquals(200, report.answered());
+        assertEquals(0, report.errors());
+    }
+
+    @Test
+    @DisplayName("Counts requests that can't connect as errors")
+    void testErrors() throws Exception {
+        LoadReport report = new LoadGenerator(options.withServe(null).withHost("localhost").withPort(PORT + 1000), URLS).run();
+
+        assertEquals(200, report.sent());
+        assertEquals(0, report.answered());
+        assertEquals(200, report.errors());
+    }
+
+    @Test
+    @DisplayName("Requires the URLs to be on one server unless the host and port are set")
+    void testOneServer() {
+        List<URI> urls = List.of(URI.create("http://localhost:80/"), URI.create("http://localhost:81/"));
+
+        assertThrows(IllegalArgumentException.class, () -> new LoadGenerator(LoadOptions.getDefaultOptions(1), urls));
+        assertDoesNotThrow(() -> new LoadGenerator(LoadOptions.getDefaultOptions(1).withPort(80), urls));
+    }
+
+    @Test
+    @DisplayName("Parses the command line, and rejects pipelining without keep-alive")
+    void testOptions() {
+        LoadOptions parsed = LoadOptions.parse(new String[]{"--rate", "50", "--mode", "new-connection", "--engine", "nio"});
+
+        assertEquals(50.0, parsed.rate());
+        assertEquals(LoadOptions.Mode.NEW_CONNECTION, parsed.mode());
+        assertThrows(IllegalArgumentException.class, () -> LoadOptions.parse(new String[]{"--duration", "5"}));
+        assertThrows(IllegalArgumentException.class, () -> parsed.withPipeline(2));
+    }
+}
@@ -0,0 +1,42 @@
+package org.usrv.loadtest;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.net.URI;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UrlFileTests {
+
+    @Test
+    @DisplayName("Reads URLs, skipping comments and blank lines and substituting variables")
+    void testParse() {
+        List<URI> urls = UrlFile.parse(List.of(
+                "# Front page and assets",
+                "HOST=http://localhost:8080",
+                "",
+                "$(HOST)/",
+                "${HOST}/assets/app.js?v=2",
+                "localhost:8080/style.css"
+        ));
+
+        assertEquals(List.of(
+                URI.create("http://localhost:8080/"),
+                URI.create("http://localhost:8080/assets/app.js?v=2"),
+                URI.create("http://localhost:8080/style.css")
+        ), urls);
+    }
+
+    @Test
+    @DisplayName("Rejects POST lines, other schemes, undefined variables and files without URLs")
+    void testRejects() {
+        assertThrows(IllegalArgumentException.class, () -> UrlFile.parse(List.of("http://localhost/form POST name=value")));
+        assertThrows(IllegalArgumentException.class, () -> UrlFile.parse(List.of("https://localhost/")));
+        assertThrows(IllegalArgumentException.class, () -> UrlFile.parse(List.of("$(HOST)/")));
+        assertThrows(IllegalArgumentException.class, () -> UrlFile.parse(List.of("# nothing")));
+    }
+}
@@ -0,0 +1,55 @@
+package org.usrv.metrics;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PrometheusWriterTests {
+
+    @Test
+    @DisplayName("Writes help and type lines followed by samples with and without labels")
+    void testSamples() {
+        String text = new PrometheusWriter()
+                .family("usrv_requests_total", PrometheusWriter.Type.COUNTER, "Requests")
+                .sample("usrv_requests_total", "code=\"200\"", 3)
+                .family("usrv_ratio", PrometheusWriter.Type.GAUGE, "A ratio")
+                .sample("usrv_ratio", null, 0.25)
+                .toString();
+
+        assertEquals("""
+                # HELP usrv_requests_total Requests
+                # TYPE usrv_requests_total counter
+                usrv_requests_total{code="200"} 3
+                # HELP usrv_ratio A ratio
+                # TYPE usrv_ratio gauge
+                usrv_ratio 0.25
+                """, text);
+    }
+
+    @Test
+    @DisplayName("Writes histograms with cumulative buckets in seconds, ending with +Inf")
+    void testHistogram() {
+        Histogram histogram = new Histogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(40));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MINUTES.toNanos(1));
+
+        String text = new PrometheusWriter().histogram("usrv_duration_seconds", "cache=\"hit\"", histogram).toString();
+
+        assertThat(text, containsString("usrv_duration_seconds_bucket{cache=\"hit\",le=\"0.00005\"} 1\n"));
+        assertThat(text, containsString("usrv_duration_seconds_bucket{cache=\"hit\",le=\"0.0001\"} 2\n"));
+        assertThat(text, containsString("usrv_duration_seconds_bucket{cache=\"hit\",le=\"0.005\"} 3\n"));
+        assertThat(text, containsString("usrv_duration_seconds_bucket{cache=\"hit\",le=\"10\"} 3\n"));
+        assertThat(text, containsString("usrv_duration_seconds_bucket{cache=\"hit\",le=\"+Inf\"} 4\n"));
+        assertThat(text, containsString("usrv_duration_seconds_sum{cache=\"hit\"} 60.00314\n"));
+        assertThat(text, containsString("usrv_duration_seconds_count{cache=\"hit\"} 4\n"));
+    }
+}